@@ -1,24 +1,25 @@
 package com.escli4j.dao;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 
 import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.DocWriteRequest.OpType;
 import org.elasticsearch.action.DocWriteResponse.Result;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.unit.TimeValue;
 
+import com.escli4j.dao.bulk.BulkFailureException;
+import com.escli4j.dao.bulk.BulkPayload;
+import com.escli4j.dao.bulk.BulkResult;
 import com.escli4j.model.EsChildEntity;
 import com.escli4j.util.EscliJsonUtils;
 
@@ -36,7 +37,7 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
      * @param errorFunction callback gets exception on failure
      */
     public void isExist(String id, String parentId, Consumer<Boolean> function, Consumer<Throwable> errorFunction) {
-        prepareGet(id).setParent(parentId).execute(new ActionListener<GetResponse>() {
+        executeGet(prepareExists(id).setParent(parentId), new ActionListener<GetResponse>() {
 
             @Override
             public void onResponse(GetResponse response) {
@@ -68,12 +69,7 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
      * @param errorFunction callback gets exception on failure
      */
     public void create(T obj, RefreshPolicy refresh, Consumer<T> function, Consumer<Throwable> errorFunction) {
-        IndexRequestBuilder req = prepareIndex(obj.getId()).setParent(obj.getParent()).setRefreshPolicy(refresh)
-                .setSource(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON);
-        if (obj.getId() != null) {
-            req.setOpType(OpType.CREATE);
-        }
-        req.execute(new ActionListener<IndexResponse>() {
+        execute(newIndexRequest(obj).setRefreshPolicy(refresh), new ActionListener<IndexResponse>() {
 
             @Override
             public void onResponse(IndexResponse response) {
@@ -108,36 +104,27 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
      */
     public void create(List<T> objs, RefreshPolicy refresh, Consumer<List<T>> function,
             Consumer<Throwable> errorFunction) {
-        if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                IndexRequestBuilder req = prepareIndex(obj.getId()).setParent(obj.getParent())
-                        .setSource(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON);
-                if (obj.getId() != null) {
-                    req.setOpType(OpType.CREATE);
-                }
-                bulk.add(req);
+        bulkCreate(objs, refresh, result -> {
+            if (result.hasFailures()) {
+                errorFunction.accept(new BulkFailureException(result));
+            } else {
+                function.accept(objs);
             }
+        }, errorFunction);
+    }
 
-            bulk.execute(new ActionListener<BulkResponse>() {
-
-                @Override
-                public void onResponse(BulkResponse response) {
-                    for (BulkItemResponse item : response.getItems()) {
-                        objs.get(item.getItemId()).setId(item.getId());
-                    }
-                    function.accept(objs);
-                }
-
-                @Override
-                public void onFailure(Exception e) {
-                    errorFunction.accept(e);
-                }
-
-            });
-        } else {
-            function.accept(objs);
-        }
+    /**
+     * Asynchronous creates documents. Rejected documents are retried according to the retry policy of the bulk
+     * executor.
+     * @param objs documents to create
+     * @param refresh refresh index configuration
+     * @param function callback gets succeeded documents with ids, failed and retried documents
+     * @param errorFunction callback gets exception on failure
+     */
+    public void bulkCreate(List<T> objs, RefreshPolicy refresh, Consumer<BulkResult<T>> function,
+            Consumer<Throwable> errorFunction) {
+        bulkExecutor.execute(objs, (obj, payload) -> newIndexRequest(obj, payload).request(), refresh,
+                this::onCreated, new ActionHandler<>(function, errorFunction));
     }
 
     /**
@@ -148,7 +135,7 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
      * @param errorFunction callback gets exception on failure
      */
     public void get(String id, String parentId, Consumer<T> function, Consumer<Throwable> errorFunction) {
-        prepareGet(id).setParent(parentId).execute(new ActionListener<GetResponse>() {
+        executeGet(prepareGet(id).setParent(parentId), new ActionListener<GetResponse>() {
 
             @Override
             public void onResponse(GetResponse response) {
@@ -167,6 +154,141 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
         });
     }
 
+    /**
+     * Asynchronous searches documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
+     * @param function callback gets documents with ids
+     * @param errorFunction callback gets exception on failure
+     */
+    public void search(SearchRequestBuilder search, Consumer<List<T>> function, Consumer<Throwable> errorFunction) {
+        executeSearch(search, new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> readHits(r.getHits().getHits(), hit -> newObject(hit)), function,
+                        errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous gets projection of the document, only fields of the projection are fetched from the source
+     * @param id document id
+     * @param parentId parent document id
+     * @param projection class or interface of the projection
+     * @param function callback gets projection of the document with id, null if document not exists
+     * @param errorFunction callback gets exception on failure
+     */
+    public <P> void get(String id, String parentId, Class<P> projection, Consumer<P> function,
+            Consumer<Throwable> errorFunction) {
+        Projection<P> view = Projection.of(projection);
+        executeGet(prepareGet(id).setParent(parentId).setFetchSource(view.getIncludes(), null),
+                new ActionListener<GetResponse>() {
+
+                    @Override
+                    public void onResponse(GetResponse response) {
+                        if (response.isExists()) {
+                            function.accept(withParent(view.read(response.getSourceAsBytes(), id), parentId));
+                        } else {
+                            function.accept(null);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        errorFunction.accept(e);
+                    }
+
+                });
+    }
+
+    /**
+     * Asynchronous searches projections of the documents, only fields of the projection are fetched from the source
+     * @param search search request, source filtering of the request is replaced
+     * @param projection class or interface of the projection
+     * @param function callback gets projections of the documents with ids
+     * @param errorFunction callback gets exception on failure
+     */
+    public <P> void search(SearchRequestBuilder search, Class<P> projection, Consumer<List<P>> function,
+            Consumer<Throwable> errorFunction) {
+        Projection<P> view = Projection.of(projection);
+        executeSearch(search.setFetchSource(view.getIncludes(), null), new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> readHits(r.getHits().getHits(), hit -> newView(view, hit)), function,
+                        errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous searches page of documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
+     * @param function callback gets page of the documents with total hits, page has no cursor
+     * @param errorFunction callback gets exception on failure
+     */
+    public void searchPage(SearchRequestBuilder search, Consumer<SearchPage<T>> function,
+            Consumer<Throwable> errorFunction) {
+        executeSearch(search, new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> new SearchPage<>(readHits(r.getHits().getHits(), hit -> newObject(hit)),
+                        r.getHits().getTotalHits(), null), function, errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous searches the page after the cursor. Search without sort is sorted by score, _uid is added as the
+     * tiebreaker sort.
+     * @param search search request, page size is the size of the request, request is modified
+     * @param cursor cursor of the previous page, null for the first page
+     * @param function callback gets page of the documents with cursor of the next page
+     * @param errorFunction callback gets exception on failure
+     */
+    public void searchAfter(SearchRequestBuilder search, String cursor, Consumer<SearchPage<T>> function,
+            Consumer<Throwable> errorFunction) {
+        try {
+            prepareSearchAfter(search, cursor);
+        } catch (IllegalArgumentException e) {
+            errorFunction.accept(e);
+            return;
+        }
+        executeSearch(search, new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> newPage(search, r, hit -> newObject(hit)), function, errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
     /**
      * Asynchronous update document
      * @param obj object to update
@@ -188,17 +310,12 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
      */
     public void update(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop, Consumer<T> function,
             Consumer<Throwable> errorFunction) {
-        prepareUpdate(obj.getId()).setParent(obj.getParent()).setRefreshPolicy(refresh).setDocAsUpsert(docAsUpsert)
-                .setFetchSource(true).setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON)
-                .execute(new ActionListener<UpdateResponse>() {
+        UpdateRequestBuilder req = newUpdateRequest(obj, docAsUpsert, true).setRefreshPolicy(refresh);
+        execute(req, new ActionListener<UpdateResponse>() {
 
                     @Override
                     public void onResponse(UpdateResponse response) {
-                        if (nullWithNoop && Result.NOOP == response.getResult()) {
-                            function.accept(null);
-                        } else {
-                            function.accept(newObject(response.getGetResult(), obj.getParent()));
-                        }
+                        function.accept(onUpdated(obj, response, nullWithNoop));
                     }
 
                     @Override
@@ -235,39 +352,135 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
     public void update(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
             Consumer<List<T>> function, Consumer<Throwable> errorFunction) {
         if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                bulk.add(prepareUpdate(obj.getId()).setParent(obj.getParent()).setDocAsUpsert(docAsUpsert)
-                        .setFetchSource(true).setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON));
-            }
-            bulk.execute(new ActionListener<BulkResponse>() {
-
-                @Override
-                public void onResponse(BulkResponse resp) {
-                    ArrayList<T> retval = new ArrayList<>();
-                    for (BulkItemResponse item : resp.getItems()) {
-                        T obj = objs.get(item.getItemId());
-                        UpdateResponse response = item.getResponse();
-                        if (nullWithNoop && Result.NOOP == response.getResult()) {
-                            // do nothing
-                        } else {
-                            retval.add(newObject(response.getGetResult(), obj.getParent()));
-                        }
-                    }
-                    function.accept(retval);
-                }
-
-                @Override
-                public void onFailure(Exception e) {
-                    errorFunction.accept(e);
+            bulkUpdate(objs, refresh, docAsUpsert, nullWithNoop, result -> {
+                if (result.hasFailures()) {
+                    errorFunction.accept(new BulkFailureException(result));
+                } else {
+                    function.accept(result.getSucceeded());
                 }
-
-            });
+            }, errorFunction);
         } else {
             function.accept(objs);
         }
     }
 
+    /**
+     * Asynchronous update documents. Rejected documents are retried according to the retry policy of the bulk
+     * executor.
+     * @param objs objects to update
+     * @param refresh refresh configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @param function callback gets <strong>new</strong> objects that was updated as succeeded, failed and retried
+     * objects
+     * @param errorFunction callback gets exception on failure
+     */
+    public void bulkUpdate(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            Consumer<BulkResult<T>> function, Consumer<Throwable> errorFunction) {
+        bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).request(), refresh,
+                (obj, resp) -> onUpdated(obj, resp, nullWithNoop), new ActionHandler<>(function, errorFunction));
+    }
+
+    /**
+     * Asynchronous update document without fetching the source back
+     * @param obj object to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param function callback gets result and version of the update request
+     * @param errorFunction callback gets exception on failure
+     */
+    public void updateStatus(T obj, RefreshPolicy refresh, boolean docAsUpsert, Consumer<UpdateStatus<T>> function,
+            Consumer<Throwable> errorFunction) {
+        execute(newUpdateRequest(obj, docAsUpsert, false).setRefreshPolicy(refresh),
+                new ActionHandler<>(response -> function.accept(new UpdateStatus<>(advanceSnapshot(obj), response)),
+                        errorFunction));
+    }
+
+    /**
+     * Asynchronous update documents without fetching the sources back. Rejected documents are retried according to
+     * the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param function callback gets results and versions of the update requests as succeeded, failed and retried
+     * statuses
+     * @param errorFunction callback gets exception on failure
+     */
+    public void bulkUpdateStatus(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert,
+            Consumer<BulkResult<UpdateStatus<T>>> function, Consumer<Throwable> errorFunction) {
+        bulkExecutor.execute(UpdateStatus.pending(objs),
+                (status, payload) -> newUpdateRequest(status.getObj(), docAsUpsert, false, payload).request(),
+                refresh, (status, resp) -> new UpdateStatus<>(advanceSnapshot(status.getObj()), resp),
+                new ActionHandler<>(function, errorFunction));
+    }
+
+    /**
+     * Asynchronous update document and fetch only given fields of the updated source
+     * @param obj object to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop return null if there was a noop
+     * @param function callback gets <strong>new</strong> object with included fields only
+     * @param errorFunction callback gets exception on failure
+     * @param includes source fields to fetch, wildcards are supported
+     */
+    public void updateIncludes(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            Consumer<T> function, Consumer<Throwable> errorFunction, String... includes) {
+        checkIncludes(includes);
+        execute(newUpdateRequest(obj, docAsUpsert, true).setFetchSource(includes, null).setRefreshPolicy(refresh),
+                new ActionHandler<>(response -> function.accept(onUpdated(obj, response, nullWithNoop)),
+                        errorFunction));
+    }
+
+    /**
+     * Asynchronous update documents and fetch only given fields of the updated sources. Rejected documents are
+     * retried according to the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @param function callback gets <strong>new</strong> objects with included fields only as succeeded, failed and
+     * retried objects
+     * @param errorFunction callback gets exception on failure
+     * @param includes source fields to fetch, wildcards are supported
+     */
+    public void bulkUpdateIncludes(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            Consumer<BulkResult<T>> function, Consumer<Throwable> errorFunction, String... includes) {
+        checkIncludes(includes);
+        bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).setFetchSource(includes, null)
+                        .request(),
+                refresh, (obj, resp) -> onUpdated(obj, resp, nullWithNoop),
+                new ActionHandler<>(function, errorFunction));
+    }
+
+    /**
+     * Creates coalescer that merges updates of the same document that come within the window into one update request.
+     * Partial docs are merged field by field, the last written value of the field wins.
+     * @param window time updates of the same document are collected
+     * @param docAsUpsert should merged doc be upserted or not
+     * @return update coalescer, close it to send pending updates
+     */
+    public UpdateCoalescer<T> updateCoalescer(TimeValue window, boolean docAsUpsert) {
+        return updateCoalescer(window, docAsUpsert, null);
+    }
+
+    /**
+     * Creates coalescer that merges updates of the same document that come within the window into one update request
+     * @param window time updates of the same document are collected
+     * @param docAsUpsert should merged doc be upserted or not
+     * @param mergeFunction merges previous and next object of the same document, null to merge partial docs field by
+     * field
+     * @return update coalescer, close it to send pending updates
+     */
+    public UpdateCoalescer<T> updateCoalescer(TimeValue window, boolean docAsUpsert, BinaryOperator<T> mergeFunction) {
+        return new UpdateCoalescer<>(client.threadPool(), window, obj -> EscliJsonUtils.valueToTree(partialDoc(obj)),
+                mergeFunction,
+                (obj, doc) -> newUpdateRequest(obj, doc, docAsUpsert, true, BulkPayload.heap()),
+                (obj, resp) -> onUpdated(obj, resp, false), this::execute);
+    }
+
     /**
      * Asynchronous delete document
      * @param id document id to delete
@@ -289,7 +502,7 @@ public class AsyncChildEntityDao<T extends EsChildEntity> extends ChildEntityDao
      */
     public void delete(String id, String parentId, RefreshPolicy refresh, Consumer<Result> function,
             Consumer<Throwable> errorFunction) {
-        prepareDelete(id).setParent(parentId).setRefreshPolicy(refresh).execute(new ActionListener<DeleteResponse>() {
+        execute(prepareDelete(id).setParent(parentId).setRefreshPolicy(refresh), new ActionListener<DeleteResponse>() {
 
             @Override
             public void onResponse(DeleteResponse response) {
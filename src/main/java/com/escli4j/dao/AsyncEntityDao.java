@@ -1,31 +1,38 @@
 package com.escli4j.dao;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.DocWriteRequest.OpType;
 import org.elasticsearch.action.DocWriteResponse.Result;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.get.MultiGetItemResponse;
-import org.elasticsearch.action.get.MultiGetRequestBuilder;
-import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.xcontent.XContentType;
-
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+
+import com.escli4j.dao.bulk.BulkFailureException;
+import com.escli4j.dao.bulk.BulkPayload;
+import com.escli4j.dao.bulk.BulkResult;
+import com.escli4j.dao.cache.NearCache;
 import com.escli4j.model.EsEntity;
 import com.escli4j.util.EscliJsonUtils;
 
@@ -42,7 +49,11 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      * @param errorFunction callback gets exception on failure
      */
     public void isExist(String id, Consumer<Boolean> function, Consumer<Throwable> errorFunction) {
-        prepareGet(id).execute(new ActionListener<GetResponse>() {
+        if (isAbsent(id)) {
+            function.accept(false);
+            return;
+        }
+        executeGet(prepareExists(id), new ActionListener<GetResponse>() {
 
             @Override
             public void onResponse(GetResponse response) {
@@ -64,28 +75,24 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      * @param ids document id
      */
     public void isExist(Consumer<Set<String>> function, Consumer<Throwable> errorFunction, String... ids) {
-        if (ids.length > 0) {
-            MultiGetRequestBuilder bulk = prepareMultiGet(ids);
-            bulk.execute(new ActionListener<MultiGetResponse>() {
-
-                @Override
-                public void onResponse(MultiGetResponse response) {
-                    Set<String> retval = new HashSet<>(response.getResponses().length);
-                    for (MultiGetItemResponse item : response.getResponses()) {
-                        GetResponse resp = item.getResponse();
-                        if (resp.isExists()) {
-                            retval.add(resp.getId());
-                        }
-                    }
-                    function.accept(retval);
-                }
-
-                @Override
-                public void onFailure(Exception e) {
-                    errorFunction.accept(e);
-                }
+        existence(bits -> {
+            Set<String> retval = new HashSet<>(bits.cardinality());
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                retval.add(ids[i]);
+            }
+            function.accept(retval);
+        }, errorFunction, ids);
+    }
 
-            });
+    /**
+     * Asynchronous check documents existence by id. Large arrays are checked with chunked multi gets in parallel.
+     * @param function callback gets BitSet with the positions of the existed ids
+     * @param errorFunction callback gets exception on failure
+     * @param ids document id
+     */
+    public void existence(Consumer<BitSet> function, Consumer<Throwable> errorFunction, String... ids) {
+        if (ids.length > 0) {
+            multiExists(ids, ActionListener.wrap(function::accept, errorFunction::accept));
         } else {
             throw new IllegalArgumentException("Ids length must be > 0.");
         }
@@ -109,15 +116,12 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      * @param errorFunction callback gets exception on failure
      */
     public void create(T obj, RefreshPolicy refresh, Consumer<T> function, Consumer<Throwable> errorFunction) {
-        IndexRequestBuilder req = prepareIndex(obj.getId()).setRefreshPolicy(refresh)
-                .setSource(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON);
-        if (obj.getId() != null) {
-            req.setOpType(OpType.CREATE);
-        }
-        req.execute(new ActionListener<IndexResponse>() {
+        IndexRequestBuilder req = newIndexRequest(obj).setRefreshPolicy(refresh);
+        execute(req, new ActionListener<IndexResponse>() {
 
             @Override
             public void onResponse(IndexResponse response) {
+                onWritten(response, req.request().source());
                 obj.setId(response.getId());
                 function.accept(obj);
             }
@@ -149,36 +153,27 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      */
     public void create(List<T> objs, RefreshPolicy refresh, Consumer<List<T>> function,
             Consumer<Throwable> errorFunction) {
-        if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                IndexRequestBuilder req = prepareIndex(obj.getId()).setSource(EscliJsonUtils.writeValueAsBytes(obj),
-                        XContentType.JSON);
-                if (obj.getId() != null) {
-                    req.setOpType(OpType.CREATE);
-                }
-                bulk.add(req);
+        bulkCreate(objs, refresh, result -> {
+            if (result.hasFailures()) {
+                errorFunction.accept(new BulkFailureException(result));
+            } else {
+                function.accept(objs);
             }
+        }, errorFunction);
+    }
 
-            bulk.execute(new ActionListener<BulkResponse>() {
-
-                @Override
-                public void onResponse(BulkResponse response) {
-                    for (BulkItemResponse item : response.getItems()) {
-                        objs.get(item.getItemId()).setId(item.getId());
-                    }
-                    function.accept(objs);
-                }
-
-                @Override
-                public void onFailure(Exception e) {
-                    errorFunction.accept(e);
-                }
-
-            });
-        } else {
-            function.accept(objs);
-        }
+    /**
+     * Asynchronous creates documents. Rejected documents are retried according to the retry policy of the bulk
+     * executor.
+     * @param objs documents to create
+     * @param refresh refresh index configuration
+     * @param function callback gets succeeded documents with ids, failed and retried documents
+     * @param errorFunction callback gets exception on failure
+     */
+    public void bulkCreate(List<T> objs, RefreshPolicy refresh, Consumer<BulkResult<T>> function,
+            Consumer<Throwable> errorFunction) {
+        bulkExecutor.execute(objs, (obj, payload) -> newIndexRequest(obj, payload).request(), refresh,
+                this::onCreated, new ActionHandler<>(function, errorFunction));
     }
 
     /**
@@ -188,7 +183,13 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      * @param errorFunction callback gets exception on failure
      */
     public void get(String id, Consumer<T> function, Consumer<Throwable> errorFunction) {
-        prepareGet(id).execute(new ActionListener<GetResponse>() {
+        NearCache<String, byte[]> cache = this.cache;
+        NearCache.Entry<byte[]> entry = cache == null ? null : cache.get(id);
+        if (entry != null) {
+            function.accept(entry.isMissing() ? null : newObject(entry.getValue(), id));
+            return;
+        }
+        executeGet(id, new ActionListener<GetResponse>() {
 
             @Override
             public void onResponse(GetResponse response) {
@@ -215,30 +216,218 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      */
     public void get(Consumer<Map<String, T>> function, Consumer<Throwable> errorFunction, String... ids) {
         if (ids.length > 0) {
-            MultiGetRequestBuilder bulk = prepareMultiGet(ids);
-            bulk.execute(new ActionListener<MultiGetResponse>() {
-
-                @Override
-                public void onResponse(MultiGetResponse response) {
-                    Map<String, T> retval = new HashMap<>(response.getResponses().length);
-                    for (MultiGetItemResponse item : response.getResponses()) {
-                        GetResponse resp = item.getResponse();
-                        if (resp.isExists()) {
-                            retval.put(resp.getId(), newObject(resp.getSourceAsBytes(), resp.getId()));
-                        }
-                    }
-                    function.accept(retval);
-                }
+            multiGet(ids, ActionListener.wrap(sources -> function.accept(newObjects(ids, sources)),
+                    errorFunction::accept));
+        } else {
+            throw new IllegalArgumentException("Ids length must be > 0.");
+        }
+    }
+
+    private Map<String, T> newObjects(String[] ids, byte[][] sources) {
+        Map<String, T> retval = new HashMap<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (sources[i] != null) {
+                retval.put(ids[i], newObject(sources[i], ids[i]));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Asynchronous searches documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
+     * @param function callback gets documents with ids
+     * @param errorFunction callback gets exception on failure
+     */
+    public void search(SearchRequestBuilder search, Consumer<List<T>> function, Consumer<Throwable> errorFunction) {
+        executeSearch(search, new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> readHits(r.getHits().getHits(), hit -> newObject(hit)), function,
+                        errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous gets projection of the document, only fields of the projection are fetched from the source
+     * @param id document id
+     * @param projection class or interface of the projection
+     * @param function callback gets projection of the document with id, null if document not exists
+     * @param errorFunction callback gets exception on failure
+     */
+    public <P> void get(String id, Class<P> projection, Consumer<P> function, Consumer<Throwable> errorFunction) {
+        Projection<P> view = Projection.of(projection);
+        executeGet(prepareGet(id).setFetchSource(view.getIncludes(), null), new ActionListener<GetResponse>() {
 
-                @Override
-                public void onFailure(Exception e) {
-                    errorFunction.accept(e);
+            @Override
+            public void onResponse(GetResponse response) {
+                if (response.isExists()) {
+                    function.accept(view.read(response.getSourceAsBytes(), id));
+                } else {
+                    function.accept(null);
                 }
+            }
 
-            });
-        } else {
-            throw new IllegalArgumentException("Ids length must be > 0.");
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous searches projections of the documents, only fields of the projection are fetched from the source
+     * @param search search request, source filtering of the request is replaced
+     * @param projection class or interface of the projection
+     * @param function callback gets projections of the documents with ids
+     * @param errorFunction callback gets exception on failure
+     */
+    public <P> void search(SearchRequestBuilder search, Class<P> projection, Consumer<List<P>> function,
+            Consumer<Throwable> errorFunction) {
+        Projection<P> view = Projection.of(projection);
+        executeSearch(search.setFetchSource(view.getIncludes(), null), new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> readHits(r.getHits().getHits(), hit -> newView(view, hit)), function,
+                        errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous counts documents with the shard request cache
+     * @param query query of the documents to count, null to count all documents
+     * @param function callback gets number of the documents
+     * @param errorFunction callback gets exception on failure
+     */
+    public void count(QueryBuilder query, Consumer<Long> function, Consumer<Throwable> errorFunction) {
+        executeCount(prepareCount(query), r -> r.getHits().getTotalHits(), function, errorFunction);
+    }
+
+    /**
+     * Asynchronous checks that any document matches the query, every shard stops on the first found document
+     * @param query query of the documents to check, null to check any document
+     * @param function callback gets true if at least one document matches
+     * @param errorFunction callback gets exception on failure
+     */
+    public void existsByQuery(QueryBuilder query, Consumer<Boolean> function, Consumer<Throwable> errorFunction) {
+        executeCount(prepareExistsByQuery(query), r -> r.getHits().getTotalHits() > 0, function, errorFunction);
+    }
+
+    /**
+     * Asynchronous computes aggregation with the shard request cache
+     * @param query query of the aggregated documents, null to aggregate all documents
+     * @param aggregation aggregation to compute
+     * @param type expected type of the aggregation, for example {@link Terms}
+     * @param function callback gets computed aggregation
+     * @param errorFunction callback gets exception on failure
+     */
+    public <A extends Aggregation> void aggregate(QueryBuilder query, AggregationBuilder aggregation, Class<A> type,
+            Consumer<A> function, Consumer<Throwable> errorFunction) {
+        executeCount(prepareAggregate(query, aggregation), r -> aggregation(r, aggregation.getName(), type), function,
+                errorFunction);
+    }
+
+    /**
+     * Asynchronous counts documents by the values of the field with the shard request cache
+     * @param query query of the counted documents, null to count all documents
+     * @param field field to group by
+     * @param size max number of the top values
+     * @param function callback gets number of documents by the value in the order of the counts
+     * @param errorFunction callback gets exception on failure
+     */
+    public void countBy(QueryBuilder query, String field, int size, Consumer<Map<String, Long>> function,
+            Consumer<Throwable> errorFunction) {
+        aggregate(query, AggregationBuilders.terms(field).field(field).size(size), Terms.class,
+                terms -> function.accept(counts(terms)), errorFunction);
+    }
+
+    private <R> void executeCount(SearchRequestBuilder search, Function<SearchResponse, R> converter,
+            Consumer<R> function, Consumer<Throwable> errorFunction) {
+        executeSearch(search, new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, converter, function, errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous searches page of documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
+     * @param function callback gets page of the documents with total hits, page has no cursor
+     * @param errorFunction callback gets exception on failure
+     */
+    public void searchPage(SearchRequestBuilder search, Consumer<SearchPage<T>> function,
+            Consumer<Throwable> errorFunction) {
+        executeSearch(search, new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> new SearchPage<>(readHits(r.getHits().getHits(), hit -> newObject(hit)),
+                        r.getHits().getTotalHits(), null), function, errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous searches the page after the cursor. Search without sort is sorted by score, _uid is added as the
+     * tiebreaker sort.
+     * @param search search request, page size is the size of the request, request is modified
+     * @param cursor cursor of the previous page, null for the first page
+     * @param function callback gets page of the documents with cursor of the next page
+     * @param errorFunction callback gets exception on failure
+     */
+    public void searchAfter(SearchRequestBuilder search, String cursor, Consumer<SearchPage<T>> function,
+            Consumer<Throwable> errorFunction) {
+        try {
+            prepareSearchAfter(search, cursor);
+        } catch (IllegalArgumentException e) {
+            errorFunction.accept(e);
+            return;
         }
+        executeSearch(search, new ActionListener<SearchResponse>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                convert(response, r -> newPage(search, r, hit -> newObject(hit)), function, errorFunction);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errorFunction.accept(e);
+            }
+
+        });
     }
 
     /**
@@ -262,13 +451,12 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      */
     public void update(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop, Consumer<T> function,
             Consumer<Throwable> errorFunction) {
-        prepareUpdate(obj.getId()).setRefreshPolicy(refresh).setDocAsUpsert(docAsUpsert).setFetchSource(true)
-                .setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON)
-                .execute(new ActionListener<UpdateResponse>() {
+        UpdateRequestBuilder req = newUpdateRequest(obj, docAsUpsert, true).setRefreshPolicy(refresh);
+        execute(req, new ActionListener<UpdateResponse>() {
 
                     @Override
                     public void onResponse(UpdateResponse response) {
-                        function.accept(newObject(response.getGetResult().source(), obj.getId()));
+                        function.accept(onUpdatedSource(obj, response, nullWithNoop));
                     }
 
                     @Override
@@ -305,41 +493,136 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
     public void update(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
             Consumer<List<T>> function, Consumer<Throwable> errorFunction) {
         if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                bulk.add(prepareUpdate(obj.getId()).setDocAsUpsert(docAsUpsert).setFetchSource(true)
-                        .setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON));
-            }
-            bulk.execute(new ActionListener<BulkResponse>() {
-
-                @Override
-                public void onResponse(BulkResponse response) {
-                    ArrayList<T> retval = new ArrayList<>();
-                    for (BulkItemResponse item : response.getItems()) {
-                        UpdateResponse updateResponce = item.getResponse();
-                        T obj = objs.get(item.getItemId());
-                        if (nullWithNoop) {
-                            if (updateResponce.getResult() != Result.NOOP) {
-                                retval.add(newObject(updateResponce.getGetResult().source(), obj.getId()));
-                            }
-                        } else {
-                            retval.add(newObject(updateResponce.getGetResult().source(), obj.getId()));
-                        }
-                    }
-                    function.accept(retval);
-                }
-
-                @Override
-                public void onFailure(Exception e) {
-                    errorFunction.accept(e);
+            bulkUpdate(objs, refresh, docAsUpsert, nullWithNoop, result -> {
+                if (result.hasFailures()) {
+                    errorFunction.accept(new BulkFailureException(result));
+                } else {
+                    function.accept(result.getSucceeded());
                 }
-
-            });
+            }, errorFunction);
         } else {
             function.accept(objs);
         }
     }
 
+    /**
+     * Asynchronous update documents. Rejected documents are retried according to the retry policy of the bulk
+     * executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @param function callback gets <strong>new</strong> objects that was updated as succeeded, failed and retried
+     * objects
+     * @param errorFunction callback gets exception on failure
+     */
+    public void bulkUpdate(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            Consumer<BulkResult<T>> function, Consumer<Throwable> errorFunction) {
+        bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).request(), refresh,
+                (obj, resp) -> onUpdatedSource(obj, resp, nullWithNoop),
+                new ActionHandler<>(function, errorFunction));
+    }
+
+    /**
+     * Asynchronous update document without fetching the source back
+     * @param obj object to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param function callback gets result and version of the update request
+     * @param errorFunction callback gets exception on failure
+     */
+    public void updateStatus(T obj, RefreshPolicy refresh, boolean docAsUpsert, Consumer<UpdateStatus<T>> function,
+            Consumer<Throwable> errorFunction) {
+        execute(newUpdateRequest(obj, docAsUpsert, false).setRefreshPolicy(refresh),
+                new ActionHandler<>(response -> function.accept(new UpdateStatus<>(advanceSnapshot(obj), response)),
+                        errorFunction));
+    }
+
+    /**
+     * Asynchronous update documents without fetching the sources back. Rejected documents are retried according to
+     * the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param function callback gets results and versions of the update requests as succeeded, failed and retried
+     * statuses
+     * @param errorFunction callback gets exception on failure
+     */
+    public void bulkUpdateStatus(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert,
+            Consumer<BulkResult<UpdateStatus<T>>> function, Consumer<Throwable> errorFunction) {
+        bulkExecutor.execute(UpdateStatus.pending(objs),
+                (status, payload) -> newUpdateRequest(status.getObj(), docAsUpsert, false, payload).request(),
+                refresh, (status, resp) -> new UpdateStatus<>(advanceSnapshot(status.getObj()), resp),
+                new ActionHandler<>(function, errorFunction));
+    }
+
+    /**
+     * Asynchronous update document and fetch only given fields of the updated source
+     * @param obj object to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop return null if there was a noop
+     * @param function callback gets <strong>new</strong> object with included fields only
+     * @param errorFunction callback gets exception on failure
+     * @param includes source fields to fetch, wildcards are supported
+     */
+    public void updateIncludes(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            Consumer<T> function, Consumer<Throwable> errorFunction, String... includes) {
+        checkIncludes(includes);
+        execute(newUpdateRequest(obj, docAsUpsert, true).setFetchSource(includes, null).setRefreshPolicy(refresh),
+                new ActionHandler<>(response -> function.accept(onUpdated(obj, response, nullWithNoop)),
+                        errorFunction));
+    }
+
+    /**
+     * Asynchronous update documents and fetch only given fields of the updated sources. Rejected documents are
+     * retried according to the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @param function callback gets <strong>new</strong> objects with included fields only as succeeded, failed and
+     * retried objects
+     * @param errorFunction callback gets exception on failure
+     * @param includes source fields to fetch, wildcards are supported
+     */
+    public void bulkUpdateIncludes(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            Consumer<BulkResult<T>> function, Consumer<Throwable> errorFunction, String... includes) {
+        checkIncludes(includes);
+        bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).setFetchSource(includes, null)
+                        .request(),
+                refresh, (obj, resp) -> onUpdated(obj, resp, nullWithNoop),
+                new ActionHandler<>(function, errorFunction));
+    }
+
+    /**
+     * Creates coalescer that merges updates of the same document that come within the window into one update request.
+     * Partial docs are merged field by field, the last written value of the field wins.
+     * @param window time updates of the same document are collected
+     * @param docAsUpsert should merged doc be upserted or not
+     * @return update coalescer, close it to send pending updates
+     */
+    public UpdateCoalescer<T> updateCoalescer(TimeValue window, boolean docAsUpsert) {
+        return updateCoalescer(window, docAsUpsert, null);
+    }
+
+    /**
+     * Creates coalescer that merges updates of the same document that come within the window into one update request
+     * @param window time updates of the same document are collected
+     * @param docAsUpsert should merged doc be upserted or not
+     * @param mergeFunction merges previous and next object of the same document, null to merge partial docs field by
+     * field
+     * @return update coalescer, close it to send pending updates
+     */
+    public UpdateCoalescer<T> updateCoalescer(TimeValue window, boolean docAsUpsert, BinaryOperator<T> mergeFunction) {
+        return new UpdateCoalescer<>(client.threadPool(), window, obj -> EscliJsonUtils.valueToTree(partialDoc(obj)),
+                mergeFunction,
+                (obj, doc) -> newUpdateRequest(obj, doc, docAsUpsert, true, BulkPayload.heap()),
+                (obj, resp) -> onUpdatedSource(obj, resp, false), this::execute);
+    }
+
     /**
      * Asynchronous delete document
      * @param id document id to delete
@@ -358,7 +641,7 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      * @param errorFunction callback gets exception on failure
      */
     public void delete(String id, RefreshPolicy refresh, Consumer<Result> function, Consumer<Throwable> errorFunction) {
-        prepareDelete(id).setRefreshPolicy(refresh).execute(new ActionListener<DeleteResponse>() {
+        execute(prepareDelete(id).setRefreshPolicy(refresh), new ActionListener<DeleteResponse>() {
 
             @Override
             public void onResponse(DeleteResponse response) {
@@ -391,30 +674,20 @@ public class AsyncEntityDao<T extends EsEntity> extends EntityDao<T> {
      */
     public void delete(RefreshPolicy refresh, Consumer<Boolean> function, Consumer<Throwable> errorFunction,
             String... ids) {
+        bulkDelete(refresh, result -> function.accept(!result.hasFailures()), errorFunction, ids);
+    }
 
-        if (ids.length > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (String id : ids) {
-                bulk.add(prepareDelete(id));
-            }
-            bulk.execute(new ActionListener<BulkResponse>() {
-
-                @Override
-                public void onResponse(BulkResponse response) {
-                    boolean retval = true;
-                    for (BulkItemResponse item : response.getItems()) {
-                        retval &= !item.isFailed();
-                    }
-                    function.accept(retval);
-                }
-
-                @Override
-                public void onFailure(Exception e) {
-                    errorFunction.accept(e);
-                }
-            });
-
-        }
+    /**
+     * Asynchronous delete documents. Rejected deletes are retried according to the retry policy of the bulk
+     * executor. Large arrays are deleted with chunked bulks in parallel.
+     * @param refresh refresh index configuration
+     * @param function callback gets ids of the deleted or not found documents as succeeded, failed and retried ids
+     * @param errorFunction callback gets exception on failure
+     * @param ids document ids to delete
+     */
+    public void bulkDelete(RefreshPolicy refresh, Consumer<BulkResult<String>> function,
+            Consumer<Throwable> errorFunction, String... ids) {
+        multiDelete(refresh, ids, (id, resp) -> id, new ActionHandler<>(function, errorFunction));
     }
 
 }
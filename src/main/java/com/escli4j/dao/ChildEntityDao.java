@@ -1,24 +1,33 @@
 package com.escli4j.dao;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.elasticsearch.action.DocWriteRequest.OpType;
+import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.DocWriteResponse.Result;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
 
+import com.escli4j.dao.bulk.BulkFailureException;
+import com.escli4j.dao.bulk.BulkIngestor;
+import com.escli4j.dao.bulk.BulkPayload;
+import com.escli4j.dao.bulk.BulkResult;
 import com.escli4j.model.EsChildEntity;
-import com.escli4j.util.EscliJsonUtils;
 
 public class ChildEntityDao<T extends EsChildEntity> extends Dao {
 
@@ -32,14 +41,24 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
     }
 
     protected T newObject(GetResponse response) {
-        T retval = EscliJsonUtils.read(response.getSourceAsBytes(), clazz);
+        T retval = readEntity(response.getSourceAsBytes(), clazz);
         retval.setId(response.getId());
         retval.setParent(response.getField(_parent).getValue().toString());
         return retval;
     }
 
+    protected T newObject(SearchHit hit) {
+        T retval = readEntity(BytesReference.toBytes(hit.getSourceRef()), clazz);
+        retval.setId(hit.getId());
+        SearchHitField parent = hit.getField(_parent);
+        if (parent != null) {
+            retval.setParent(parent.getValue().toString());
+        }
+        return retval;
+    }
+
     protected T newObject(GetResult result, String parentId) {
-        T retval = EscliJsonUtils.read(result.source(), clazz);
+        T retval = readEntity(result.source(), clazz);
         retval.setId(result.getId());
         // There is no parentId (_parent) field in update api response
         // https://discuss.elastic.co/t/update-api-missing-parent-in-response/122555
@@ -47,6 +66,126 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
         return retval;
     }
 
+    /**
+     * Builds index request that creates document
+     * @param obj document to create
+     * @return index request with source and parent of the document
+     */
+    protected IndexRequestBuilder newIndexRequest(T obj) {
+        return newIndexRequest(obj, BulkPayload.heap());
+    }
+
+    /**
+     * Builds index request that creates document
+     * @param obj document to create
+     * @param payload buffer the source is serialized to
+     * @return index request with source of the document
+     */
+    protected IndexRequestBuilder newIndexRequest(T obj, BulkPayload payload) {
+        IndexRequestBuilder req = prepareIndex(obj.getId()).setParent(obj.getParent())
+                .setSource(payload.write(obj), XContentType.JSON);
+        if (obj.getId() != null) {
+            req.setOpType(OpType.CREATE);
+        }
+        return req;
+    }
+
+    /**
+     * Builds update request with document as partial doc
+     * @param obj document to update
+     * @param docAsUpsert should this doc be upserted or not
+     * @param fetchSource should updated source be returned or not
+     * @return update request with parent of the document
+     */
+    protected UpdateRequestBuilder newUpdateRequest(T obj, boolean docAsUpsert, boolean fetchSource) {
+        return newUpdateRequest(obj, docAsUpsert, fetchSource, BulkPayload.heap());
+    }
+
+    /**
+     * Builds update request with document as partial doc, or only with changed fields if changes are tracked
+     * @param obj document to update
+     * @param docAsUpsert should this doc be upserted or not
+     * @param fetchSource should updated source be returned or not
+     * @param payload buffer the partial doc is serialized to
+     * @return update request
+     */
+    protected UpdateRequestBuilder newUpdateRequest(T obj, boolean docAsUpsert, boolean fetchSource,
+            BulkPayload payload) {
+        return newUpdateRequest(obj, partialDoc(obj), docAsUpsert, fetchSource, payload);
+    }
+
+    /**
+     * Builds update request with the given partial doc, the document itself is the upsert if changes are tracked
+     * @param obj document to update
+     * @param doc partial doc of the document
+     * @param docAsUpsert should this doc be upserted or not
+     * @param fetchSource should updated source be returned or not
+     * @param payload buffer the partial doc is serialized to
+     * @return update request
+     */
+    protected UpdateRequestBuilder newUpdateRequest(T obj, Object doc, boolean docAsUpsert, boolean fetchSource,
+            BulkPayload payload) {
+        UpdateRequestBuilder req = prepareUpdate(obj.getId()).setParent(obj.getParent()).setFetchSource(fetchSource)
+                .setDoc(new IndexRequest().source(payload.write(doc), XContentType.JSON));
+        if (!isTracked(obj)) {
+            req.setDocAsUpsert(docAsUpsert);
+        } else if (docAsUpsert) {
+            // changed fields are not enough to create missing document
+            req.setUpsert(new IndexRequest().source(payload.write(obj), XContentType.JSON));
+        }
+        return req;
+    }
+
+    /**
+     * Sets id of the created document
+     * @param obj created document
+     * @param response item response of the create request
+     * @return same object with id
+     */
+    protected T onCreated(T obj, DocWriteResponse response) {
+        obj.setId(response.getId());
+        return obj;
+    }
+
+    /**
+     * Builds updated document from the fetched source
+     * @param obj document that was sent
+     * @param response item response of the update request
+     * @param nullWithNoop return null if there was a noop
+     * @return <strong>new</strong> object with updated source
+     */
+    protected T onUpdated(T obj, DocWriteResponse response, boolean nullWithNoop) {
+        advanceSnapshot(obj);
+        if (nullWithNoop && Result.NOOP == response.getResult()) {
+            return null;
+        } else {
+            return newObject(((UpdateResponse) response).getGetResult(), obj.getParent());
+        }
+    }
+
+    /**
+     * Creates documents ingestor that writes continuous stream of documents with auto flushed bulks. Created
+     * documents get ids before they passed to the listener.
+     * @param listener gets per bulk results
+     * @return ingestor builder
+     */
+    public BulkIngestor.Builder<T> createIngestor(BulkIngestor.Listener<T> listener) {
+        return new BulkIngestor.Builder<>(bulkExecutor, obj -> newIndexRequest(obj).request(), this::onCreated,
+                listener);
+    }
+
+    /**
+     * Update documents ingestor that writes continuous stream of documents with auto flushed bulks. Updated source
+     * is not fetched, listener gets the same objects that was sent.
+     * @param docAsUpsert should this doc be upserted or not
+     * @param listener gets per bulk results
+     * @return ingestor builder
+     */
+    public BulkIngestor.Builder<T> updateIngestor(boolean docAsUpsert, BulkIngestor.Listener<T> listener) {
+        return new BulkIngestor.Builder<>(bulkExecutor, obj -> newUpdateRequest(obj, docAsUpsert, false).request(),
+                (obj, resp) -> advanceSnapshot(obj), listener);
+    }
+
     /**
      * Check document existence by id
      * @param id document id
@@ -54,7 +193,7 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
      * @return true if object exists
      */
     public boolean isExist(String id, String parentId) {
-        return prepareGet(id).setParent(parentId).get().isExists();
+        return prepareExists(id).setParent(parentId).get().isExists();
     }
 
     /**
@@ -73,12 +212,7 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
      * @return same object with id
      */
     public T create(T obj, RefreshPolicy refresh) {
-        IndexRequestBuilder req = prepareIndex(obj.getId()).setParent(obj.getParent()).setRefreshPolicy(refresh)
-                .setSource(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON);
-        if (obj.getId() != null) {
-            req.setOpType(OpType.CREATE);
-        }
-        IndexResponse resp = req.get();
+        IndexResponse resp = onWritten(newIndexRequest(obj).setRefreshPolicy(refresh).get());
         obj.setId(resp.getId());
         return obj;
     }
@@ -97,26 +231,27 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
      * @param objs documents to create
      * @param refresh refresh index configuration
      * @return same objects with ids
+     * @throws BulkFailureException if some of the documents was not created after all retries
      */
     public List<T> create(List<T> objs, RefreshPolicy refresh) {
-        if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                IndexRequestBuilder req = prepareIndex(obj.getId()).setParent(obj.getParent())
-                        .setSource(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON);
-                if (obj.getId() != null) {
-                    req.setOpType(OpType.CREATE);
-                }
-                bulk.add(req);
-            }
-            BulkResponse resp = bulk.get();
-            for (BulkItemResponse item : resp.getItems()) {
-                objs.get(item.getItemId()).setId(item.getId());
-            }
+        BulkResult<T> result = bulkCreate(objs, refresh);
+        if (result.hasFailures()) {
+            throw new BulkFailureException(result);
         }
         return objs;
     }
 
+    /**
+     * Creates documents. Rejected documents are retried according to the retry policy of the bulk executor.
+     * @param objs documents to create
+     * @param refresh refresh index configuration
+     * @return succeeded documents with ids, failed and retried documents
+     */
+    public BulkResult<T> bulkCreate(List<T> objs, RefreshPolicy refresh) {
+        return bulkExecutor.execute(objs, (obj, payload) -> newIndexRequest(obj, payload).request(), refresh,
+                this::onCreated);
+    }
+
     /**
      * Get document
      * @param id document id
@@ -132,6 +267,129 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
         }
     }
 
+    /**
+     * Gets projection of the document, only fields of the projection are fetched from the source
+     * @param id document id
+     * @param parentId parent document id
+     * @param projection class or interface of the projection
+     * @return projection of the document with id, null if document not exists
+     */
+    public <P> P get(String id, String parentId, Class<P> projection) {
+        Projection<P> view = Projection.of(projection);
+        GetResponse resp = prepareGet(id).setParent(parentId).setFetchSource(view.getIncludes(), null).get();
+        if (resp.isExists()) {
+            return withParent(view.read(resp.getSourceAsBytes(), id), parentId);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Searches projections of the documents, only fields of the projection are fetched from the source
+     * @param search search request, source filtering of the request is replaced
+     * @param projection class or interface of the projection
+     * @return projections of the documents with ids
+     */
+    public <P> List<P> search(SearchRequestBuilder search, Class<P> projection) {
+        Projection<P> view = Projection.of(projection);
+        SearchResponse response = executeSearch(search.setFetchSource(view.getIncludes(), null));
+        return readHits(response.getHits().getHits(), hit -> newView(view, hit));
+    }
+
+    protected <P> P newView(Projection<P> view, SearchHit hit) {
+        SearchHitField parent = hit.getField(_parent);
+        return withParent(view.read(BytesReference.toBytes(hit.getSourceRef()), hit.getId()),
+                parent == null ? null : parent.getValue().toString());
+    }
+
+    protected <P> P withParent(P view, String parentId) {
+        if (view instanceof EsChildEntity) {
+            ((EsChildEntity) view).setParent(parentId);
+        }
+        return view;
+    }
+
+    /**
+     * Lazy stream of the search results, next pages are requested while the current one is consumed
+     * @param search search request, page size is the size of the request
+     * @return stream of the documents, must be closed if not consumed to the end
+     */
+    public Stream<T> stream(SearchRequestBuilder search) {
+        return iterator(search, DEFAULT_PREFETCH_PAGES).stream();
+    }
+
+    /**
+     * Lazy iterator over the search results, next pages are requested while the current one is consumed
+     * @param search search request, page size is the size of the request
+     * @param pages max number of pages received ahead of the consumer
+     * @return iterator over the documents, must be closed if not consumed to the end
+     */
+    public ScrollIterator<T> iterator(SearchRequestBuilder search, int pages) {
+        return scroll(search, pages, this::newObject);
+    }
+
+    /**
+     * Searches documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
+     * @return documents with ids
+     */
+    public List<T> search(SearchRequestBuilder search) {
+        return readHits(executeSearch(search).getHits().getHits(), this::newObject);
+    }
+
+    /**
+     * Searches page of documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
+     * @return page of the documents with total hits, page has no cursor
+     */
+    public SearchPage<T> searchPage(SearchRequestBuilder search) {
+        SearchResponse response = executeSearch(search);
+        return new SearchPage<>(readHits(response.getHits().getHits(), this::newObject),
+                response.getHits().getTotalHits(), null);
+    }
+
+    /**
+     * Searches the page after the cursor. Search without sort is sorted by score, _uid is added as the tiebreaker
+     * sort. There is no search context on the cluster between pages and any page costs the same as the first one.
+     * @param search search request, page size is the size of the request, request is modified
+     * @param cursor cursor of the previous page, null for the first page
+     * @return page of the documents with cursor of the next page
+     */
+    public SearchPage<T> searchAfter(SearchRequestBuilder search, String cursor) {
+        return newPage(search, executeSearch(prepareSearchAfter(search, cursor)), this::newObject);
+    }
+
+    /**
+     * Parallel stream of the search results with sliced scroll, one slice per shard of the searched indices
+     * @param search search request, page size is the size of the request per slice
+     * @return parallel stream of the documents, must be closed if not consumed to the end
+     */
+    public Stream<T> parallelStream(SearchRequestBuilder search) {
+        return parallelStream(search, 0);
+    }
+
+    /**
+     * Parallel stream of the search results with sliced scroll, all slices are requested concurrently
+     * @param search search request, page size is the size of the request per slice
+     * @param slices number of slices, 0 for the number of shards of the searched indices
+     * @return parallel stream of the documents, must be closed if not consumed to the end
+     */
+    public Stream<T> parallelStream(SearchRequestBuilder search, int slices) {
+        return slicedScroll(search, slices, this::newObject);
+    }
+
+    /**
+     * Exports all search results with sliced scroll and waits until they are consumed
+     * @param search search request, page size is the size of the request per slice
+     * @param slices number of slices, 0 for the number of shards of the searched indices
+     * @param consumer gets the documents, called concurrently from several threads
+     */
+    public void export(SearchRequestBuilder search, int slices, Consumer<T> consumer) {
+        try (Stream<T> stream = parallelStream(search, slices)) {
+            stream.forEach(consumer);
+        }
+    }
+
     /**
      * Update document
      * @param obj object to update
@@ -150,14 +408,8 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
      * @return updated document
      */
     public T update(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop) {
-        UpdateResponse response = prepareUpdate(obj.getId()).setParent(obj.getParent()).setRefreshPolicy(refresh)
-                .setDocAsUpsert(docAsUpsert).setFetchSource(true)
-                .setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON).get();
-        if (nullWithNoop && Result.NOOP == response.getResult()) {
-            return null;
-        } else {
-            return newObject(response.getGetResult(), obj.getParent());
-        }
+        UpdateResponse response = onWritten(newUpdateRequest(obj, docAsUpsert, true).setRefreshPolicy(refresh).get());
+        return onUpdated(obj, response, nullWithNoop);
     }
 
     /**
@@ -176,27 +428,90 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
      * @param nullWithNoop return null if there was a noop
      * @return <strong>new</strong> array of objects that was updated. Consider object updated when the result of the
      * update request is UPDATED
+     * @throws BulkFailureException if some of the documents was not updated after all retries
      */
     public List<T> update(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop) {
-        ArrayList<T> retval = new ArrayList<>();
-        if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                bulk.add(prepareUpdate(obj.getId()).setParent(obj.getParent()).setDocAsUpsert(docAsUpsert)
-                        .setFetchSource(true).setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON));
-            }
-            BulkResponse resp = bulk.get();
-            for (BulkItemResponse item : resp.getItems()) {
-                T obj = objs.get(item.getItemId());
-                UpdateResponse response = item.getResponse();
-                if (nullWithNoop && Result.NOOP == response.getResult()) {
-                    // do nothing
-                } else {
-                    retval.add(newObject(response.getGetResult(), obj.getParent()));
-                }
-            }
+        BulkResult<T> result = bulkUpdate(objs, refresh, docAsUpsert, nullWithNoop);
+        if (result.hasFailures()) {
+            throw new BulkFailureException(result);
         }
-        return retval;
+        return result.getSucceeded();
+    }
+
+    /**
+     * Update documents. Rejected documents are retried according to the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @return <strong>new</strong> objects that was updated as succeeded, failed and retried objects
+     */
+    public BulkResult<T> bulkUpdate(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop) {
+        return bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).request(), refresh,
+                (obj, resp) -> onUpdated(obj, resp, nullWithNoop));
+    }
+
+    /**
+     * Update document without fetching the source back
+     * @param obj object to update
+     * @param refresh refresh configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @return result and version of the update request
+     */
+    public UpdateStatus<T> updateStatus(T obj, RefreshPolicy refresh, boolean docAsUpsert) {
+        UpdateResponse response = onWritten(newUpdateRequest(obj, docAsUpsert, false).setRefreshPolicy(refresh).get());
+        return new UpdateStatus<>(advanceSnapshot(obj), response);
+    }
+
+    /**
+     * Update documents without fetching the sources back. Rejected documents are retried according to the retry
+     * policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @return results and versions of the update requests as succeeded, failed and retried statuses
+     */
+    public BulkResult<UpdateStatus<T>> bulkUpdateStatus(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert) {
+        return bulkExecutor.execute(UpdateStatus.pending(objs),
+                (status, payload) -> newUpdateRequest(status.getObj(), docAsUpsert, false, payload).request(),
+                refresh, (status, resp) -> new UpdateStatus<>(advanceSnapshot(status.getObj()), resp));
+    }
+
+    /**
+     * Update document and fetch only given fields of the updated source
+     * @param obj object to update
+     * @param refresh refresh configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop return null if there was a noop
+     * @param includes source fields to fetch, wildcards are supported
+     * @return <strong>new</strong> object with included fields only
+     */
+    public T updateIncludes(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            String... includes) {
+        checkIncludes(includes);
+        UpdateResponse response = onWritten(newUpdateRequest(obj, docAsUpsert, true).setFetchSource(includes, null)
+                .setRefreshPolicy(refresh).get());
+        return onUpdated(obj, response, nullWithNoop);
+    }
+
+    /**
+     * Update documents and fetch only given fields of the updated sources. Rejected documents are retried according
+     * to the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @param includes source fields to fetch, wildcards are supported
+     * @return <strong>new</strong> objects with included fields only as succeeded, failed and retried objects
+     */
+    public BulkResult<T> bulkUpdateIncludes(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert,
+            boolean nullWithNoop, String... includes) {
+        checkIncludes(includes);
+        return bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).setFetchSource(includes, null)
+                        .request(),
+                refresh, (obj, resp) -> onUpdated(obj, resp, nullWithNoop));
     }
 
     /**
@@ -217,6 +532,6 @@ public class ChildEntityDao<T extends EsChildEntity> extends Dao {
      * @return result of the delete request
      */
     public Result delete(String id, String parentId, RefreshPolicy refresh) {
-        return prepareDelete(id).setParent(parentId).setRefreshPolicy(refresh).get().getResult();
+        return onWritten(prepareDelete(id).setParent(parentId).setRefreshPolicy(refresh).get()).getResult();
     }
 }
@@ -1,31 +1,97 @@
 package com.escli4j.dao;
 
 import com.escli4j.annotations.Type;
+import com.escli4j.dao.bulk.BulkExecutor;
+import com.escli4j.dao.cache.NearCache;
+import com.escli4j.dao.cache.SearchKey;
+import com.escli4j.dao.limit.ConcurrencyLimiter;
+import com.escli4j.model.EsEntity;
+import com.escli4j.util.EscliJsonUtils;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequestBuilder;
 import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.mapper.UidFieldMapper;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 public class Dao {
 
     public static final TimeValue scrollKeepAlive = new TimeValue(60000); // one minute
+    public static final int DEFAULT_PREFETCH_PAGES = 2;
+    public static final int DEFAULT_PARALLEL_HITS_THRESHOLD = 500;
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final long DEFAULT_CHUNK_BYTES = 1024 * 1024;
+    public static final int DEFAULT_CHUNK_PARALLELISM = 4;
+    private static final int CHUNKS_PER_THREAD = 4;
+    // page size of the search without size
+    private static final int DEFAULT_SEARCH_SIZE = 10;
 
     protected final Logger log = LoggerFactory.getLogger(this.getClass());
     protected final Client client;
     protected final String index;
     protected final String type;
+    protected final BulkExecutor bulkExecutor;
+    protected volatile ConcurrencyLimiter limiter = ConcurrencyLimiter.unlimited();
+    protected volatile boolean trackChanges = false;
+    protected volatile ForkJoinPool hitsPool = ForkJoinPool.commonPool();
+    protected volatile int parallelHitsThreshold = DEFAULT_PARALLEL_HITS_THRESHOLD;
+    protected volatile GetBatcher getBatcher = null;
+    protected volatile SearchBatcher searchBatcher = null;
+    protected volatile NearCache<SearchKey, SearchResponse> searchCache = null;
+    // incremented on every invalidation, responses of the searches started before it are not cached
+    private final AtomicLong searchGeneration = new AtomicLong();
+    protected volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    protected volatile long chunkBytes = DEFAULT_CHUNK_BYTES;
+    protected volatile int chunkParallelism = DEFAULT_CHUNK_PARALLELISM;
 
     public Dao(Class<?> clazz, Client client) {
         if (clazz == null) {
@@ -41,6 +107,459 @@ public class Dao {
             throw new IllegalStateException("Client == null. ");
         }
         this.client = client;
+        this.bulkExecutor = new BulkExecutor(client, this::prepareBulk);
+        this.bulkExecutor.setWriteListener(this::onWritten);
+    }
+
+    /**
+     * @return executor of the bulk writes, use it to configure retry policy
+     */
+    public BulkExecutor getBulkExecutor() {
+        return bulkExecutor;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Limiter of the asynchronous requests, also used by the bulk executor. Same limiter can be shared between several
+     * DAOs to limit requests to the cluster in total.
+     * @param limiter concurrency limiter
+     */
+    public void setLimiter(ConcurrencyLimiter limiter) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("Limiter == null. ");
+        }
+        this.limiter = limiter;
+        bulkExecutor.setLimiter(limiter);
+    }
+
+    /**
+     * Asynchronous executes request within the concurrency limit
+     * @param builder request to execute
+     * @param listener gets response of the request
+     */
+    protected <Response extends ActionResponse> void execute(ActionRequestBuilder<?, Response, ?> builder,
+            ActionListener<Response> listener) {
+        limiter.execute(builder::execute, new ActionListener<Response>() {
+
+            @Override
+            public void onResponse(Response response) {
+                if (response instanceof DocWriteResponse) {
+                    try {
+                        onWritten((DocWriteResponse) response);
+                    } catch (Exception e) {
+                        listener.onFailure(e);
+                        return;
+                    }
+                }
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize max number of ids per multi get or bulk delete request of the large id arrays
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * @param chunkBytes max size of the ids in bytes per multi get or bulk delete request of the large id arrays
+     */
+    public void setChunkBytes(long chunkBytes) {
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("Chunk bytes must be positive: " + chunkBytes);
+        }
+        this.chunkBytes = chunkBytes;
+    }
+
+    public int getChunkParallelism() {
+        return chunkParallelism;
+    }
+
+    /**
+     * @param chunkParallelism max number of chunk requests of the one call in flight
+     */
+    public void setChunkParallelism(int chunkParallelism) {
+        if (chunkParallelism < 1) {
+            throw new IllegalArgumentException("Chunk parallelism must be positive: " + chunkParallelism);
+        }
+        this.chunkParallelism = chunkParallelism;
+    }
+
+    /**
+     * Splits ids into chunks of at most chunk size ids and chunk bytes of ids, every chunk has at least one id
+     * @param ids documents ids
+     * @return bounds of the chunks, chunk i is from bounds[i] inclusive to bounds[i + 1] exclusive
+     */
+    protected int[] chunks(String... ids) {
+        int size = this.chunkSize;
+        long maxBytes = this.chunkBytes;
+        // index and type are sent with every item
+        int overhead = index.length() + type.length();
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        long bytes = 0;
+        int from = 0;
+        for (int i = 0; i < ids.length; i++) {
+            long idBytes = ids[i].length() + overhead;
+            if (i > from && (i - from >= size || bytes + idBytes > maxBytes)) {
+                bounds.add(i);
+                from = i;
+                bytes = 0;
+            }
+            bytes += idBytes;
+        }
+        if (ids.length > 0) {
+            bounds.add(ids.length);
+        }
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Asynchronous executes chunks with at most chunk parallelism chunks in flight. Next chunk is started when one of
+     * the chunks completes, first failure fails the whole execution and the rest of the chunks are not started.
+     * @param chunks number of chunks
+     * @param chunkFunction asynchronous executes chunk of the given number
+     * @param listener gets results of the chunks in the order of the chunks
+     */
+    protected <R> void executeChunks(int chunks, BiConsumer<Integer, ActionListener<R>> chunkFunction,
+            ActionListener<List<R>> listener) {
+        if (chunks == 0) {
+            listener.onResponse(new ArrayList<>());
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        R[] results = (R[]) new Object[chunks];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        Runnable start = new Runnable() {
+
+            @Override
+            public void run() {
+                int chunk = next.getAndIncrement();
+                if (chunk >= chunks || failed.get()) {
+                    return;
+                }
+                Runnable self = this;
+                ActionListener<R> chunkListener = new ActionListener<R>() {
+
+                    @Override
+                    public void onResponse(R response) {
+                        results[chunk] = response;
+                        if (completed.incrementAndGet() == chunks) {
+                            listener.onResponse(Arrays.asList(results));
+                        } else {
+                            self.run();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        if (failed.compareAndSet(false, true)) {
+                            listener.onFailure(e);
+                        }
+                    }
+                };
+                try {
+                    chunkFunction.accept(chunk, chunkListener);
+                } catch (Exception e) {
+                    chunkListener.onFailure(e);
+                }
+            }
+        };
+        for (int i = 0; i < Math.min(chunks, chunkParallelism); i++) {
+            start.run();
+        }
+    }
+
+    public GetBatcher getGetBatcher() {
+        return getBatcher;
+    }
+
+    /**
+     * Asynchronous gets of single documents that come within the window are sent with one multi get request. Gets
+     * with preference, refresh or not realtime are not batched.
+     * @param window time gets are collected, see {@link GetBatcher#DEFAULT_WINDOW}, null to disable batching
+     * @param maxBatch max number of documents per multi get, see {@link GetBatcher#DEFAULT_MAX_BATCH}
+     */
+    public void setGetBatching(TimeValue window, int maxBatch) {
+        GetBatcher prev = getBatcher;
+        getBatcher = window == null ? null
+                : new GetBatcher(client.threadPool(), window, maxBatch, client::prepareMultiGet, this::execute);
+        if (prev != null) {
+            prev.close();
+        }
+    }
+
+    public SearchBatcher getSearchBatcher() {
+        return searchBatcher;
+    }
+
+    /**
+     * Asynchronous searches that come within the window are sent with one multi search request, see
+     * {@link SearchBatcher#flush()} to send the collected searches explicitly. Scroll searches are not batched.
+     * @param window time searches are collected, see {@link SearchBatcher#DEFAULT_WINDOW}, negative to send only on
+     *            flush or max batch, null to disable batching
+     * @param maxBatch max number of searches per multi search, see {@link SearchBatcher#DEFAULT_MAX_BATCH}
+     * @param maxConcurrentSearches max number of searches of the multi search executed concurrently, see
+     *            {@link SearchBatcher#DEFAULT_MAX_CONCURRENT_SEARCHES}
+     */
+    public void setSearchBatching(TimeValue window, int maxBatch, int maxConcurrentSearches) {
+        SearchBatcher prev = searchBatcher;
+        searchBatcher = window == null ? null
+                : new SearchBatcher(client.threadPool(), window, maxBatch, maxConcurrentSearches,
+                        client::prepareMultiSearch, this::execute);
+        if (prev != null) {
+            prev.close();
+        }
+    }
+
+    /**
+     * @return search cache builder of the responses weighed by serialized size in bytes, 16MB max weight and 5 seconds
+     *         ttl
+     */
+    public static NearCache.Builder<SearchKey, SearchResponse> searchCacheBuilder() {
+        return new NearCache.Builder<SearchKey, SearchResponse>().setWeigher(Dao::weigh).setMaxWeight(16 * 1024 * 1024)
+                .setTtl(TimeValue.timeValueSeconds(5));
+    }
+
+    private static long weigh(SearchResponse response) {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            response.writeTo(out);
+            return out.size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public NearCache<SearchKey, SearchResponse> getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * Cache of the search responses keyed by the source, indices, types, routing and preference of the search. All
+     * cached responses are dropped when this DAO writes or refreshes the index. Changes of the other clients and
+     * changes made visible by the periodic refresh of the index are seen after the ttl of the cache. Scroll searches
+     * and responses with failed shards or timeout are not cached.
+     * @param searchCache cache of the search responses, see {@link #searchCacheBuilder()}, null to disable caching
+     */
+    public void setSearchCache(NearCache<SearchKey, SearchResponse> searchCache) {
+        this.searchCache = searchCache;
+    }
+
+    /**
+     * Drops all cached search responses, responses of the searches in flight are not cached
+     */
+    public void invalidateSearches() {
+        searchGeneration.incrementAndGet();
+        NearCache<SearchKey, SearchResponse> cache = this.searchCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Executes search, cached response is returned if search cache is enabled
+     * @param search search request to execute
+     * @return search response
+     */
+    protected SearchResponse executeSearch(SearchRequestBuilder search) {
+        NearCache<SearchKey, SearchResponse> cache = this.searchCache;
+        SearchKey key = cache == null ? null : SearchKey.of(search.request());
+        if (key == null) {
+            return search.get();
+        }
+        NearCache.Entry<SearchResponse> entry = cache.get(key);
+        if (entry != null) {
+            return entry.getValue();
+        }
+        long generation = searchGeneration.get();
+        return onSearched(cache, key, generation, search.get());
+    }
+
+    /**
+     * Asynchronous executes search within the concurrency limit, batched with other searches if batching is enabled.
+     * Cached response is returned if search cache is enabled.
+     * @param search search request to execute
+     * @param listener gets response of the request
+     */
+    protected void executeSearch(SearchRequestBuilder search, ActionListener<SearchResponse> listener) {
+        SearchBatcher batcher = this.searchBatcher;
+        NearCache<SearchKey, SearchResponse> cache = this.searchCache;
+        SearchRequest request = search.request();
+        SearchKey key = cache == null ? null : SearchKey.of(request);
+        ActionListener<SearchResponse> searched = listener;
+        if (key != null) {
+            NearCache.Entry<SearchResponse> entry = cache.get(key);
+            if (entry != null) {
+                listener.onResponse(entry.getValue());
+                return;
+            }
+            long generation = searchGeneration.get();
+            searched = ActionListener.wrap(r -> listener.onResponse(onSearched(cache, key, generation, r)),
+                    listener::onFailure);
+        }
+        if (batcher == null || request.scroll() != null) {
+            execute(search, searched);
+        } else {
+            batcher.search(request, searched);
+        }
+    }
+
+    private SearchResponse onSearched(NearCache<SearchKey, SearchResponse> cache, SearchKey key, long generation,
+            SearchResponse response) {
+        if (response.getFailedShards() == 0 && !response.isTimedOut() && searchGeneration.get() == generation) {
+            cache.put(key, response, generation);
+            // invalidation could happen between the check and the put
+            if (searchGeneration.get() != generation) {
+                cache.invalidate(key);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Asynchronous executes get within the concurrency limit, batched with other gets if batching is enabled
+     * @param get get request to execute
+     * @param listener gets response of the request
+     */
+    protected void executeGet(GetRequestBuilder get, ActionListener<GetResponse> listener) {
+        GetBatcher batcher = this.getBatcher;
+        GetRequest request = get.request();
+        if (batcher == null || !request.realtime() || request.refresh() || request.preference() != null) {
+            execute(get, listener);
+        } else {
+            batcher.get(new MultiGetRequest.Item(request.index(), request.type(), request.id())
+                    .routing(request.routing()).parent(request.parent()).storedFields(request.storedFields())
+                    .fetchSourceContext(request.fetchSourceContext()).version(request.version())
+                    .versionType(request.versionType()), listener);
+        }
+    }
+
+    /**
+     * Called with the response of every succeeded write of this DAO, single or bulk item, before the result is
+     * converted and passed to the caller. Drops cached search responses.
+     * @param response response of the write
+     * @return same response
+     */
+    protected <Response extends DocWriteResponse> Response onWritten(Response response) {
+        invalidateSearches();
+        return response;
+    }
+
+    public ForkJoinPool getHitsPool() {
+        return hitsPool;
+    }
+
+    /**
+     * @param hitsPool pool search hits are deserialized on, null to deserialize them on the calling thread
+     */
+    public void setHitsPool(ForkJoinPool hitsPool) {
+        this.hitsPool = hitsPool;
+    }
+
+    public int getParallelHitsThreshold() {
+        return parallelHitsThreshold;
+    }
+
+    /**
+     * @param parallelHitsThreshold min number of search hits that are deserialized in parallel
+     */
+    public void setParallelHitsThreshold(int parallelHitsThreshold) {
+        this.parallelHitsThreshold = parallelHitsThreshold;
+    }
+
+    public boolean isTrackChanges() {
+        return trackChanges;
+    }
+
+    /**
+     * Documents loaded with change tracking keep snapshot of the source, and update sends only fields that was changed
+     * since the snapshot. Nested objects are compared field by field.
+     * @param trackChanges snapshot loaded documents and send only changed fields on update
+     */
+    public void setTrackChanges(boolean trackChanges) {
+        this.trackChanges = trackChanges;
+    }
+
+    /**
+     * Reads document from the source, keeps snapshot of the source if changes are tracked
+     * @param source source of the document
+     * @param clazz document class
+     * @return document without id
+     */
+    protected <T extends EsEntity> T readEntity(byte[] source, Class<T> clazz) {
+        if (trackChanges) {
+            JsonNode tree = EscliJsonUtils.readTree(source);
+            T retval = EscliJsonUtils.treeToValue(tree, clazz);
+            retval.setSnapshot(tree);
+            return retval;
+        } else {
+            return EscliJsonUtils.read(source, clazz);
+        }
+    }
+
+    /**
+     * @param obj document to update
+     * @return true if changes are tracked and document has snapshot, only changed fields of it are sent on update
+     */
+    protected boolean isTracked(EsEntity obj) {
+        return trackChanges && obj.getSnapshot() != null;
+    }
+
+    /**
+     * @param obj document to update
+     * @return changed fields if changes are tracked and document has snapshot, the document itself otherwise
+     */
+    protected Object partialDoc(EsEntity obj) {
+        if (isTracked(obj)) {
+            return EscliJsonUtils.diff(obj.getSnapshot(), EscliJsonUtils.valueToTree(obj), obj.getClass());
+        } else {
+            return obj;
+        }
+    }
+
+    /**
+     * Takes the current state of the document as the state stored in the index, so the next update sends only fields
+     * changed after it. Called when update of the document is acknowledged, changes made while the update was in
+     * flight are taken as sent.
+     * @param obj updated document
+     * @return same object
+     */
+    public <E extends EsEntity> E advanceSnapshot(E obj) {
+        JsonNode snapshot = obj.getSnapshot();
+        if (trackChanges && snapshot != null && snapshot.isObject()) {
+            obj.setSnapshot(EscliJsonUtils.merge(snapshot.deepCopy(),
+                    EscliJsonUtils.diff(snapshot, EscliJsonUtils.valueToTree(obj), obj.getClass())));
+        }
+        return obj;
+    }
+
+    protected static void checkIncludes(String... includes) {
+        if (includes.length == 0) {
+            throw new IllegalArgumentException("Includes length must be > 0.");
+        }
     }
 
     public BulkRequestBuilder prepareBulk() {
@@ -75,15 +594,267 @@ public class Dao {
         return client.prepareGet(index, type, id);
     }
 
+    /**
+     * @param id document id
+     * @return get request without source and stored fields, only existence of the document is got
+     */
+    public GetRequestBuilder prepareExists(String id) {
+        return prepareGet(id).setFetchSource(false).setStoredFields(Strings.EMPTY_ARRAY);
+    }
+
+    /**
+     * @param ids documents ids
+     * @return multi get request without sources and stored fields, only existence of the documents is got
+     */
+    public MultiGetRequestBuilder prepareMultiExists(String... ids) {
+        MultiGetRequestBuilder retval = client.prepareMultiGet();
+        for (String id : ids) {
+            retval.add(new MultiGetRequest.Item(index, type, id)
+                    .fetchSourceContext(FetchSourceContext.DO_NOT_FETCH_SOURCE).storedFields(Strings.EMPTY_ARRAY));
+        }
+        return retval;
+    }
+
     public MultiGetRequestBuilder prepareMultiGet(String... ids) {
         return client.prepareMultiGet().add(index, type, ids);
     }
 
+    /**
+     * @param fetchSource source filtering of the documents
+     * @param ids documents ids
+     * @return multi get request with source filtering
+     */
+    public MultiGetRequestBuilder prepareMultiGet(FetchSourceContext fetchSource, String... ids) {
+        MultiGetRequestBuilder retval = client.prepareMultiGet();
+        for (String id : ids) {
+            retval.add(new MultiGetRequest.Item(index, type, id).fetchSourceContext(fetchSource));
+        }
+        return retval;
+    }
+
     public void refresh() {
         client.admin().indices().prepareRefresh(index).get();
+        invalidateSearches();
     }
 
     public void scrollNext(String scrollId, Consumer<SearchResponse> function, Consumer<Throwable> errorFunction) {
-        prepareSearchScroll(scrollId).setScroll(scrollKeepAlive).execute(new ActionHandler<>(function, errorFunction));
+        execute(prepareSearchScroll(scrollId).setScroll(scrollKeepAlive), new ActionHandler<>(function, errorFunction));
+    }
+
+    /**
+     * Scrolls search results with prefetching of the next pages
+     * @param search search request, page size is the size of the request
+     * @param pages max number of pages received ahead of the consumer
+     * @param hitFunction converts search hit to the result object
+     * @return iterator over the results, must be closed if not consumed to the end
+     */
+    protected <T> ScrollIterator<T> scroll(SearchRequestBuilder search, int pages, Function<SearchHit, T> hitFunction) {
+        return new ScrollIterator<>(pages, hitFunction, (scrollId, listener) -> {
+            if (scrollId == null) {
+                execute(search.setScroll(scrollKeepAlive), listener);
+            } else {
+                execute(prepareSearchScroll(scrollId).setScroll(scrollKeepAlive), listener);
+            }
+        }, scrollId -> client.prepareClearScroll().addScrollId(scrollId).execute(new ActionHandler<>(r -> {
+        }, e -> log.warn("Can't clear scroll {}", scrollId, e))));
+    }
+
+    /**
+     * Scrolls search results with sliced scroll, slices are consumed in parallel. Scroll of the slice is opened when a
+     * worker starts the slice, so slices that wait for a free worker don't lose their scroll context.
+     * @param search search request, page size is the size of the request per slice
+     * @param slices number of slices, 0 for the number of shards of the searched indices
+     * @param hitFunction converts search hit to the result object
+     * @return parallel stream over the results of all slices, must be closed if not consumed to the end
+     */
+    protected <T> Stream<T> slicedScroll(SearchRequestBuilder search, int slices, Function<SearchHit, T> hitFunction) {
+        SearchRequest request = search.request();
+        if (slices == 0) {
+            slices = numberOfShards(request.indices());
+        }
+        if (slices < 2) {
+            return scroll(search, DEFAULT_PREFETCH_PAGES, hitFunction).stream();
+        }
+        SearchSourceBuilder source = request.source() == null ? new SearchSourceBuilder() : request.source();
+        int max = slices;
+        return slices(slices, i -> {
+            SearchRequestBuilder slice = client.prepareSearch(request.indices()).setTypes(request.types())
+                    .setRouting(request.routing()).setPreference(request.preference())
+                    .setIndicesOptions(request.indicesOptions())
+                    .setSource(source.copyWithNewSlice(new SliceBuilder(i, max)));
+            return scroll(slice, DEFAULT_PREFETCH_PAGES, hitFunction);
+        });
+    }
+
+    /**
+     * @param slices number of slices
+     * @param sliceFunction opens scroll of the slice by slice id
+     * @return parallel stream over the results of all slices, slice is opened when it is started, slices are not
+     *         opened after the stream is closed
+     */
+    static <T> Stream<T> slices(int slices, IntFunction<ScrollIterator<T>> sliceFunction) {
+        // opened slices, guarded by itself
+        List<ScrollIterator<T>> iterators = new ArrayList<>(slices);
+        AtomicBoolean closed = new AtomicBoolean();
+        return IntStream.range(0, slices).parallel().boxed().flatMap(i -> {
+            ScrollIterator<T> iterator;
+            synchronized (iterators) {
+                if (closed.get()) {
+                    return Stream.empty();
+                }
+                iterator = sliceFunction.apply(i);
+                iterators.add(iterator);
+            }
+            // consumed slice is closed by flat map
+            return iterator.stream();
+        }).onClose(() -> {
+            synchronized (iterators) {
+                closed.set(true);
+                Releasables.close(iterators);
+            }
+        });
+    }
+
+    /**
+     * Prepares search of the page after the cursor. Search without sort is sorted by score, _uid sort is added as the
+     * tiebreaker, so every document has unique position and pages don't overlap.
+     * @param search search request, page size is the size of the request, request is modified
+     * @param cursor cursor of the previous page, null for the first page
+     * @return same search request
+     */
+    protected SearchRequestBuilder prepareSearchAfter(SearchRequestBuilder search, String cursor) {
+        SearchRequest request = search.request();
+        if (request.source() == null) {
+            request.source(new SearchSourceBuilder());
+        }
+        SearchSourceBuilder source = request.source();
+        List<SortBuilder<?>> sorts = source.sorts();
+        if (sorts == null || sorts.isEmpty()) {
+            source.sort(SortBuilders.scoreSort());
+            sorts = source.sorts();
+        }
+        boolean tiebreaker = false;
+        for (SortBuilder<?> sort : sorts) {
+            if (sort instanceof FieldSortBuilder
+                    && UidFieldMapper.NAME.equals(((FieldSortBuilder) sort).getFieldName())) {
+                tiebreaker = true;
+            }
+        }
+        if (!tiebreaker) {
+            source.sort(SortBuilders.fieldSort(UidFieldMapper.NAME));
+        }
+        if (cursor != null) {
+            source.searchAfter(SearchPage.decodeCursor(cursor));
+        }
+        return search;
+    }
+
+    /**
+     * @param search search request the response is got for
+     * @param response search response
+     * @param hitFunction converts search hit to the result object
+     * @return page with cursor of the last hit, without cursor if page is not full
+     */
+    protected <T> SearchPage<T> newPage(SearchRequestBuilder search, SearchResponse response,
+            Function<SearchHit, T> hitFunction) {
+        SearchHit[] hits = response.getHits().getHits();
+        int size = search.request().source().size();
+        String cursor = null;
+        if (hits.length > 0 && hits.length >= (size < 0 ? DEFAULT_SEARCH_SIZE : size)) {
+            cursor = SearchPage.encodeCursor(hits[hits.length - 1].getSortValues());
+        }
+        return new SearchPage<>(readHits(hits, hitFunction), response.getHits().getTotalHits(), cursor);
+    }
+
+    /**
+     * Converts search hits to the result objects, in parallel on the hits pool if there are more hits than parallel
+     * threshold
+     * @param hits search hits
+     * @param hitFunction converts search hit to the result object, must be thread safe
+     * @return result objects in the same order as hits
+     */
+    protected <T> List<T> readHits(SearchHit[] hits, Function<SearchHit, T> hitFunction) {
+        ForkJoinPool pool = this.hitsPool;
+        if (!isParallel(pool, hits.length)) {
+            List<T> retval = new ArrayList<>(hits.length);
+            for (SearchHit hit : hits) {
+                retval.add(hitFunction.apply(hit));
+            }
+            return retval;
+        }
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        int chunkSize = (hits.length + chunks - 1) / chunks;
+        @SuppressWarnings("unchecked")
+        T[] retval = (T[]) new Object[hits.length];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < hits.length; from += chunkSize) {
+            int start = from;
+            int end = Math.min(hits.length, from + chunkSize);
+            tasks.add(pool.submit(() -> {
+                for (int i = start; i < end; i++) {
+                    retval[i] = hitFunction.apply(hits[i]);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return Arrays.asList(retval);
+    }
+
+    /**
+     * Converts search response off the transport thread if it has more hits than parallel threshold, so network
+     * threads are not busy with deserialization
+     * @param response search response
+     * @param converter converts search response to the result
+     * @param function callback gets the result
+     * @param errorFunction callback gets exception on failure
+     */
+    protected <R> void convert(SearchResponse response, Function<SearchResponse, R> converter, Consumer<R> function,
+            Consumer<Throwable> errorFunction) {
+        ForkJoinPool pool = this.hitsPool;
+        if (!isParallel(pool, response.getHits().getHits().length)) {
+            R result;
+            try {
+                result = converter.apply(response);
+            } catch (Exception e) {
+                errorFunction.accept(e);
+                return;
+            }
+            function.accept(result);
+            return;
+        }
+        try {
+            pool.execute(() -> {
+                R result;
+                try {
+                    result = converter.apply(response);
+                } catch (Exception e) {
+                    errorFunction.accept(e);
+                    return;
+                }
+                function.accept(result);
+            });
+        } catch (Exception e) {
+            errorFunction.accept(e);
+        }
+    }
+
+    private boolean isParallel(ForkJoinPool pool, int hits) {
+        return pool != null && pool.getParallelism() > 1 && hits >= parallelHitsThreshold;
+    }
+
+    /**
+     * @param indices index names or aliases
+     * @return max number of shards of the indices
+     */
+    protected int numberOfShards(String... indices) {
+        int retval = 1;
+        Iterator<Settings> it = client.admin().indices().prepareGetSettings(indices).get().getIndexToSettings()
+                .valuesIt();
+        while (it.hasNext()) {
+            retval = Math.max(retval, it.next().getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1));
+        }
+        return retval;
     }
 }
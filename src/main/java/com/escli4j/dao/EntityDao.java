@@ -1,61 +1,758 @@
 package com.escli4j.dao;
 
+import com.escli4j.dao.bulk.BulkFailureException;
+import com.escli4j.dao.bulk.BulkIngestor;
+import com.escli4j.dao.bulk.BulkPayload;
+import com.escli4j.dao.bulk.BulkResult;
+import com.escli4j.dao.cache.NearCache;
+import com.escli4j.dao.cache.SearchKey;
+import com.escli4j.dao.cache.SingleFlight;
+import com.escli4j.dao.journal.WriteBehindQueue;
 import com.escli4j.model.EsEntity;
-import com.escli4j.util.EscliJsonUtils;
+import com.escli4j.util.BloomFilter;
+import com.escli4j.util.QueryNormalizer;
 
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteRequest.OpType;
+import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.DocWriteResponse.Result;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.get.MultiGetItemResponse;
 import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.get.GetResult;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.sum.Sum;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class EntityDao<T extends EsEntity> extends Dao {
 
+    // page size of the id only scan per slice
+    private static final int EXISTENCE_SCAN_SIZE = 1000;
+    public static final TimeValue DEFAULT_NOW_ROUNDING = TimeValue.timeValueMinutes(1);
+
     protected final Class<T> clazz;
+    protected volatile NearCache<String, byte[]> cache = null;
+    protected volatile boolean singleFlight = false;
+    protected final SingleFlight<String, GetResponse> getFlights = new SingleFlight<>();
+    protected final SingleFlight<SearchKey, SearchResponse> searchFlights = new SingleFlight<>();
+    protected volatile BloomFilter existenceFilter = null;
+    // filters that are being loaded and get ids of the writes
+    private final Set<BloomFilter> loadingFilters = ConcurrentHashMap.newKeySet();
+    protected volatile TimeValue nowRounding = DEFAULT_NOW_ROUNDING;
 
     public EntityDao(Class<T> clazz, Client client) {
         super(clazz, client);
         this.clazz = clazz;
     }
 
+    /**
+     * @return cache builder of the document sources weighed by source length in bytes
+     */
+    public static NearCache.Builder<String, byte[]> cacheBuilder() {
+        return new NearCache.Builder<String, byte[]>().setWeigher(source -> source.length);
+    }
+
+    public NearCache<String, byte[]> getCache() {
+        return cache;
+    }
+
+    /**
+     * Read-through cache of the document sources. Gets are served from the cache, not cached documents are fetched
+     * and put to the cache with their versions. Succeeded writes of this DAO replace or invalidate cached documents,
+     * writes by other clients and writes that failed or timed out are seen after the entries expire. Every get
+     * deserializes a new object, so cached documents are never shared.
+     * @param cache cache of the document sources, see {@link #cacheBuilder()}, null to disable caching
+     */
+    public void setCache(NearCache<String, byte[]> cache) {
+        this.cache = cache;
+    }
+
+    public BloomFilter getExistenceFilter() {
+        return existenceFilter;
+    }
+
+    /**
+     * Existence filter answers that document is absent without request to the cluster. Ids of the documents written
+     * by this DAO are added to the filter, documents created by other clients are seen after the filter is reloaded.
+     * @param existenceFilter filter of the existing ids, see {@link #loadExistenceFilter(long, double)}, null to
+     * check existence of every document on the cluster
+     */
+    public void setExistenceFilter(BloomFilter existenceFilter) {
+        this.existenceFilter = existenceFilter;
+    }
+
+    /**
+     * Loads existence filter sized for twice the current number of documents
+     * @param fpp false positive probability of the filter
+     * @return loaded filter, it is set as existence filter
+     */
+    public BloomFilter loadExistenceFilter(double fpp) {
+        long count = prepareSearch().setSize(0).get().getHits().getTotalHits();
+        return loadExistenceFilter(Math.max(EXISTENCE_SCAN_SIZE, count * 2), fpp);
+    }
+
+    /**
+     * Loads ids of all documents to the new existence filter with sliced scroll without source. Ids written while the
+     * filter is loaded are added to it too.
+     * @param expectedInsertions number of ids the filter is sized for
+     * @param fpp false positive probability of the filter
+     * @return loaded filter, it is set as existence filter
+     */
+    public BloomFilter loadExistenceFilter(long expectedInsertions, double fpp) {
+        BloomFilter filter = new BloomFilter(expectedInsertions, fpp);
+        loadingFilters.add(filter);
+        try {
+            SearchRequestBuilder search = prepareSearch().setFetchSource(false).setSize(EXISTENCE_SCAN_SIZE)
+                    .addSort(SortBuilders.fieldSort(FieldSortBuilder.DOC_FIELD_NAME));
+            try (Stream<String> ids = slicedScroll(search, 0, SearchHit::getId)) {
+                ids.forEach(filter::put);
+            }
+            existenceFilter = filter;
+        } finally {
+            loadingFilters.remove(filter);
+        }
+        return filter;
+    }
+
+    /**
+     * @param id document id
+     * @return true if existence filter is set and the document is definitely absent
+     */
+    protected boolean isAbsent(String id) {
+        BloomFilter filter = this.existenceFilter;
+        return filter != null && !filter.mightContain(id);
+    }
+
+    /**
+     * @param ids documents ids
+     * @return positions of the ids that are not definitely absent according to the existence filter
+     */
+    protected int[] mightExist(String... ids) {
+        BloomFilter filter = this.existenceFilter;
+        int[] retval = new int[ids.length];
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (filter == null || filter.mightContain(ids[i])) {
+                retval[size++] = i;
+            }
+        }
+        return Arrays.copyOf(retval, size);
+    }
+
+    /**
+     * Asynchronous gets sources of the documents, cached sources are taken from the cache, the rest are got with
+     * chunked multi get requests
+     * @param ids documents ids
+     * @param listener gets sources at the positions of the ids, null for missing documents
+     */
+    protected void multiGet(String[] ids, ActionListener<byte[][]> listener) {
+        byte[][] sources = new byte[ids.length][];
+        int[] misses = cached(ids, sources);
+        if (misses.length == 0) {
+            listener.onResponse(sources);
+            return;
+        }
+        String[] missed = ids(ids, misses);
+        int[] bounds = chunks(missed);
+        this.<MultiGetResponse> executeChunks(bounds.length - 1,
+                (i, l) -> execute(prepareMultiGet(Arrays.copyOfRange(missed, bounds[i], bounds[i + 1])), l),
+                ActionListener.wrap(responses -> {
+                    Exception failure = itemFailure(responses);
+                    if (failure != null) {
+                        listener.onFailure(failure);
+                        return;
+                    }
+                    for (int i = 0; i < responses.size(); i++) {
+                        onGot(responses.get(i), Arrays.copyOfRange(misses, bounds[i], bounds[i + 1]), sources);
+                    }
+                    listener.onResponse(sources);
+                }, listener::onFailure));
+    }
+
+    /**
+     * Asynchronous checks existence of the documents with chunked multi get requests without sources. Ids that are
+     * definitely absent according to the existence filter are not requested.
+     * @param ids documents ids
+     * @param listener gets bits set at the positions of the existing ids
+     */
+    protected void multiExists(String[] ids, ActionListener<BitSet> listener) {
+        int[] positions = mightExist(ids);
+        String[] checked = ids(ids, positions);
+        int[] bounds = chunks(checked);
+        this.<MultiGetResponse> executeChunks(bounds.length - 1,
+                (i, l) -> execute(prepareMultiExists(Arrays.copyOfRange(checked, bounds[i], bounds[i + 1])), l),
+                ActionListener.wrap(responses -> {
+                    // failed item is not known to be absent
+                    Exception failure = itemFailure(responses);
+                    if (failure != null) {
+                        listener.onFailure(failure);
+                        return;
+                    }
+                    BitSet retval = new BitSet(ids.length);
+                    for (int i = 0; i < responses.size(); i++) {
+                        MultiGetItemResponse[] items = responses.get(i).getResponses();
+                        for (int j = 0; j < items.length; j++) {
+                            if (items[j].getResponse().isExists()) {
+                                retval.set(positions[bounds[i] + j]);
+                            }
+                        }
+                    }
+                    listener.onResponse(retval);
+                }, listener::onFailure));
+    }
+
+    /**
+     * Asynchronous deletes documents with chunked bulks
+     * @param refresh refresh index configuration
+     * @param ids document ids to delete
+     * @param responseFunction converts succeeded item to the result id, null result is not added to the succeeded
+     * list
+     * @param listener gets merged results of the chunks in the order of the ids
+     */
+    protected void multiDelete(RefreshPolicy refresh, String[] ids,
+            BiFunction<String, DocWriteResponse, String> responseFunction,
+            ActionListener<BulkResult<String>> listener) {
+        List<String> objs = Arrays.asList(ids);
+        int[] bounds = chunks(ids);
+        this.<BulkResult<String>> executeChunks(bounds.length - 1,
+                (i, l) -> bulkExecutor.execute(objs.subList(bounds[i], bounds[i + 1]),
+                        id -> prepareDelete(id).request(), refresh, responseFunction, l),
+                ActionListener.wrap(results -> {
+                    BulkResult<String> retval = new BulkResult<>();
+                    for (BulkResult<String> result : results) {
+                        retval.addAll(result);
+                    }
+                    listener.onResponse(retval);
+                }, listener::onFailure));
+    }
+
+    public TimeValue getNowRounding() {
+        return nowRounding;
+    }
+
+    /**
+     * @param nowRounding <code>now</code> of the range bounds of the count and aggregation queries is replaced with
+     *            the current time rounded to it, so the same query is served by the shard request cache within the
+     *            rounding, null to keep <code>now</code>. Lower bounds are rounded down and upper bounds up, so the
+     *            range is widened and the newest documents are not dropped.
+     */
+    public void setNowRounding(TimeValue nowRounding) {
+        this.nowRounding = nowRounding;
+    }
+
+    /**
+     * @param query query to normalize
+     * @return query in the canonical form with <code>now</code> resolved according to the now rounding
+     */
+    protected QueryBuilder normalize(QueryBuilder query) {
+        TimeValue rounding = this.nowRounding;
+        long lower = -1;
+        long upper = -1;
+        if (rounding != null && rounding.millis() > 0) {
+            long now = System.currentTimeMillis();
+            lower = now - now % rounding.millis();
+            upper = lower + rounding.millis();
+        }
+        return QueryNormalizer.normalize(query == null ? QueryBuilders.matchAllQuery() : query, lower, upper);
+    }
+
+    /**
+     * @param query query of the documents to count, null to count all documents
+     * @return search request without hits with the normalized query and the shard request cache enabled
+     */
+    public SearchRequestBuilder prepareCount(QueryBuilder query) {
+        return prepareSearch().setQuery(normalize(query)).setSize(0).setRequestCache(true);
+    }
+
+    /**
+     * @param query query of the documents to check, null to check any document
+     * @return count request that stops on the first document found on the shard
+     */
+    public SearchRequestBuilder prepareExistsByQuery(QueryBuilder query) {
+        return prepareCount(query).setTerminateAfter(1);
+    }
+
+    /**
+     * @param query query of the aggregated documents, null to aggregate all documents
+     * @param aggregations aggregations to compute
+     * @return count request with the aggregations
+     */
+    public SearchRequestBuilder prepareAggregate(QueryBuilder query, AggregationBuilder... aggregations) {
+        SearchRequestBuilder retval = prepareCount(query);
+        for (AggregationBuilder aggregation : aggregations) {
+            retval.addAggregation(aggregation);
+        }
+        return retval;
+    }
+
+    /**
+     * @param response search response with aggregations
+     * @param name name of the aggregation
+     * @param type expected type of the aggregation, for example {@link Terms} or {@link Sum}
+     * @return aggregation of the expected type
+     */
+    protected static <A extends Aggregation> A aggregation(SearchResponse response, String name, Class<A> type) {
+        Aggregation retval = response.getAggregations() == null ? null : response.getAggregations().get(name);
+        if (retval == null) {
+            throw new IllegalStateException("Aggregation " + name + " is not found");
+        }
+        if (!type.isInstance(retval)) {
+            throw new IllegalStateException("Aggregation " + name + " is " + retval.getClass().getSimpleName()
+                    + ", not " + type.getSimpleName());
+        }
+        return type.cast(retval);
+    }
+
+    /**
+     * @param terms terms aggregation
+     * @return number of documents by the term in the order of the buckets
+     */
+    protected static Map<String, Long> counts(Terms terms) {
+        Map<String, Long> retval = new LinkedHashMap<>();
+        for (Terms.Bucket bucket : terms.getBuckets()) {
+            retval.put(bucket.getKeyAsString(), bucket.getDocCount());
+        }
+        return retval;
+    }
+
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Concurrent identical gets and searches share one request to the cluster. Every caller gets its own objects
+     * deserialized from the shared response. Get that starts after a write of the document doesn't join the get
+     * that started before it.
+     * @param singleFlight share in flight gets and searches between the callers
+     */
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * @return in flight gets by document id
+     */
+    public SingleFlight<String, GetResponse> getGetFlights() {
+        return getFlights;
+    }
+
+    /**
+     * @return in flight searches by search key
+     */
+    public SingleFlight<SearchKey, SearchResponse> getSearchFlights() {
+        return searchFlights;
+    }
+
+    /**
+     * Executes get, or joins identical get in flight if single flight is enabled. Got document is put to the cache.
+     * @param id document id
+     * @return get response, shared between the callers
+     */
+    protected GetResponse executeGet(String id) {
+        if (singleFlight) {
+            return getFlights.get(id, () -> onGot(prepareGet(id).get()));
+        } else {
+            return onGot(prepareGet(id).get());
+        }
+    }
+
+    /**
+     * Asynchronous executes get, or joins identical get in flight if single flight is enabled. Get is batched with
+     * other gets if batching is enabled. Got document is put to the cache.
+     * @param id document id
+     * @param listener gets get response, shared between the callers
+     */
+    protected void executeGet(String id, ActionListener<GetResponse> listener) {
+        if (singleFlight) {
+            getFlights.execute(id, l -> executeGet(prepareGet(id),
+                    ActionListener.wrap(r -> l.onResponse(onGot(r)), l::onFailure)), listener);
+        } else {
+            executeGet(prepareGet(id), ActionListener.wrap(r -> listener.onResponse(onGot(r)), listener::onFailure));
+        }
+    }
+
+    /**
+     * Executes search, or joins identical search in flight if single flight is enabled. Cached response is returned
+     * if search cache is enabled.
+     * @param search search request
+     * @return search response, shared between the callers
+     */
+    @Override
+    protected SearchResponse executeSearch(SearchRequestBuilder search) {
+        SearchKey key = singleFlight ? SearchKey.of(search.request()) : null;
+        if (key != null) {
+            return searchFlights.get(key, () -> super.executeSearch(search));
+        } else {
+            return super.executeSearch(search);
+        }
+    }
+
+    /**
+     * Asynchronous executes search, or joins identical search in flight if single flight is enabled, batched with
+     * other searches if batching is enabled
+     * @param search search request
+     * @param listener gets search response, shared between the callers
+     */
+    @Override
+    protected void executeSearch(SearchRequestBuilder search, ActionListener<SearchResponse> listener) {
+        SearchKey key = singleFlight ? SearchKey.of(search.request()) : null;
+        if (key != null) {
+            searchFlights.execute(key, l -> super.executeSearch(search, l), listener);
+        } else {
+            super.executeSearch(search, listener);
+        }
+    }
+
+    /**
+     * Invalidates cached document by the response of the write, deleted document is cached as missing. Get of the
+     * document in flight is not shared with the next callers.
+     */
+    @Override
+    protected <Response extends DocWriteResponse> Response onWritten(Response response) {
+        super.onWritten(response);
+        if (!type.equals(response.getType())) {
+            return response;
+        }
+        getFlights.forget(response.getId());
+        if (!(response instanceof DeleteResponse)) {
+            BloomFilter filter = this.existenceFilter;
+            if (filter != null) {
+                filter.put(response.getId());
+            }
+            for (BloomFilter loading : loadingFilters) {
+                loading.put(response.getId());
+            }
+        }
+        NearCache<String, byte[]> cache = this.cache;
+        if (cache != null) {
+            if (response instanceof DeleteResponse) {
+                cache.putMissing(response.getId(), response.getVersion());
+            } else {
+                cache.invalidate(response.getId(), response.getVersion());
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Puts written source to the cache
+     * @param response response of the write
+     * @param source full source of the written document
+     */
+    protected void onWritten(DocWriteResponse response, BytesReference source) {
+        NearCache<String, byte[]> cache = this.cache;
+        if (cache != null && source != null) {
+            cache.put(response.getId(), BytesReference.toBytes(source), response.getVersion());
+        }
+    }
+
+    /**
+     * Puts got document to the cache, not existing document is cached as missing
+     * @param response get response
+     * @return same response
+     */
+    protected GetResponse onGot(GetResponse response) {
+        NearCache<String, byte[]> cache = this.cache;
+        if (cache != null) {
+            if (response.isExists()) {
+                cache.put(response.getId(), response.getSourceAsBytes(), response.getVersion());
+            } else {
+                cache.putMissing(response.getId(), NearCache.NO_VERSION);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Looks documents up in the cache
+     * @param ids documents ids
+     * @param sources gets cached sources at the positions of the ids, null for cached missing documents
+     * @return positions of the ids that are not cached
+     */
+    protected int[] cached(String[] ids, byte[][] sources) {
+        NearCache<String, byte[]> cache = this.cache;
+        if (cache == null) {
+            int[] retval = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                retval[i] = i;
+            }
+            return retval;
+        }
+        int[] retval = new int[ids.length];
+        int misses = 0;
+        for (int i = 0; i < ids.length; i++) {
+            NearCache.Entry<byte[]> entry = cache.get(ids[i]);
+            if (entry == null) {
+                retval[misses++] = i;
+            } else {
+                sources[i] = entry.getValue();
+            }
+        }
+        return Arrays.copyOf(retval, misses);
+    }
+
+    /**
+     * Puts got documents to the cache and sets their sources at the positions of the not cached ids
+     * @param response multi get response of the not cached ids
+     * @param misses positions of the not cached ids
+     * @param sources sources at the positions of the ids
+     */
+    protected void onGot(MultiGetResponse response, int[] misses, byte[][] sources) {
+        MultiGetItemResponse[] items = response.getResponses();
+        for (int i = 0; i < items.length; i++) {
+            GetResponse resp = items[i].getResponse();
+            onGot(resp);
+            if (resp.isExists()) {
+                sources[misses[i]] = resp.getSourceAsBytes();
+            }
+        }
+    }
+
+    /**
+     * @param responses responses of the multi get chunks
+     * @return failure of the first failed item, null if all items succeeded
+     */
+    protected static Exception itemFailure(List<MultiGetResponse> responses) {
+        for (MultiGetResponse response : responses) {
+            for (MultiGetItemResponse item : response.getResponses()) {
+                if (item.isFailed()) {
+                    return item.getFailure().getFailure();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param ids documents ids
+     * @param misses positions of the not cached ids
+     * @return ids at the positions
+     */
+    protected static String[] ids(String[] ids, int[] misses) {
+        String[] retval = new String[misses.length];
+        for (int i = 0; i < misses.length; i++) {
+            retval[i] = ids[misses[i]];
+        }
+        return retval;
+    }
+
     protected T newObject(byte[] source, String id) {
-        T retval = EscliJsonUtils.read(source, clazz);
+        T retval = readEntity(source, clazz);
         retval.setId(id);
         return retval;
     }
 
+    protected T newObject(SearchHit hit) {
+        return newObject(BytesReference.toBytes(hit.getSourceRef()), hit.getId());
+    }
+
+    protected <P> P newView(Projection<P> view, SearchHit hit) {
+        return view.read(BytesReference.toBytes(hit.getSourceRef()), hit.getId());
+    }
+
+    /**
+     * Builds index request that creates document
+     * @param obj document to create
+     * @return index request with source of the document
+     */
+    protected IndexRequestBuilder newIndexRequest(T obj) {
+        return newIndexRequest(obj, BulkPayload.heap());
+    }
+
+    /**
+     * Builds index request that creates document
+     * @param obj document to create
+     * @param payload buffer the source is serialized to
+     * @return index request with source of the document
+     */
+    protected IndexRequestBuilder newIndexRequest(T obj, BulkPayload payload) {
+        IndexRequestBuilder req = prepareIndex(obj.getId()).setSource(payload.write(obj), XContentType.JSON);
+        if (obj.getId() != null) {
+            req.setOpType(OpType.CREATE);
+        }
+        return req;
+    }
+
+    /**
+     * Builds update request with document as partial doc
+     * @param obj document to update
+     * @param docAsUpsert should this doc be upserted or not
+     * @param fetchSource should updated source be returned or not
+     * @return update request
+     */
+    protected UpdateRequestBuilder newUpdateRequest(T obj, boolean docAsUpsert, boolean fetchSource) {
+        return newUpdateRequest(obj, docAsUpsert, fetchSource, BulkPayload.heap());
+    }
+
+    /**
+     * Builds update request with document as partial doc, or only with changed fields if changes are tracked
+     * @param obj document to update
+     * @param docAsUpsert should this doc be upserted or not
+     * @param fetchSource should updated source be returned or not
+     * @param payload buffer the partial doc is serialized to
+     * @return update request
+     */
+    protected UpdateRequestBuilder newUpdateRequest(T obj, boolean docAsUpsert, boolean fetchSource,
+            BulkPayload payload) {
+        return newUpdateRequest(obj, partialDoc(obj), docAsUpsert, fetchSource, payload);
+    }
+
+    /**
+     * Builds update request with the given partial doc, the document itself is the upsert if changes are tracked
+     * @param obj document to update
+     * @param doc partial doc of the document
+     * @param docAsUpsert should this doc be upserted or not
+     * @param fetchSource should updated source be returned or not
+     * @param payload buffer the partial doc is serialized to
+     * @return update request
+     */
+    protected UpdateRequestBuilder newUpdateRequest(T obj, Object doc, boolean docAsUpsert, boolean fetchSource,
+            BulkPayload payload) {
+        UpdateRequestBuilder req = prepareUpdate(obj.getId()).setFetchSource(fetchSource)
+                .setDoc(new IndexRequest().source(payload.write(doc), XContentType.JSON));
+        if (!isTracked(obj)) {
+            req.setDocAsUpsert(docAsUpsert);
+        } else if (docAsUpsert) {
+            // changed fields are not enough to create missing document
+            req.setUpsert(new IndexRequest().source(payload.write(obj), XContentType.JSON));
+        }
+        return req;
+    }
+
+    /**
+     * Sets id of the created document
+     * @param obj created document
+     * @param response item response of the create request
+     * @return same object with id
+     */
+    protected T onCreated(T obj, DocWriteResponse response) {
+        obj.setId(response.getId());
+        return obj;
+    }
+
+    /**
+     * Builds updated document from the fetched source
+     * @param obj document that was sent
+     * @param response item response of the update request
+     * @param nullWithNoop return null if there was a noop
+     * @return <strong>new</strong> object with updated source
+     */
+    protected T onUpdated(T obj, DocWriteResponse response, boolean nullWithNoop) {
+        advanceSnapshot(obj);
+        if (nullWithNoop && response.getResult() == Result.NOOP) {
+            return null;
+        } else {
+            return newObject(((UpdateResponse) response).getGetResult().source(), obj.getId());
+        }
+    }
+
+    /**
+     * Builds updated document from the fetched full source and puts the source to the cache
+     * @param obj document that was sent
+     * @param response item response of the update request with full source
+     * @param nullWithNoop return null if there was a noop
+     * @return <strong>new</strong> object with updated source
+     */
+    protected T onUpdatedSource(T obj, DocWriteResponse response, boolean nullWithNoop) {
+        GetResult result = ((UpdateResponse) response).getGetResult();
+        if (result != null && result.isExists()) {
+            onWritten(response, result.sourceRef());
+        }
+        return onUpdated(obj, response, nullWithNoop);
+    }
+
     /**
-     * Check document existence by id
+     * Creates documents ingestor that writes continuous stream of documents with auto flushed bulks. Created
+     * documents get ids before they passed to the listener.
+     * @param listener gets per bulk results
+     * @return ingestor builder
+     */
+    public BulkIngestor.Builder<T> createIngestor(BulkIngestor.Listener<T> listener) {
+        return new BulkIngestor.Builder<>(bulkExecutor, obj -> newIndexRequest(obj).request(), this::onCreated,
+                listener);
+    }
+
+    /**
+     * Update documents ingestor that writes continuous stream of documents with auto flushed bulks. Updated source
+     * is not fetched, listener gets the same objects that was sent.
+     * @param docAsUpsert should this doc be upserted or not
+     * @param listener gets per bulk results
+     * @return ingestor builder
+     */
+    public BulkIngestor.Builder<T> updateIngestor(boolean docAsUpsert, BulkIngestor.Listener<T> listener) {
+        return new BulkIngestor.Builder<>(bulkExecutor, obj -> newUpdateRequest(obj, docAsUpsert, false).request(),
+                (obj, resp) -> advanceSnapshot(obj), listener);
+    }
+
+    /**
+     * Check document existence by id, source is not fetched
      * @param id document id
      * @return true if object exists
      */
     public boolean isExist(String id) {
-        return prepareGet(id).get().isExists();
+        if (isAbsent(id)) {
+            return false;
+        }
+        return prepareExists(id).get().isExists();
     }
 
     /**
-     * Check documents array existence by ids
+     * Check documents array existence by ids, sources are not fetched
      * @param ids documents ids
      * @return Set of the unique existed ids
      */
     public Set<String> isExist(String... ids) {
-        return Arrays.stream(prepareMultiGet(ids).get().getResponses()).filter(r -> r.getResponse().isExists())
-                .map(r -> r.getResponse().getId()).collect(Collectors.toSet());
+        BitSet exists = existence(ids);
+        return exists.stream().mapToObj(i -> ids[i]).collect(Collectors.toSet());
+    }
+
+    /**
+     * Check documents array existence by ids, sources are not fetched. Large arrays are checked with chunked multi
+     * get requests in parallel.
+     * @param ids documents ids
+     * @return bits set at the positions of the existing ids
+     */
+    public BitSet existence(String... ids) {
+        PlainActionFuture<BitSet> future = PlainActionFuture.newFuture();
+        multiExists(ids, future);
+        return future.actionGet();
     }
 
     /**
@@ -74,12 +771,9 @@ public class EntityDao<T extends EsEntity> extends Dao {
      * @return same object with id
      */
     public T create(T obj, RefreshPolicy refresh) {
-        IndexRequestBuilder req = prepareIndex(obj.getId()).setRefreshPolicy(refresh)
-                .setSource(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON);
-        if (obj.getId() != null) {
-            req.setOpType(OpType.CREATE);
-        }
-        IndexResponse resp = req.get();
+        IndexRequestBuilder req = newIndexRequest(obj).setRefreshPolicy(refresh);
+        IndexResponse resp = onWritten(req.get());
+        onWritten(resp, req.request().source());
         obj.setId(resp.getId());
         return obj;
     }
@@ -98,33 +792,39 @@ public class EntityDao<T extends EsEntity> extends Dao {
      * @param objs documents to create
      * @param refresh refresh index configuration
      * @return same objects with ids
+     * @throws BulkFailureException if some of the documents was not created after all retries
      */
     public List<T> create(List<T> objs, RefreshPolicy refresh) {
-        if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                IndexRequestBuilder req = prepareIndex(obj.getId()).setSource(EscliJsonUtils.writeValueAsBytes(obj),
-                        XContentType.JSON);
-                if (obj.getId() != null) {
-                    req.setOpType(OpType.CREATE);
-                }
-                bulk.add(req);
-            }
-            BulkResponse resp = bulk.get();
-            for (BulkItemResponse item : resp.getItems()) {
-                objs.get(item.getItemId()).setId(item.getId());
-            }
+        BulkResult<T> result = bulkCreate(objs, refresh);
+        if (result.hasFailures()) {
+            throw new BulkFailureException(result);
         }
         return objs;
     }
 
+    /**
+     * Creates documents. Rejected documents are retried according to the retry policy of the bulk executor.
+     * @param objs documents to create
+     * @param refresh refresh index configuration
+     * @return succeeded documents with ids, failed and retried documents
+     */
+    public BulkResult<T> bulkCreate(List<T> objs, RefreshPolicy refresh) {
+        return bulkExecutor.execute(objs, (obj, payload) -> newIndexRequest(obj, payload).request(), refresh,
+                this::onCreated);
+    }
+
     /**
      * Get document
      * @param id document id
      * @return document with id
      */
     public T get(String id) {
-        GetResponse resp = prepareGet(id).get();
+        NearCache<String, byte[]> cache = this.cache;
+        NearCache.Entry<byte[]> entry = cache == null ? null : cache.get(id);
+        if (entry != null) {
+            return entry.isMissing() ? null : newObject(entry.getValue(), id);
+        }
+        GetResponse resp = executeGet(id);
         if (resp.isExists()) {
             return newObject(resp.getSourceAsBytes(), id);
         } else {
@@ -133,18 +833,152 @@ public class EntityDao<T extends EsEntity> extends Dao {
     }
 
     /**
-     * Get documents
-     * @param ids documents ids
+     * Lazy stream of the search results, next pages are requested while the current one is consumed
+     * @param search search request, page size is the size of the request
+     * @return stream of the documents, must be closed if not consumed to the end
+     */
+    public Stream<T> stream(SearchRequestBuilder search) {
+        return iterator(search, DEFAULT_PREFETCH_PAGES).stream();
+    }
+
+    /**
+     * Lazy iterator over the search results, next pages are requested while the current one is consumed
+     * @param search search request, page size is the size of the request
+     * @param pages max number of pages received ahead of the consumer
+     * @return iterator over the documents, must be closed if not consumed to the end
+     */
+    public ScrollIterator<T> iterator(SearchRequestBuilder search, int pages) {
+        return scroll(search, pages, this::newObject);
+    }
+
+    /**
+     * Searches documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
      * @return documents with ids
      */
+    public List<T> search(SearchRequestBuilder search) {
+        return readHits(executeSearch(search).getHits().getHits(), this::newObject);
+    }
+
+    /**
+     * Searches page of documents, large pages are deserialized in parallel on the hits pool
+     * @param search search request
+     * @return page of the documents with total hits, page has no cursor
+     */
+    public SearchPage<T> searchPage(SearchRequestBuilder search) {
+        SearchResponse response = executeSearch(search);
+        return new SearchPage<>(readHits(response.getHits().getHits(), this::newObject),
+                response.getHits().getTotalHits(), null);
+    }
+
+    /**
+     * Searches the page after the cursor. Search without sort is sorted by score, _uid is added as the tiebreaker
+     * sort. There is no search context on the cluster between pages and any page costs the same as the first one.
+     * @param search search request, page size is the size of the request, request is modified
+     * @param cursor cursor of the previous page, null for the first page
+     * @return page of the documents with cursor of the next page
+     */
+    public SearchPage<T> searchAfter(SearchRequestBuilder search, String cursor) {
+        return newPage(search, executeSearch(prepareSearchAfter(search, cursor)), this::newObject);
+    }
+
+    /**
+     * Parallel stream of the search results with sliced scroll, one slice per shard of the searched indices
+     * @param search search request, page size is the size of the request per slice
+     * @return parallel stream of the documents, must be closed if not consumed to the end
+     */
+    public Stream<T> parallelStream(SearchRequestBuilder search) {
+        return parallelStream(search, 0);
+    }
+
+    /**
+     * Parallel stream of the search results with sliced scroll, all slices are requested concurrently
+     * @param search search request, page size is the size of the request per slice
+     * @param slices number of slices, 0 for the number of shards of the searched indices
+     * @return parallel stream of the documents, must be closed if not consumed to the end
+     */
+    public Stream<T> parallelStream(SearchRequestBuilder search, int slices) {
+        return slicedScroll(search, slices, this::newObject);
+    }
+
+    /**
+     * Exports all search results with sliced scroll and waits until they are consumed
+     * @param search search request, page size is the size of the request per slice
+     * @param slices number of slices, 0 for the number of shards of the searched indices
+     * @param consumer gets the documents, called concurrently from several threads
+     */
+    public void export(SearchRequestBuilder search, int slices, Consumer<T> consumer) {
+        try (Stream<T> stream = parallelStream(search, slices)) {
+            stream.forEach(consumer);
+        }
+    }
+
+    /**
+     * Creates write-behind queue that acknowledges writes as soon as they are stored in the local journal and sends
+     * them with bulks in background. Operations left in the journal by the previous run are sent after the queue is
+     * built.
+     * @param dir directory of the journal, one queue per directory
+     * @param listener gets per bulk results
+     * @return write-behind queue builder
+     */
+    public WriteBehindQueue.Builder<T> writeBehind(Path dir, WriteBehindQueue.Listener listener) {
+        return new WriteBehindQueue.Builder<>(this, dir, listener);
+    }
+
+    /**
+     * Get documents, large arrays are got with chunked multi get requests in parallel
+     * @param ids documents ids
+     * @return existing documents with ids in the order of the ids
+     */
     public List<T> get(String... ids) {
         if (ids.length > 0) {
-            MultiGetResponse response = prepareMultiGet(ids).get();
+            PlainActionFuture<byte[][]> future = PlainActionFuture.newFuture();
+            multiGet(ids, future);
+            byte[][] sources = future.actionGet();
             List<T> retval = new ArrayList<>();
+            for (int i = 0; i < ids.length; i++) {
+                if (sources[i] != null) {
+                    retval.add(newObject(sources[i], ids[i]));
+                }
+            }
+            return retval;
+        } else {
+            throw new IllegalArgumentException("Ids length must be > 0.");
+        }
+    }
+
+    /**
+     * Gets projection of the document, only fields of the projection are fetched from the source
+     * @param id document id
+     * @param projection class or interface of the projection
+     * @return projection of the document with id, null if document not exists
+     */
+    public <P> P get(String id, Class<P> projection) {
+        Projection<P> view = Projection.of(projection);
+        GetResponse resp = prepareGet(id).setFetchSource(view.getIncludes(), null).get();
+        if (resp.isExists()) {
+            return view.read(resp.getSourceAsBytes(), id);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Gets projections of the documents, only fields of the projection are fetched from the source
+     * @param projection class or interface of the projection
+     * @param ids documents ids
+     * @return projections of the existing documents with ids
+     */
+    public <P> List<P> get(Class<P> projection, String... ids) {
+        if (ids.length > 0) {
+            Projection<P> view = Projection.of(projection);
+            MultiGetResponse response = prepareMultiGet(new FetchSourceContext(true, view.getIncludes(), null), ids)
+                    .get();
+            List<P> retval = new ArrayList<>();
             for (MultiGetItemResponse item : response.getResponses()) {
                 GetResponse resp = item.getResponse();
                 if (resp.isExists()) {
-                    retval.add(newObject(resp.getSourceAsBytes(), resp.getId()));
+                    retval.add(view.read(resp.getSourceAsBytes(), resp.getId()));
                 }
             }
             return retval;
@@ -153,6 +987,68 @@ public class EntityDao<T extends EsEntity> extends Dao {
         }
     }
 
+    /**
+     * Searches projections of the documents, only fields of the projection are fetched from the source
+     * @param search search request, source filtering of the request is replaced
+     * @param projection class or interface of the projection
+     * @return projections of the documents with ids
+     */
+    public <P> List<P> search(SearchRequestBuilder search, Class<P> projection) {
+        Projection<P> view = Projection.of(projection);
+        SearchResponse response = executeSearch(search.setFetchSource(view.getIncludes(), null));
+        return readHits(response.getHits().getHits(), hit -> newView(view, hit));
+    }
+
+    /**
+     * Counts documents with the shard request cache
+     * @param query query of the documents to count, null to count all documents
+     * @return number of the documents
+     */
+    public long count(QueryBuilder query) {
+        return executeSearch(prepareCount(query)).getHits().getTotalHits();
+    }
+
+    /**
+     * Checks that any document matches the query, every shard stops on the first found document
+     * @param query query of the documents to check, null to check any document
+     * @return true if at least one document matches
+     */
+    public boolean existsByQuery(QueryBuilder query) {
+        return executeSearch(prepareExistsByQuery(query)).getHits().getTotalHits() > 0;
+    }
+
+    /**
+     * Computes aggregations with the shard request cache
+     * @param query query of the aggregated documents, null to aggregate all documents
+     * @param aggregations aggregations to compute
+     * @return computed aggregations
+     */
+    public Aggregations aggregate(QueryBuilder query, AggregationBuilder... aggregations) {
+        return executeSearch(prepareAggregate(query, aggregations)).getAggregations();
+    }
+
+    /**
+     * Computes aggregation with the shard request cache
+     * @param query query of the aggregated documents, null to aggregate all documents
+     * @param aggregation aggregation to compute
+     * @param type expected type of the aggregation, for example {@link Terms} or {@link Sum}
+     * @return computed aggregation
+     */
+    public <A extends Aggregation> A aggregate(QueryBuilder query, AggregationBuilder aggregation, Class<A> type) {
+        return aggregation(executeSearch(prepareAggregate(query, aggregation)), aggregation.getName(), type);
+    }
+
+    /**
+     * Counts documents by the values of the field with the shard request cache
+     * @param query query of the counted documents, null to count all documents
+     * @param field field to group by
+     * @param size max number of the top values
+     * @return number of documents by the value in the order of the counts
+     */
+    public Map<String, Long> countBy(QueryBuilder query, String field, int size) {
+        return counts(aggregate(query, AggregationBuilders.terms(field).field(field).size(size), Terms.class));
+    }
+
     /**
      * Update document
      * @param obj object to update
@@ -171,17 +1067,8 @@ public class EntityDao<T extends EsEntity> extends Dao {
      * @return result of the update request
      */
     public T update(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop) {
-        UpdateResponse response = prepareUpdate(obj.getId()).setRefreshPolicy(refresh).setDocAsUpsert(docAsUpsert)
-                .setFetchSource(true).setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON).get();
-        if (nullWithNoop) {
-            if (response.getResult() != Result.NOOP) {
-                return newObject(response.getGetResult().source(), obj.getId());
-            } else {
-                return null;
-            }
-        } else {
-            return newObject(response.getGetResult().source(), obj.getId());
-        }
+        UpdateResponse response = onWritten(newUpdateRequest(obj, docAsUpsert, true).setRefreshPolicy(refresh).get());
+        return onUpdatedSource(obj, response, nullWithNoop);
     }
 
     /**
@@ -202,29 +1089,90 @@ public class EntityDao<T extends EsEntity> extends Dao {
      * @param nullWithNoop return null if there was a noop
      * @return <strong>new</strong> array of objects that was updated. Consider object updated when the result of the
      * update request is UPDATED
+     * @throws BulkFailureException if some of the documents was not updated after all retries
      */
     public List<T> update(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop) {
-        ArrayList<T> retval = new ArrayList<>();
-        if (objs.size() > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (T obj : objs) {
-                bulk.add(prepareUpdate(obj.getId()).setDocAsUpsert(docAsUpsert).setFetchSource(true)
-                        .setDoc(EscliJsonUtils.writeValueAsBytes(obj), XContentType.JSON));
-            }
-            BulkResponse resp = bulk.get();
-            for (BulkItemResponse item : resp.getItems()) {
-                UpdateResponse updateResponce = item.getResponse();
-                T obj = objs.get(item.getItemId());
-                if (nullWithNoop) {
-                    if (updateResponce.getResult() != Result.NOOP) {
-                        retval.add(newObject(updateResponce.getGetResult().source(), obj.getId()));
-                    }
-                } else {
-                    retval.add(newObject(updateResponce.getGetResult().source(), obj.getId()));
-                }
-            }
+        BulkResult<T> result = bulkUpdate(objs, refresh, docAsUpsert, nullWithNoop);
+        if (result.hasFailures()) {
+            throw new BulkFailureException(result);
         }
-        return retval;
+        return result.getSucceeded();
+    }
+
+    /**
+     * Update documents. Rejected documents are retried according to the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @return <strong>new</strong> objects that was updated as succeeded, failed and retried objects
+     */
+    public BulkResult<T> bulkUpdate(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop) {
+        return bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).request(), refresh,
+                (obj, resp) -> onUpdatedSource(obj, resp, nullWithNoop));
+    }
+
+    /**
+     * Update document without fetching the source back
+     * @param obj object to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @return result and version of the update request
+     */
+    public UpdateStatus<T> updateStatus(T obj, RefreshPolicy refresh, boolean docAsUpsert) {
+        UpdateResponse response = onWritten(newUpdateRequest(obj, docAsUpsert, false).setRefreshPolicy(refresh).get());
+        return new UpdateStatus<>(advanceSnapshot(obj), response);
+    }
+
+    /**
+     * Update documents without fetching the sources back. Rejected documents are retried according to the retry
+     * policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @return results and versions of the update requests as succeeded, failed and retried statuses
+     */
+    public BulkResult<UpdateStatus<T>> bulkUpdateStatus(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert) {
+        return bulkExecutor.execute(UpdateStatus.pending(objs),
+                (status, payload) -> newUpdateRequest(status.getObj(), docAsUpsert, false, payload).request(),
+                refresh, (status, resp) -> new UpdateStatus<>(advanceSnapshot(status.getObj()), resp));
+    }
+
+    /**
+     * Update document and fetch only given fields of the updated source
+     * @param obj object to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop return null if there was a noop
+     * @param includes source fields to fetch, wildcards are supported
+     * @return <strong>new</strong> object with included fields only
+     */
+    public T updateIncludes(T obj, RefreshPolicy refresh, boolean docAsUpsert, boolean nullWithNoop,
+            String... includes) {
+        checkIncludes(includes);
+        UpdateResponse response = onWritten(newUpdateRequest(obj, docAsUpsert, true).setFetchSource(includes, null)
+                .setRefreshPolicy(refresh).get());
+        return onUpdated(obj, response, nullWithNoop);
+    }
+
+    /**
+     * Update documents and fetch only given fields of the updated sources. Rejected documents are retried according
+     * to the retry policy of the bulk executor.
+     * @param objs objects to update
+     * @param refresh refresh index configuration
+     * @param docAsUpsert should this doc be upserted or not
+     * @param nullWithNoop do not add noop updates to the succeeded list
+     * @param includes source fields to fetch, wildcards are supported
+     * @return <strong>new</strong> objects with included fields only as succeeded, failed and retried objects
+     */
+    public BulkResult<T> bulkUpdateIncludes(List<T> objs, RefreshPolicy refresh, boolean docAsUpsert,
+            boolean nullWithNoop, String... includes) {
+        checkIncludes(includes);
+        return bulkExecutor.execute(objs,
+                (obj, payload) -> newUpdateRequest(obj, docAsUpsert, true, payload).setFetchSource(includes, null)
+                        .request(),
+                refresh, (obj, resp) -> onUpdated(obj, resp, nullWithNoop));
     }
 
     /**
@@ -243,7 +1191,7 @@ public class EntityDao<T extends EsEntity> extends Dao {
      * @return result of the delete request
      */
     public Result delete(String id, RefreshPolicy refresh) {
-        return prepareDelete(id).setRefreshPolicy(refresh).get().getResult();
+        return onWritten(prepareDelete(id).setRefreshPolicy(refresh).get()).getResult();
     }
 
     /**
@@ -262,17 +1210,22 @@ public class EntityDao<T extends EsEntity> extends Dao {
      * @return true if all documents deleted
      */
     public boolean delete(RefreshPolicy refresh, String... ids) {
-        boolean retval = true;
-        if (ids.length > 0) {
-            BulkRequestBuilder bulk = prepareBulk().setRefreshPolicy(refresh);
-            for (String id : ids) {
-                bulk.add(prepareDelete(id));
-            }
-            BulkResponse resp = bulk.get();
-            for (BulkItemResponse item : resp.getItems()) {
-                retval &= item.getResponse().getResult() == Result.DELETED;
-            }
-        }
-        return retval;
+        PlainActionFuture<BulkResult<String>> future = PlainActionFuture.newFuture();
+        multiDelete(refresh, ids, (id, resp) -> resp.getResult() == Result.DELETED ? id : null, future);
+        BulkResult<String> result = future.actionGet();
+        return !result.hasFailures() && result.getSucceeded().size() == ids.length;
+    }
+
+    /**
+     * Delete documents. Rejected deletes are retried according to the retry policy of the bulk executor. Large
+     * arrays are deleted with chunked bulks in parallel.
+     * @param refresh refresh index configuration
+     * @param ids document ids to delete
+     * @return ids of the deleted or not found documents as succeeded, failed and retried ids
+     */
+    public BulkResult<String> bulkDelete(RefreshPolicy refresh, String... ids) {
+        PlainActionFuture<BulkResult<String>> future = PlainActionFuture.newFuture();
+        multiDelete(refresh, ids, (id, resp) -> id, future);
+        return future.actionGet();
     }
 }
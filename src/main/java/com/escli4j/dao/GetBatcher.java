@@ -0,0 +1,212 @@
+package com.escli4j.dao;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects single gets that come within the window into one multi get request. Batch is sent when the window of its
+ * first get elapses or when it has max number of items, whichever comes first. Identical items of the batch are sent
+ * once and their callers get the same response. Failure of the item or of the whole request is passed to the callers
+ * of the item.
+ */
+public class GetBatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GetBatcher.class);
+    public static final TimeValue DEFAULT_WINDOW = TimeValue.timeValueNanos(500000);
+    public static final int DEFAULT_MAX_BATCH = 100;
+
+    private final ThreadPool threadPool;
+    private final TimeValue window;
+    private final int maxBatch;
+    private final Supplier<MultiGetRequestBuilder> requestSupplier;
+    private final BiConsumer<MultiGetRequestBuilder, ActionListener<MultiGetResponse>> executor;
+    // batch that collects gets, guarded by this
+    private Batch current = null;
+    private boolean closed = false;
+    private long gets = 0;
+    private long requests = 0;
+
+    /**
+     * @param threadPool pool to schedule sending of the batches
+     * @param window time gets are collected into the batch
+     * @param maxBatch max number of distinct items of the batch
+     * @param requestSupplier creates empty multi get request
+     * @param executor asynchronous executes multi get request
+     */
+    GetBatcher(ThreadPool threadPool, TimeValue window, int maxBatch, Supplier<MultiGetRequestBuilder> requestSupplier,
+            BiConsumer<MultiGetRequestBuilder, ActionListener<MultiGetResponse>> executor) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Max batch must be positive: " + maxBatch);
+        }
+        this.threadPool = threadPool;
+        this.window = window;
+        this.maxBatch = maxBatch;
+        this.requestSupplier = requestSupplier;
+        this.executor = executor;
+    }
+
+    /**
+     * Asynchronous get document with the next batch
+     * @param item get item with index, type, id and optionally routing, parent and source filtering
+     * @param listener gets response of the item
+     */
+    public void get(MultiGetRequest.Item item, ActionListener<GetResponse> listener) {
+        Batch batch;
+        boolean schedule = false;
+        boolean full = false;
+        synchronized (this) {
+            if (closed) {
+                batch = null;
+            } else {
+                gets++;
+                if (current == null) {
+                    current = new Batch();
+                    schedule = true;
+                }
+                batch = current;
+                batch.items.computeIfAbsent(item, k -> new ArrayList<>()).add(listener);
+                if (batch.items.size() >= maxBatch) {
+                    current = null;
+                    full = true;
+                }
+            }
+        }
+        if (batch == null) {
+            listener.onFailure(new IllegalStateException("Get batcher is closed."));
+        } else if (full) {
+            send(batch);
+        } else if (schedule) {
+            try {
+                threadPool.schedule(window, ThreadPool.Names.GENERIC, () -> send(batch));
+            } catch (Exception e) {
+                // pool is shut down, there is no one to send it later
+                send(batch);
+            }
+        }
+    }
+
+    /**
+     * Sends the collected batch without waiting for its window
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = current;
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * @return number of gets that was accepted
+     */
+    public synchronized long getGets() {
+        return gets;
+    }
+
+    /**
+     * @return number of multi get requests that was sent
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Sends the collected batch, new gets are rejected
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    private void send(Batch batch) {
+        synchronized (this) {
+            if (batch.sent) {
+                return;
+            }
+            batch.sent = true;
+            if (current == batch) {
+                current = null;
+            }
+            requests++;
+        }
+        List<List<ActionListener<GetResponse>>> listeners = new ArrayList<>(batch.items.size());
+        MultiGetRequestBuilder request;
+        try {
+            request = requestSupplier.get();
+            for (Map.Entry<MultiGetRequest.Item, List<ActionListener<GetResponse>>> entry : batch.items.entrySet()) {
+                request.add(entry.getKey());
+                listeners.add(entry.getValue());
+            }
+        } catch (Exception e) {
+            for (List<ActionListener<GetResponse>> itemListeners : batch.items.values()) {
+                fail(itemListeners, e);
+            }
+            return;
+        }
+        executor.accept(request, new ActionListener<MultiGetResponse>() {
+
+            @Override
+            public void onResponse(MultiGetResponse response) {
+                MultiGetItemResponse[] items = response.getResponses();
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i].isFailed()) {
+                        fail(listeners.get(i), items[i].getFailure().getFailure());
+                    } else {
+                        for (ActionListener<GetResponse> listener : listeners.get(i)) {
+                            try {
+                                listener.onResponse(items[i].getResponse());
+                            } catch (Exception e) {
+                                log.warn("Listener of {} failed", items[i].getId(), e);
+                            }
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                for (List<ActionListener<GetResponse>> itemListeners : listeners) {
+                    fail(itemListeners, e);
+                }
+            }
+        });
+    }
+
+    private static void fail(List<ActionListener<GetResponse>> listeners, Exception e) {
+        for (ActionListener<GetResponse> listener : listeners) {
+            try {
+                listener.onFailure(e);
+            } catch (Exception ex) {
+                log.warn("Listener failed", ex);
+            }
+        }
+    }
+
+    private static class Batch {
+        // listeners by distinct item in the order of the request
+        private final Map<MultiGetRequest.Item, List<ActionListener<GetResponse>>> items = new LinkedHashMap<>();
+        private boolean sent = false;
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.escli4j.dao;
+
+import java.beans.Introspector;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.escli4j.mapping.MappingReflectUtils;
+import com.escli4j.model.EsEntity;
+import com.escli4j.util.EscliJsonUtils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+/**
+ * Lightweight view of the document with a subset of its fields. Only fields of the view are fetched from the source
+ * and bound. View is a class or an interface with getters. Fields of the class are the ones annotated with
+ * {@link com.escli4j.annotations.Field}, or all instance fields if there is no annotated one. Getters of the interface
+ * are backed by values read from the source, getId() returns the document id.
+ * @param <P> type of the view
+ */
+public class Projection<P> {
+
+    private static final String ID = "id";
+    private static final Map<Class<?>, Projection<?>> cache = new ConcurrentHashMap<>();
+
+    private final Class<P> clazz;
+    private final String[] includes;
+    // getters of the interface view by property name, null for class view
+    private final Map<String, Method> getters;
+    private final Map<Method, JavaType> types;
+
+    private Projection(Class<P> clazz) {
+        this.clazz = clazz;
+        Set<String> fields = new LinkedHashSet<>();
+        if (clazz.isInterface()) {
+            getters = new LinkedHashMap<>();
+            types = new HashMap<>();
+            for (Method method : clazz.getMethods()) {
+                String property = property(method);
+                if (property == null) {
+                    throw new IllegalArgumentException(clazz + " has method that is not getter " + method);
+                }
+                getters.put(property, method);
+                types.put(method, EscliJsonUtils.json().getTypeFactory().constructType(method.getGenericReturnType()));
+                if (!ID.equals(property)) {
+                    fields.add(property);
+                }
+            }
+        } else {
+            getters = null;
+            types = null;
+            List<Field> annotated = MappingReflectUtils.getAllAnnotatedFields(clazz,
+                    com.escli4j.annotations.Field.class);
+            for (Field field : annotated.isEmpty() ? MappingReflectUtils.getAllFields(clazz) : annotated) {
+                if (!field.isAnnotationPresent(JsonIgnore.class)) {
+                    JsonProperty property = field.getAnnotation(JsonProperty.class);
+                    fields.add(property == null || property.value().isEmpty() ? field.getName() : property.value());
+                }
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException(clazz + " has no fields to fetch");
+        }
+        this.includes = fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * @param clazz class or interface of the view
+     * @return projection of the view, projections are cached
+     */
+    @SuppressWarnings("unchecked")
+    public static <P> Projection<P> of(Class<P> clazz) {
+        return (Projection<P>) cache.computeIfAbsent(clazz, Projection::new);
+    }
+
+    public Class<P> getType() {
+        return clazz;
+    }
+
+    /**
+     * @return source fields of the view, used as _source includes
+     */
+    public String[] getIncludes() {
+        return includes;
+    }
+
+    /**
+     * Binds filtered source to the view
+     * @param source source filtered by view includes
+     * @param id document id
+     * @return view of the document, with id if view is an entity
+     */
+    public P read(byte[] source, String id) {
+        if (getters == null) {
+            P retval = EscliJsonUtils.read(source, clazz);
+            if (retval instanceof EsEntity) {
+                ((EsEntity) retval).setId(id);
+            }
+            return retval;
+        }
+        JsonNode tree = EscliJsonUtils.readTree(source);
+        Map<Method, Object> values = new HashMap<>();
+        for (Map.Entry<String, Method> entry : getters.entrySet()) {
+            Method method = entry.getValue();
+            if (ID.equals(entry.getKey())) {
+                values.put(method, id);
+            } else {
+                JsonNode value = tree.get(entry.getKey());
+                values.put(method, EscliJsonUtils.json().convertValue(value == null ? NullNode.getInstance() : value,
+                        types.get(method)));
+            }
+        }
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz },
+                new ViewHandler(clazz, values)));
+    }
+
+    private static String property(Method method) {
+        if (method.isDefault() || Modifier.isStatic(method.getModifiers()) || method.getParameterCount() > 0
+                || method.getReturnType() == void.class) {
+            return null;
+        }
+        String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3) {
+            return Introspector.decapitalize(name.substring(3));
+        } else if (name.startsWith("is") && name.length() > 2
+                && (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class)) {
+            return Introspector.decapitalize(name.substring(2));
+        }
+        return null;
+    }
+
+    private static class ViewHandler implements InvocationHandler {
+
+        private final Class<?> clazz;
+        private final Map<Method, Object> values;
+
+        private ViewHandler(Class<?> clazz, Map<Method, Object> values) {
+            this.clazz = clazz;
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return toString();
+                }
+            }
+            return values.get(method);
+        }
+
+        @Override
+        public String toString() {
+            List<String> fields = new ArrayList<>();
+            for (Map.Entry<Method, Object> entry : values.entrySet()) {
+                fields.add(entry.getKey().getName() + "=" + entry.getValue());
+            }
+            return clazz.getSimpleName() + " " + fields;
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.escli4j.dao;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Lazy iterator over scroll search results. Next pages are requested while the current one is consumed, at most
+ * given number of pages is kept ahead of the consumer, fetching is paused when they are not consumed. Scroll context is
+ * cleared when the last page is received or when the iterator is closed. Not thread safe, one consumer is expected.
+ * @param <T> type of the result objects
+ */
+public class ScrollIterator<T> implements Iterator<T>, Releasable {
+
+    private static final Object END = new Object();
+
+    private final int maxPages;
+    private final Function<SearchHit, T> hitFunction;
+    private final BiConsumer<String, ActionListener<SearchResponse>> pageFunction;
+    private final Consumer<String> clearFunction;
+    // received pages, end marker or failure, guarded by this
+    private final Deque<Object> pages = new ArrayDeque<>();
+    private String scrollId = null;
+    private boolean fetching = false;
+    private boolean finished = false;
+    private boolean closed = false;
+    private long received = 0;
+    // consumer state
+    private SearchHit[] page = new SearchHit[0];
+    private int pos = 0;
+    private boolean ended = false;
+
+    /**
+     * @param maxPages max number of pages received ahead of the consumer
+     * @param hitFunction converts search hit to the result object
+     * @param pageFunction asynchronous executes search with null scroll id or scroll request with given scroll id
+     * @param clearFunction clears scroll context with given id
+     */
+    ScrollIterator(int maxPages, Function<SearchHit, T> hitFunction,
+            BiConsumer<String, ActionListener<SearchResponse>> pageFunction, Consumer<String> clearFunction) {
+        if (maxPages < 1) {
+            throw new IllegalArgumentException("Max pages must be positive: " + maxPages);
+        }
+        this.maxPages = maxPages;
+        this.hitFunction = hitFunction;
+        this.pageFunction = pageFunction;
+        this.clearFunction = clearFunction;
+        this.fetching = true;
+        fetch(null);
+    }
+
+    /**
+     * @return sequential stream over the results, closing the stream closes this iterator
+     */
+    public Stream<T> stream() {
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (pos >= page.length) {
+            if (ended) {
+                return false;
+            }
+            Object next = take();
+            if (next == END) {
+                ended = true;
+                return false;
+            } else if (next instanceof Exception) {
+                ended = true;
+                throw next instanceof RuntimeException ? (RuntimeException) next
+                        : new IllegalStateException((Exception) next);
+            }
+            page = (SearchHit[]) next;
+            pos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SearchHit hit = page[pos];
+        // release consumed hit for gc
+        page[pos++] = null;
+        return hitFunction.apply(hit);
+    }
+
+    /**
+     * Stops fetching, drops received pages and clears scroll context
+     */
+    @Override
+    public void close() {
+        String clearId;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pages.clear();
+            // in flight page clears the scroll when it comes
+            clearId = fetching ? null : takeScrollId();
+            notifyAll();
+        }
+        page = new SearchHit[0];
+        ended = true;
+        clear(clearId);
+    }
+
+    private Object take() {
+        Object retval;
+        String nextId = null;
+        synchronized (this) {
+            while (pages.isEmpty() && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (closed) {
+                return END;
+            }
+            retval = pages.poll();
+            if (!fetching && !finished && pages.size() < maxPages) {
+                // fetching was paused by full buffer
+                fetching = true;
+                nextId = scrollId;
+            }
+        }
+        if (nextId != null) {
+            fetch(nextId);
+        }
+        return retval;
+    }
+
+    private void fetch(String id) {
+        try {
+            pageFunction.accept(id, new ActionListener<SearchResponse>() {
+
+                @Override
+                public void onResponse(SearchResponse response) {
+                    onPage(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    onError(e);
+                }
+            });
+        } catch (Exception e) {
+            onError(e);
+        }
+    }
+
+    private void onPage(SearchResponse response) {
+        SearchHit[] hits = response.getHits().getHits();
+        String nextId = null;
+        String clearId = null;
+        synchronized (this) {
+            fetching = false;
+            scrollId = response.getScrollId();
+            received += hits.length;
+            finished = hits.length == 0 || received >= response.getHits().getTotalHits();
+            if (!closed) {
+                if (hits.length > 0) {
+                    pages.add(hits);
+                }
+                if (finished) {
+                    pages.add(END);
+                } else if (pages.size() < maxPages) {
+                    fetching = true;
+                    nextId = scrollId;
+                }
+                notifyAll();
+            }
+            if (finished || closed) {
+                clearId = takeScrollId();
+            }
+        }
+        if (nextId != null) {
+            fetch(nextId);
+        }
+        clear(clearId);
+    }
+
+    private void onError(Exception e) {
+        String clearId;
+        synchronized (this) {
+            fetching = false;
+            finished = true;
+            if (!closed) {
+                pages.add(e);
+                notifyAll();
+            }
+            clearId = takeScrollId();
+        }
+        clear(clearId);
+    }
+
+    private String takeScrollId() {
+        String retval = scrollId;
+        scrollId = null;
+        return retval;
+    }
+
+    private void clear(String id) {
+        if (id != null) {
+            clearFunction.accept(id);
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.escli4j.dao;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects independent searches that come within the window, or until explicit flush, into one multi search request.
+ * Batch is sent when the window of its first search elapses, when it has max number of searches or on flush,
+ * whichever comes first. Every caller gets response or failure of its own search, failure of the whole request is
+ * passed to all callers of the batch. Number of searches of the batch executed concurrently on the cluster is capped.
+ */
+public class SearchBatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchBatcher.class);
+    public static final TimeValue DEFAULT_WINDOW = TimeValue.timeValueMillis(1);
+    public static final int DEFAULT_MAX_BATCH = 50;
+    public static final int DEFAULT_MAX_CONCURRENT_SEARCHES = 8;
+
+    private final ThreadPool threadPool;
+    private final TimeValue window;
+    private final int maxBatch;
+    private final int maxConcurrentSearches;
+    private final Supplier<MultiSearchRequestBuilder> requestSupplier;
+    private final BiConsumer<MultiSearchRequestBuilder, ActionListener<MultiSearchResponse>> executor;
+    // batch that collects searches, guarded by this
+    private Batch current = null;
+    private boolean closed = false;
+    private long searches = 0;
+    private long requests = 0;
+
+    /**
+     * @param threadPool pool to schedule sending of the batches
+     * @param window time searches are collected into the batch, negative to send batches on flush or max batch
+     *            only
+     * @param maxBatch max number of searches of the batch
+     * @param maxConcurrentSearches max number of searches of the batch executed concurrently
+     * @param requestSupplier creates empty multi search request
+     * @param executor asynchronous executes multi search request
+     */
+    SearchBatcher(ThreadPool threadPool, TimeValue window, int maxBatch, int maxConcurrentSearches,
+            Supplier<MultiSearchRequestBuilder> requestSupplier,
+            BiConsumer<MultiSearchRequestBuilder, ActionListener<MultiSearchResponse>> executor) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Max batch must be positive: " + maxBatch);
+        }
+        if (maxConcurrentSearches < 1) {
+            throw new IllegalArgumentException("Max concurrent searches must be positive: " + maxConcurrentSearches);
+        }
+        this.threadPool = threadPool;
+        this.window = window;
+        this.maxBatch = maxBatch;
+        this.maxConcurrentSearches = maxConcurrentSearches;
+        this.requestSupplier = requestSupplier;
+        this.executor = executor;
+    }
+
+    /**
+     * Asynchronous search with the next batch
+     * @param search search request, scroll searches are not supported by multi search
+     * @param listener gets response of the search
+     */
+    public void search(SearchRequest search, ActionListener<SearchResponse> listener) {
+        if (search.scroll() != null) {
+            listener.onFailure(new IllegalArgumentException("Scroll search can't be batched."));
+            return;
+        }
+        Batch batch;
+        boolean schedule = false;
+        boolean full = false;
+        synchronized (this) {
+            if (closed) {
+                batch = null;
+            } else {
+                searches++;
+                if (current == null) {
+                    current = new Batch();
+                    schedule = window.nanos() >= 0;
+                }
+                batch = current;
+                batch.searches.add(search);
+                batch.listeners.add(listener);
+                if (batch.searches.size() >= maxBatch) {
+                    current = null;
+                    full = true;
+                }
+            }
+        }
+        if (batch == null) {
+            listener.onFailure(new IllegalStateException("Search batcher is closed."));
+        } else if (full) {
+            send(batch);
+        } else if (schedule) {
+            try {
+                threadPool.schedule(window, ThreadPool.Names.GENERIC, () -> send(batch));
+            } catch (Exception e) {
+                // pool is shut down, there is no one to send it later
+                send(batch);
+            }
+        }
+    }
+
+    /**
+     * Sends the collected batch without waiting for its window
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = current;
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * @return number of searches that was accepted
+     */
+    public synchronized long getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return number of multi search requests that was sent
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Sends the collected batch, new searches are rejected
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    private void send(Batch batch) {
+        synchronized (this) {
+            if (batch.sent) {
+                return;
+            }
+            batch.sent = true;
+            if (current == batch) {
+                current = null;
+            }
+            requests++;
+        }
+        MultiSearchRequestBuilder request;
+        try {
+            request = requestSupplier.get().setMaxConcurrentSearchRequests(maxConcurrentSearches);
+            for (SearchRequest search : batch.searches) {
+                request.add(search);
+            }
+        } catch (Exception e) {
+            fail(batch.listeners, e);
+            return;
+        }
+        executor.accept(request, new ActionListener<MultiSearchResponse>() {
+
+            @Override
+            public void onResponse(MultiSearchResponse response) {
+                MultiSearchResponse.Item[] items = response.getResponses();
+                for (int i = 0; i < items.length; i++) {
+                    ActionListener<SearchResponse> listener = batch.listeners.get(i);
+                    try {
+                        if (items[i].isFailure()) {
+                            listener.onFailure(items[i].getFailure());
+                        } else {
+                            listener.onResponse(items[i].getResponse());
+                        }
+                    } catch (Exception e) {
+                        log.warn("Listener of search {} failed", i, e);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                fail(batch.listeners, e);
+            }
+        });
+    }
+
+    private static void fail(List<ActionListener<SearchResponse>> listeners, Exception e) {
+        for (ActionListener<SearchResponse> listener : listeners) {
+            try {
+                listener.onFailure(e);
+            } catch (Exception ex) {
+                log.warn("Listener failed", ex);
+            }
+        }
+    }
+
+    private static class Batch {
+        // searches and their listeners in the order of the request
+        private final List<SearchRequest> searches = new ArrayList<>();
+        private final List<ActionListener<SearchResponse>> listeners = new ArrayList<>();
+        private boolean sent = false;
+    }
+
+}
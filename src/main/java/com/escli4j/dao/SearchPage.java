@@ -0,0 +1,80 @@
+package com.escli4j.dao;
+
+import java.util.Base64;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.text.Text;
+
+import com.escli4j.util.EscliJsonUtils;
+
+/**
+ * Page of the search_after pagination. Cursor is an opaque token with sort values of the last document of the page,
+ * it is passed to get the next page.
+ * @param <T> type of the documents
+ */
+public class SearchPage<T> {
+
+    private final List<T> objs;
+    private final long totalHits;
+    private final String cursor;
+
+    public SearchPage(List<T> objs, long totalHits, String cursor) {
+        this.objs = objs;
+        this.totalHits = totalHits;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return documents of the page with ids
+     */
+    public List<T> getObjs() {
+        return objs;
+    }
+
+    /**
+     * @return number of documents that match the search
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * @return cursor of the next page, null if this page is the last one or it is not a search_after page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean hasNext() {
+        return cursor != null;
+    }
+
+    static String encodeCursor(Object[] sortValues) {
+        Object[] values = new Object[sortValues.length];
+        for (int i = 0; i < sortValues.length; i++) {
+            Object value = sortValues[i];
+            if (value instanceof BytesRef) {
+                value = ((BytesRef) value).utf8ToString();
+            } else if (value instanceof Text) {
+                value = value.toString();
+            }
+            values[i] = value;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(EscliJsonUtils.writeValueAsBytes(values));
+    }
+
+    static Object[] decodeCursor(String cursor) {
+        try {
+            return EscliJsonUtils.read(Base64.getUrlDecoder().decode(cursor), Object[].class);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SearchPage [objs=" + objs.size() + ", totalHits=" + totalHits + ", cursor=" + cursor + "]";
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.escli4j.dao;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import com.escli4j.model.EsChildEntity;
+import com.escli4j.model.EsEntity;
+import com.escli4j.util.EscliJsonUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Merges updates of the same document that come within the window into one update request. Without merge function
+ * partial docs are merged field by field and the last written value of the field wins, the same way as if the updates
+ * were applied one by one. There is at most one update of the document in flight, updates that come meanwhile are
+ * merged and sent when it completes. Every caller gets the result of the update its changes were sent with, callers of
+ * the same update get the same object. Documents are told apart by the parent and id, children with the same id under
+ * different parents are different documents.
+ * @param <T> type of the document
+ */
+public class UpdateCoalescer<T extends EsEntity> implements Closeable {
+
+    private final ThreadPool threadPool;
+    private final TimeValue window;
+    private final Function<T, JsonNode> docFunction;
+    private final BinaryOperator<T> mergeFunction;
+    private final BiFunction<T, JsonNode, UpdateRequestBuilder> requestFunction;
+    private final BiFunction<T, DocWriteResponse, T> responseFunction;
+    private final BiConsumer<UpdateRequestBuilder, ActionListener<UpdateResponse>> executor;
+    // documents that have pending or in flight update by parent and id, guarded by this
+    private final Map<List<String>, Entry> entries = new HashMap<>();
+    private boolean closed = false;
+    private long updates = 0;
+    private long requests = 0;
+
+    /**
+     * @param threadPool pool to schedule sending of the merged updates
+     * @param window time updates of the same document are collected
+     * @param docFunction converts document to the partial doc
+     * @param mergeFunction merges previous and next document, null to merge partial docs field by field
+     * @param requestFunction builds update request from the last document and merged partial doc
+     * @param responseFunction converts update response to the result object
+     * @param executor asynchronous executes update request
+     */
+    UpdateCoalescer(ThreadPool threadPool, TimeValue window, Function<T, JsonNode> docFunction,
+            BinaryOperator<T> mergeFunction, BiFunction<T, JsonNode, UpdateRequestBuilder> requestFunction,
+            BiFunction<T, DocWriteResponse, T> responseFunction,
+            BiConsumer<UpdateRequestBuilder, ActionListener<UpdateResponse>> executor) {
+        this.threadPool = threadPool;
+        this.window = window;
+        this.docFunction = docFunction;
+        this.mergeFunction = mergeFunction;
+        this.requestFunction = requestFunction;
+        this.responseFunction = responseFunction;
+        this.executor = executor;
+    }
+
+    /**
+     * Asynchronous update document, merged with other updates of the same document
+     * @param obj object to update, must have id
+     * @param function callback gets result of the merged update request
+     * @param errorFunction callback gets exception on failure
+     */
+    public void update(T obj, Consumer<T> function, Consumer<Throwable> errorFunction) {
+        if (obj.getId() == null) {
+            errorFunction.accept(new IllegalArgumentException("Id of the updated document == null. "));
+            return;
+        }
+        List<String> key = key(obj);
+        JsonNode doc;
+        try {
+            // partial doc is built out of the lock, merge function is applied under the lock
+            doc = mergeFunction == null ? docFunction.apply(obj) : null;
+        } catch (Exception e) {
+            errorFunction.accept(e);
+            return;
+        }
+        boolean schedule = false;
+        boolean rejected = false;
+        synchronized (this) {
+            if (closed) {
+                rejected = true;
+            } else {
+                updates++;
+                Entry entry = entries.computeIfAbsent(key, k -> new Entry());
+                if (entry.next == null) {
+                    entry.next = new Pending();
+                    schedule = !entry.inFlight;
+                }
+                entry.next.add(obj, doc, new ActionHandler<>(function, errorFunction));
+            }
+        }
+        if (rejected) {
+            errorFunction.accept(new IllegalStateException("Update coalescer is closed."));
+            return;
+        }
+        if (schedule) {
+            try {
+                threadPool.schedule(window, ThreadPool.Names.GENERIC, () -> send(key));
+            } catch (Exception e) {
+                // pool is shut down, there is no one to send it later
+                send(key);
+            }
+        }
+    }
+
+    /**
+     * Sends all pending updates that have no update in flight
+     */
+    public void flush() {
+        List<List<String>> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(entries.keySet());
+        }
+        for (List<String> key : keys) {
+            send(key);
+        }
+    }
+
+    /**
+     * @return number of updates that was accepted
+     */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return number of update requests that was sent
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of documents with pending or in flight updates
+     */
+    public synchronized int getPendingDocuments() {
+        return entries.size();
+    }
+
+    /**
+     * Sends pending updates, new updates are rejected
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    private static List<String> key(EsEntity obj) {
+        String parent = obj instanceof EsChildEntity ? ((EsChildEntity) obj).getParent() : null;
+        return Arrays.asList(parent, obj.getId());
+    }
+
+    private void send(List<String> key) {
+        Pending pending;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.inFlight || entry.next == null) {
+                // already sent by flush, or will be sent when update in flight completes
+                return;
+            }
+            pending = entry.next;
+            entry.next = null;
+            entry.inFlight = true;
+            requests++;
+        }
+        UpdateRequestBuilder request;
+        try {
+            request = requestFunction.apply(pending.last, pending.doc());
+        } catch (Exception e) {
+            complete(key, pending, null, e);
+            return;
+        }
+        executor.accept(request, new ActionListener<UpdateResponse>() {
+
+            @Override
+            public void onResponse(UpdateResponse response) {
+                T retval;
+                try {
+                    retval = responseFunction.apply(pending.last, response);
+                } catch (Exception e) {
+                    complete(key, pending, null, e);
+                    return;
+                }
+                complete(key, pending, retval, null);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                complete(key, pending, null, e);
+            }
+        });
+    }
+
+    private void complete(List<String> key, Pending pending, T result, Exception failure) {
+        boolean next;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            entry.inFlight = false;
+            next = entry.next != null;
+            if (!next) {
+                entries.remove(key);
+            }
+        }
+        // updates that came while this one was in flight waited long enough
+        if (next) {
+            send(key);
+        }
+        for (ActionListener<T> listener : pending.listeners) {
+            if (failure == null) {
+                listener.onResponse(result);
+            } else {
+                listener.onFailure(failure);
+            }
+        }
+    }
+
+    private class Entry {
+        private Pending next;
+        private boolean inFlight = false;
+    }
+
+    private class Pending {
+        private final List<ActionListener<T>> listeners = new ArrayList<>();
+        private T last;
+        private ObjectNode merged;
+
+        private void add(T obj, JsonNode doc, ActionListener<T> listener) {
+            if (mergeFunction != null) {
+                last = last == null ? obj : mergeFunction.apply(last, obj);
+            } else {
+                last = obj;
+                merged = merged == null ? doc.deepCopy() : EscliJsonUtils.merge(merged, doc);
+            }
+            listeners.add(listener);
+        }
+
+        private JsonNode doc() {
+            return mergeFunction != null ? docFunction.apply(last) : merged;
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.escli4j.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.DocWriteResponse.Result;
+
+/**
+ * Result of the update request that was sent without fetching the source back
+ * @param <T> type of the updated object
+ */
+public class UpdateStatus<T> {
+
+    private final T obj;
+    private final String id;
+    private final long version;
+    private final Result result;
+
+    UpdateStatus(T obj) {
+        this.obj = obj;
+        this.id = null;
+        this.version = -1;
+        this.result = null;
+    }
+
+    public UpdateStatus(T obj, DocWriteResponse response) {
+        this.obj = obj;
+        this.id = response.getId();
+        this.version = response.getVersion();
+        this.result = response.getResult();
+    }
+
+    static <T> List<UpdateStatus<T>> pending(List<T> objs) {
+        List<UpdateStatus<T>> retval = new ArrayList<>(objs.size());
+        for (T obj : objs) {
+            retval.add(new UpdateStatus<>(obj));
+        }
+        return retval;
+    }
+
+    /**
+     * @return object that was sent
+     */
+    public T getObj() {
+        return obj;
+    }
+
+    /**
+     * @return document id, null if update failed
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return document version after the update, -1 if update failed
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return result of the update, null if update failed
+     */
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * @return true if document was not changed by the update
+     */
+    public boolean isNoop() {
+        return result == Result.NOOP;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateStatus [id=" + id + ", version=" + version + ", result=" + result + "]";
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.escli4j.dao.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses number of actions per bulk with additive increase / multiplicative decrease. Size grows while bulks are
+ * faster than the target latency and is cut when bulks are slower than the target or items are rejected. Size is also
+ * limited so that average bulk payload does not exceed max bulk size.
+ */
+public class AdaptiveBulkSizer {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveBulkSizer.class);
+    // weight of the last bulk in the moving averages
+    private static final double ALPHA = 0.3;
+    // latency below this part of the target allows to increase size
+    private static final double INCREASE_THRESHOLD = 0.8;
+
+    public enum Decision {
+        INCREASE, DECREASE, HOLD
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetLatencyNanos;
+    private final long maxBulkBytes;
+    private final int increment;
+    private final double decreaseFactor;
+    private final double maxRejectionRate;
+
+    private int size;
+    private long bulks = 0;
+    private long increases = 0;
+    private long decreases = 0;
+    private long holds = 0;
+    private Decision lastDecision = Decision.HOLD;
+    private double avgLatencyNanos = 0;
+    private double avgItemBytes = 0;
+    private double rejectionRate = 0;
+
+    /**
+     * Sizer that starts with min size, increases by min size and halves size on slow or rejected bulks
+     * @param minSize min number of actions per bulk
+     * @param maxSize max number of actions per bulk
+     * @param targetLatency bulk latency to converge to
+     * @param maxBulkSize max payload size of the bulk
+     */
+    public AdaptiveBulkSizer(int minSize, int maxSize, TimeValue targetLatency, ByteSizeValue maxBulkSize) {
+        this(minSize, maxSize, targetLatency, maxBulkSize, minSize, 0.5, 0.0);
+    }
+
+    /**
+     * @param minSize min number of actions per bulk
+     * @param maxSize max number of actions per bulk
+     * @param targetLatency bulk latency to converge to
+     * @param maxBulkSize max payload size of the bulk
+     * @param increment number of actions added after fast bulk
+     * @param decreaseFactor size multiplier after slow or rejected bulk
+     * @param maxRejectionRate part of the rejected items that is tolerated without decrease
+     */
+    public AdaptiveBulkSizer(int minSize, int maxSize, TimeValue targetLatency, ByteSizeValue maxBulkSize,
+            int increment, double decreaseFactor, double maxRejectionRate) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Must be 0 < minSize <= maxSize.");
+        }
+        if (increment < 1) {
+            throw new IllegalArgumentException("Increment must be > 0.");
+        }
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Decrease factor must be in (0, 1).");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetLatencyNanos = targetLatency.nanos();
+        this.maxBulkBytes = maxBulkSize.getBytes();
+        this.increment = increment;
+        this.decreaseFactor = decreaseFactor;
+        this.maxRejectionRate = maxRejectionRate;
+        this.size = minSize;
+    }
+
+    /**
+     * @return number of actions for the next bulk
+     */
+    public synchronized int getBatchSize() {
+        return size;
+    }
+
+    /**
+     * Records measurements of the executed bulk and adjusts size
+     * @param actions number of actions in the bulk
+     * @param bytes payload size of the bulk
+     * @param tookNanos bulk latency
+     * @param rejected number of rejected items, all actions if the whole bulk was rejected
+     * @return decision that was made
+     */
+    public synchronized Decision onBulk(int actions, long bytes, long tookNanos, int rejected) {
+        if (actions <= 0) {
+            return Decision.HOLD;
+        }
+        double rejection = (double) rejected / actions;
+        if (bulks == 0) {
+            avgLatencyNanos = tookNanos;
+            avgItemBytes = (double) bytes / actions;
+            rejectionRate = rejection;
+        } else {
+            avgLatencyNanos = ALPHA * tookNanos + (1 - ALPHA) * avgLatencyNanos;
+            avgItemBytes = ALPHA * bytes / actions + (1 - ALPHA) * avgItemBytes;
+            rejectionRate = ALPHA * rejection + (1 - ALPHA) * rejectionRate;
+        }
+        bulks++;
+        int prev = size;
+        Decision decision;
+        if (rejection > maxRejectionRate || tookNanos > targetLatencyNanos) {
+            size = Math.max(minSize, (int) (size * decreaseFactor));
+            decision = Decision.DECREASE;
+        } else if (actions >= size && tookNanos < targetLatencyNanos * INCREASE_THRESHOLD) {
+            // grow only when the bulk was full, small bulks tell nothing about the capacity
+            size = Math.min(maxSize, size + increment);
+            decision = Decision.INCREASE;
+        } else {
+            decision = Decision.HOLD;
+        }
+        // payload limit is applied after latency decision
+        if (avgItemBytes > 0 && size * avgItemBytes > maxBulkBytes) {
+            size = Math.max(minSize, (int) (maxBulkBytes / avgItemBytes));
+            if (size < prev) {
+                decision = Decision.DECREASE;
+            } else if (size == prev) {
+                decision = Decision.HOLD;
+            }
+        }
+        switch (decision) {
+        case INCREASE:
+            increases++;
+            break;
+        case DECREASE:
+            decreases++;
+            break;
+        default:
+            holds++;
+        }
+        lastDecision = decision;
+        if (decision != Decision.HOLD) {
+            log.debug("Bulk size {} -> {}, took {}ms, {} bytes, {} of {} rejected", prev, size,
+                    TimeUnit.NANOSECONDS.toMillis(tookNanos), bytes, rejected, actions);
+        }
+        return decision;
+    }
+
+    /**
+     * @return number of bulks recorded
+     */
+    public synchronized long getBulks() {
+        return bulks;
+    }
+
+    /**
+     * @return number of size increases
+     */
+    public synchronized long getIncreases() {
+        return increases;
+    }
+
+    /**
+     * @return number of size decreases
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    /**
+     * @return number of bulks that did not change size
+     */
+    public synchronized long getHolds() {
+        return holds;
+    }
+
+    /**
+     * @return decision made after the last bulk
+     */
+    public synchronized Decision getLastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * @return moving average of the bulk latency
+     */
+    public synchronized TimeValue getAverageLatency() {
+        return TimeValue.timeValueNanos((long) avgLatencyNanos);
+    }
+
+    /**
+     * @return moving average of the payload bytes per item
+     */
+    public synchronized long getAverageItemBytes() {
+        return (long) avgItemBytes;
+    }
+
+    /**
+     * @return moving average of the rejected items part
+     */
+    public synchronized double getRejectionRate() {
+        return rejectionRate;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveBulkSizer [size=" + size + ", bulks=" + bulks + ", increases=" + increases + ", decreases="
+                + decreases + ", holds=" + holds + ", lastDecision=" + lastDecision + ", avgLatency="
+                + getAverageLatency() + ", avgItemBytes=" + getAverageItemBytes() + ", rejectionRate="
+                + rejectionRate + "]";
+    }
+
+}
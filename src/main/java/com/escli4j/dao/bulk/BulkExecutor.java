@@ -0,0 +1,711 @@
+package com.escli4j.dao.bulk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.escli4j.dao.limit.ConcurrencyLimiter;
+
+/**
+ * Executes bulk requests and maps items back to the objects they were built from. Items rejected by the cluster are
+ * sent again according to the {@link RetryPolicy}, not rejected items are never resent. If {@link AdaptiveBulkSizer}
+ * is set, objects are split into bulks of the size it chooses and each bulk is measured to adjust the size. If pooled
+ * payload is enabled, sources of the bulk items built with {@link BulkPayload} are serialized into pooled pages that
+ * are released when the result is ready. Items of big bulks are built in parallel on the serialization pool, each
+ * chunk of objects gets its own payload.
+ */
+public class BulkExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkExecutor.class);
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1000;
+    // chunks per pool thread, so that threads that finished earlier can take more work
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_SIZE = 100;
+
+    private final Client client;
+    private final Supplier<BulkRequestBuilder> bulkSupplier;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.exponentialBackoff();
+    private volatile AdaptiveBulkSizer sizer = null;
+    private volatile boolean pooledPayload = false;
+    private volatile ForkJoinPool serializationPool = ForkJoinPool.commonPool();
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile ConcurrencyLimiter limiter = ConcurrencyLimiter.unlimited();
+    private volatile ShardRouter shardRouter = null;
+    private volatile Consumer<DocWriteResponse> writeListener = null;
+
+    public BulkExecutor(Client client, Supplier<BulkRequestBuilder> bulkSupplier) {
+        this.client = client;
+        this.bulkSupplier = bulkSupplier;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public AdaptiveBulkSizer getSizer() {
+        return sizer;
+    }
+
+    /**
+     * @param sizer chooses number of actions per bulk, null to send all objects with one bulk
+     */
+    public void setSizer(AdaptiveBulkSizer sizer) {
+        this.sizer = sizer;
+    }
+
+    public boolean isPooledPayload() {
+        return pooledPayload;
+    }
+
+    /**
+     * @param pooledPayload serialize sources into pooled pages instead of byte array per item
+     */
+    public void setPooledPayload(boolean pooledPayload) {
+        this.pooledPayload = pooledPayload;
+    }
+
+    public ForkJoinPool getSerializationPool() {
+        return serializationPool;
+    }
+
+    /**
+     * @param serializationPool pool the bulk items are built on, null to always build items on the caller thread
+     */
+    public void setSerializationPool(ForkJoinPool serializationPool) {
+        this.serializationPool = serializationPool;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param parallelThreshold min number of objects that are serialized in parallel
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @param limiter limits asynchronous bulks in flight, retries of the rejected items also wait for the permit
+     */
+    public void setLimiter(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public ShardRouter getShardRouter() {
+        return shardRouter;
+    }
+
+    /**
+     * @param shardRouter splits bulk into per shard or per node bulks that are executed in parallel, null to send
+     * all items in one bulk
+     */
+    public void setShardRouter(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+    }
+
+    public Consumer<DocWriteResponse> getWriteListener() {
+        return writeListener;
+    }
+
+    /**
+     * @param writeListener gets response of every succeeded item before it is converted to the result object, null
+     * to not listen
+     */
+    public void setWriteListener(Consumer<DocWriteResponse> writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    /**
+     * @return payload for the next bulk, pooled or heap according to the configuration
+     */
+    public BulkPayload newPayload() {
+        return pooledPayload ? BulkPayload.pooled() : BulkPayload.heap();
+    }
+
+    public ThreadPool threadPool() {
+        return client.threadPool();
+    }
+
+    /**
+     * Builds bulk items from objects
+     * @param objs objects to write
+     * @param requestFunction converts object to the bulk item
+     * @return bulk items in the same order as objects
+     */
+    public <T> List<DocWriteRequest<?>> toRequests(List<T> objs, Function<T, DocWriteRequest<?>> requestFunction) {
+        List<DocWriteRequest<?>> retval = new ArrayList<>(objs.size());
+        for (T obj : objs) {
+            retval.add(requestFunction.apply(obj));
+        }
+        return retval;
+    }
+
+    /**
+     * Builds bulk items from objects
+     * @param objs objects to write
+     * @param payload buffer the sources are serialized to
+     * @param requestFunction converts object to the bulk item
+     * @return bulk items in the same order as objects
+     */
+    public <T> List<DocWriteRequest<?>> toRequests(List<T> objs, BulkPayload payload,
+            BiFunction<T, BulkPayload, DocWriteRequest<?>> requestFunction) {
+        List<DocWriteRequest<?>> retval = new ArrayList<>(objs.size());
+        for (T obj : objs) {
+            retval.add(requestFunction.apply(obj, payload));
+        }
+        return retval;
+    }
+
+    /**
+     * Builds bulk items from objects. If there are more objects than parallel threshold, they are split into chunks
+     * that are serialized on the serialization pool, every chunk with its own payload.
+     * @param objs objects to write
+     * @param payloads created payloads are added to this list, they must be closed when the bulk is completed
+     * @param requestFunction converts object to the bulk item using given payload, must be thread safe
+     * @return bulk items in the same order as objects
+     */
+    public <T> List<DocWriteRequest<?>> toRequests(List<T> objs, List<BulkPayload> payloads,
+            BiFunction<T, BulkPayload, DocWriteRequest<?>> requestFunction) {
+        ForkJoinPool pool = this.serializationPool;
+        if (pool == null || pool.getParallelism() < 2 || objs.size() < parallelThreshold) {
+            BulkPayload payload = newPayload();
+            payloads.add(payload);
+            return toRequests(objs, payload, requestFunction);
+        }
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (objs.size() + chunks - 1) / chunks);
+        DocWriteRequest<?>[] retval = new DocWriteRequest<?>[objs.size()];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < objs.size(); from += chunkSize) {
+            int start = from;
+            int end = Math.min(objs.size(), from + chunkSize);
+            BulkPayload payload = newPayload();
+            payloads.add(payload);
+            tasks.add(pool.submit(() -> {
+                for (int i = start; i < end; i++) {
+                    retval[i] = requestFunction.apply(objs.get(i), payload);
+                }
+            }));
+        }
+        // wait for all chunks even if some failed, payloads may be closed only after that
+        RuntimeException failure = null;
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return Arrays.asList(retval);
+    }
+
+    /**
+     * Executes bulk and waits for the result. Sources are serialized into the payloads of this executor, which are
+     * released when the result is ready.
+     * @param objs objects to write
+     * @param requestFunction converts object to the bulk item using given payload
+     * @param refresh refresh index configuration
+     * @param responseFunction converts succeeded item to the result object, null result is not added to the
+     * succeeded list
+     * @return result of the bulk
+     */
+    public <T> BulkResult<T> execute(List<T> objs, BiFunction<T, BulkPayload, DocWriteRequest<?>> requestFunction,
+            RefreshPolicy refresh, BiFunction<T, DocWriteResponse, T> responseFunction) {
+        List<BulkPayload> payloads = new ArrayList<>();
+        try {
+            return execute(objs, toRequests(objs, payloads, requestFunction), refresh, responseFunction);
+        } finally {
+            Releasables.close(payloads);
+        }
+    }
+
+    /**
+     * Executes bulk and waits for the result
+     * @param objs objects to write
+     * @param requestFunction converts object to the bulk item
+     * @param refresh refresh index configuration
+     * @param responseFunction converts succeeded item to the result object, null result is not added to the
+     * succeeded list
+     * @return result of the bulk
+     */
+    public <T> BulkResult<T> execute(List<T> objs, Function<T, DocWriteRequest<?>> requestFunction,
+            RefreshPolicy refresh, BiFunction<T, DocWriteResponse, T> responseFunction) {
+        return execute(objs, toRequests(objs, requestFunction), refresh, responseFunction);
+    }
+
+    /**
+     * Executes bulk and waits for the result. If shard router is set, items are split by shard or node and the bulks
+     * are sent in parallel, objects in the result are ordered by group then.
+     * @param objs objects to write
+     * @param requests bulk items in the same order as objects
+     * @param refresh refresh index configuration
+     * @param responseFunction converts succeeded item to the result object, null result is not added to the
+     * succeeded list
+     * @return result of the bulk
+     */
+    public <T> BulkResult<T> execute(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction) {
+        Collection<List<Integer>> groups = groups(requests);
+        if (groups == null) {
+            return executeOrdered(objs, requests, refresh, responseFunction);
+        }
+        PlainActionFuture<BulkResult<T>> future = PlainActionFuture.newFuture();
+        executeGroups(objs, requests, groups, refresh, responseFunction, future);
+        return future.actionGet();
+    }
+
+    private <T> BulkResult<T> executeOrdered(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction) {
+        AdaptiveBulkSizer sizer = this.sizer;
+        if (sizer == null || objs.size() <= sizer.getBatchSize()) {
+            return executeChunk(objs, requests, refresh, responseFunction, sizer);
+        }
+        BulkResult<T> retval = new BulkResult<>();
+        int from = 0;
+        while (from < objs.size()) {
+            int to = Math.min(objs.size(), from + sizer.getBatchSize());
+            List<T> chunk = objs.subList(from, to);
+            try {
+                retval.addAll(executeChunk(chunk, requests.subList(from, to), refresh, responseFunction, sizer));
+            } catch (RuntimeException e) {
+                // previous chunks are already written, report this chunk as failed items
+                retval.addFailed(chunk, e);
+            }
+            from = to;
+        }
+        return retval;
+    }
+
+    private <T> BulkResult<T> executeChunk(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction, AdaptiveBulkSizer sizer) {
+        Execution<T> execution = new Execution<>(objs, requests, refresh, responseFunction, retryPolicy, sizer);
+        while (!execution.isDone()) {
+            BulkResponse response;
+            try {
+                response = execution.prepare().get();
+            } catch (RuntimeException e) {
+                if (execution.canRetry(e)) {
+                    sleep(execution.nextDelay());
+                    continue;
+                }
+                throw e;
+            }
+            if (execution.onResponse(response)) {
+                sleep(execution.nextDelay());
+            }
+        }
+        return execution.result;
+    }
+
+    /**
+     * Asynchronous executes bulk
+     * @param objs objects to write
+     * @param requestFunction converts object to the bulk item
+     * @param refresh refresh index configuration
+     * @param responseFunction converts succeeded item to the result object, null result is not added to the
+     * succeeded list
+     * @param listener gets result of the bulk
+     */
+    public <T> void execute(List<T> objs, Function<T, DocWriteRequest<?>> requestFunction, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction, ActionListener<BulkResult<T>> listener) {
+        List<DocWriteRequest<?>> requests;
+        try {
+            requests = toRequests(objs, requestFunction);
+        } catch (Exception e) {
+            listener.onFailure(e);
+            return;
+        }
+        execute(objs, requests, refresh, responseFunction, listener);
+    }
+
+    /**
+     * Asynchronous executes bulk. Sources are serialized into the payloads of this executor, which are released
+     * before the listener is called.
+     * @param objs objects to write
+     * @param requestFunction converts object to the bulk item using given payload
+     * @param refresh refresh index configuration
+     * @param responseFunction converts succeeded item to the result object, null result is not added to the
+     * succeeded list
+     * @param listener gets result of the bulk
+     */
+    public <T> void execute(List<T> objs, BiFunction<T, BulkPayload, DocWriteRequest<?>> requestFunction,
+            RefreshPolicy refresh, BiFunction<T, DocWriteResponse, T> responseFunction,
+            ActionListener<BulkResult<T>> listener) {
+        List<BulkPayload> payloads = new ArrayList<>();
+        List<DocWriteRequest<?>> requests;
+        try {
+            requests = toRequests(objs, payloads, requestFunction);
+        } catch (Exception e) {
+            Releasables.close(payloads);
+            listener.onFailure(e);
+            return;
+        }
+        execute(objs, requests, refresh, responseFunction, new ActionListener<BulkResult<T>>() {
+
+            @Override
+            public void onResponse(BulkResult<T> result) {
+                Releasables.close(payloads);
+                listener.onResponse(result);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Releasables.close(payloads);
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous executes bulk. If shard router is set, items are split by shard or node and the bulks are sent in
+     * parallel, objects in the result are ordered by group then.
+     * @param objs objects to write
+     * @param requests bulk items in the same order as objects
+     * @param refresh refresh index configuration
+     * @param responseFunction converts succeeded item to the result object, null result is not added to the
+     * succeeded list
+     * @param listener gets result of the bulk
+     */
+    public <T> void execute(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction, ActionListener<BulkResult<T>> listener) {
+        Collection<List<Integer>> groups;
+        try {
+            groups = groups(requests);
+        } catch (Exception e) {
+            listener.onFailure(e);
+            return;
+        }
+        if (groups == null) {
+            executeOrdered(objs, requests, refresh, responseFunction, listener);
+        } else {
+            executeGroups(objs, requests, groups, refresh, responseFunction, listener);
+        }
+    }
+
+    /**
+     * @return positions of the items by shard or node, null if router is not set or all items are in one group
+     */
+    private Collection<List<Integer>> groups(List<DocWriteRequest<?>> requests) {
+        ShardRouter router = this.shardRouter;
+        if (router == null || requests.size() < 2) {
+            return null;
+        }
+        String[] itemGroups = router.groups(requests);
+        Map<String, List<Integer>> retval = new LinkedHashMap<>();
+        for (int i = 0; i < itemGroups.length; i++) {
+            // items with unknown shard are sent together in their own bulk
+            retval.computeIfAbsent(itemGroups[i], k -> new ArrayList<>()).add(i);
+        }
+        return retval.size() < 2 ? null : retval.values();
+    }
+
+    /**
+     * Executes groups in parallel, order of the result follows the order of the groups. Items of one document are
+     * always in one group, so their order is kept.
+     */
+    private <T> void executeGroups(List<T> objs, List<DocWriteRequest<?>> requests, Collection<List<Integer>> groups,
+            RefreshPolicy refresh, BiFunction<T, DocWriteResponse, T> responseFunction,
+            ActionListener<BulkResult<T>> listener) {
+        BulkResult<T> retval = new BulkResult<>();
+        AtomicInteger remaining = new AtomicInteger(groups.size());
+        for (List<Integer> positions : groups) {
+            List<T> groupObjs = new ArrayList<>(positions.size());
+            List<DocWriteRequest<?>> groupRequests = new ArrayList<>(positions.size());
+            for (int i : positions) {
+                groupObjs.add(objs.get(i));
+                groupRequests.add(requests.get(i));
+            }
+            executeOrdered(groupObjs, groupRequests, refresh, responseFunction, new ActionListener<BulkResult<T>>() {
+
+                @Override
+                public void onResponse(BulkResult<T> result) {
+                    synchronized (retval) {
+                        retval.addAll(result);
+                    }
+                    done();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    // other groups are written independently, report this group as failed items
+                    synchronized (retval) {
+                        retval.addFailed(groupObjs, e);
+                    }
+                    done();
+                }
+
+                private void done() {
+                    if (remaining.decrementAndGet() == 0) {
+                        listener.onResponse(retval);
+                    }
+                }
+            });
+        }
+    }
+
+    private <T> void executeOrdered(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction, ActionListener<BulkResult<T>> listener) {
+        AdaptiveBulkSizer sizer = this.sizer;
+        if (sizer == null || objs.size() <= sizer.getBatchSize()) {
+            executeChunk(objs, requests, refresh, responseFunction, sizer, listener);
+        } else {
+            executeChunks(objs, requests, 0, refresh, responseFunction, sizer, new BulkResult<>(), listener);
+        }
+    }
+
+    private <T> void executeChunks(List<T> objs, List<DocWriteRequest<?>> requests, int from, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction, AdaptiveBulkSizer sizer, BulkResult<T> retval,
+            ActionListener<BulkResult<T>> listener) {
+        int to = Math.min(objs.size(), from + sizer.getBatchSize());
+        List<T> chunk = objs.subList(from, to);
+        executeChunk(chunk, requests.subList(from, to), refresh, responseFunction, sizer,
+                new ActionListener<BulkResult<T>>() {
+
+                    @Override
+                    public void onResponse(BulkResult<T> result) {
+                        retval.addAll(result);
+                        next();
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        // previous chunks are already written, report this chunk as failed items
+                        retval.addFailed(chunk, e);
+                        next();
+                    }
+
+                    private void next() {
+                        if (to < objs.size()) {
+                            executeChunks(objs, requests, to, refresh, responseFunction, sizer, retval, listener);
+                        } else {
+                            listener.onResponse(retval);
+                        }
+                    }
+                });
+    }
+
+    private <T> void executeChunk(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+            BiFunction<T, DocWriteResponse, T> responseFunction, AdaptiveBulkSizer sizer,
+            ActionListener<BulkResult<T>> listener) {
+        Execution<T> execution = new Execution<>(objs, requests, refresh, responseFunction, retryPolicy, sizer);
+        if (execution.isDone()) {
+            listener.onResponse(execution.result);
+        } else {
+            executeAsync(execution, listener);
+        }
+    }
+
+    private <T> void executeAsync(Execution<T> execution, ActionListener<BulkResult<T>> listener) {
+        // bulk is prepared when permit is acquired, so the time in the limiter queue is not measured as bulk latency
+        limiter.execute(l -> execution.prepare().execute(l), new ActionListener<BulkResponse>() {
+
+            @Override
+            public void onResponse(BulkResponse response) {
+                boolean retry;
+                try {
+                    retry = execution.onResponse(response);
+                } catch (Exception e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                if (retry) {
+                    schedule(execution, listener);
+                } else {
+                    listener.onResponse(execution.result);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (execution.canRetry(e)) {
+                    schedule(execution, listener);
+                } else {
+                    listener.onFailure(e);
+                }
+            }
+        });
+    }
+
+    private <T> void schedule(Execution<T> execution, ActionListener<BulkResult<T>> listener) {
+        try {
+            client.threadPool().schedule(execution.nextDelay(), ThreadPool.Names.GENERIC,
+                    () -> executeAsync(execution, listener));
+        } catch (Exception e) {
+            listener.onFailure(e);
+        }
+    }
+
+    private static void sleep(TimeValue delay) {
+        try {
+            Thread.sleep(delay.millis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class Execution<T> {
+
+        private final List<T> objs;
+        private final List<DocWriteRequest<?>> requests;
+        private final RefreshPolicy refresh;
+        private final BiFunction<T, DocWriteResponse, T> responseFunction;
+        private final RetryPolicy policy;
+        private final AdaptiveBulkSizer sizer;
+        private final BulkResult<T> result = new BulkResult<>();
+        private final boolean[] retried;
+        // positions of the objects that should be sent with the next bulk
+        private List<Integer> pending;
+        private int attempt = 0;
+        // measurements of the last sent bulk
+        private long startNanos;
+        private long bytes;
+
+        private Execution(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+                BiFunction<T, DocWriteResponse, T> responseFunction, RetryPolicy policy, AdaptiveBulkSizer sizer) {
+            this.objs = objs;
+            this.requests = requests;
+            this.refresh = refresh;
+            this.responseFunction = responseFunction;
+            this.policy = policy;
+            this.sizer = sizer;
+            this.retried = new boolean[objs.size()];
+            this.pending = new ArrayList<>(objs.size());
+            for (int i = 0; i < objs.size(); i++) {
+                pending.add(i);
+            }
+        }
+
+        private boolean isDone() {
+            return pending.isEmpty();
+        }
+
+        private BulkRequestBuilder prepare() {
+            BulkRequestBuilder bulk = bulkSupplier.get().setRefreshPolicy(refresh);
+            for (int pos : pending) {
+                bulk.request().add(requests.get(pos));
+            }
+            bytes = bulk.request().estimatedSizeInBytes();
+            startNanos = System.nanoTime();
+            return bulk;
+        }
+
+        /**
+         * @param response response of the last bulk
+         * @return true if there are rejected items to retry
+         */
+        private boolean onResponse(BulkResponse response) {
+            long tookNanos = System.nanoTime() - startNanos;
+            List<Integer> next = new ArrayList<>();
+            boolean canRetry = policy.canRetry(attempt);
+            int rejected = 0;
+            Consumer<DocWriteResponse> writeListener = BulkExecutor.this.writeListener;
+            for (BulkItemResponse item : response.getItems()) {
+                int pos = pending.get(item.getItemId());
+                T obj = objs.get(pos);
+                if (item.isFailed()) {
+                    BulkItemResponse.Failure failure = item.getFailure();
+                    boolean retryable = policy.isRetryable(failure.getStatus());
+                    if (retryable) {
+                        rejected++;
+                    }
+                    if (canRetry && retryable) {
+                        markRetried(pos);
+                        next.add(pos);
+                    } else {
+                        result.getFailed().add(new BulkItemFailure<>(obj, failure.getStatus(), failure.getCause()));
+                    }
+                } else {
+                    if (writeListener != null) {
+                        writeListener.accept(item.getResponse());
+                    }
+                    T retval = responseFunction.apply(obj, item.getResponse());
+                    if (retval != null) {
+                        result.getSucceeded().add(retval);
+                    }
+                }
+            }
+            if (sizer != null) {
+                sizer.onBulk(pending.size(), bytes, tookNanos, rejected);
+            }
+            pending = next;
+            if (!next.isEmpty()) {
+                log.debug("{} bulk items rejected, retry attempt {}", next.size(), attempt + 1);
+            }
+            return !next.isEmpty();
+        }
+
+        /**
+         * @param e failure of the whole bulk
+         * @return true if the whole bulk can be sent again
+         */
+        private boolean canRetry(Exception e) {
+            boolean retryable = policy.isRetryable(e);
+            if (sizer != null && retryable) {
+                sizer.onBulk(pending.size(), bytes, System.nanoTime() - startNanos, pending.size());
+            }
+            if (policy.canRetry(attempt) && retryable) {
+                for (int pos : pending) {
+                    markRetried(pos);
+                }
+                log.debug("Bulk of {} items rejected, retry attempt {}", pending.size(), attempt + 1);
+                return true;
+            }
+            return false;
+        }
+
+        private TimeValue nextDelay() {
+            return policy.delay(attempt++);
+        }
+
+        private void markRetried(int pos) {
+            if (!retried[pos]) {
+                retried[pos] = true;
+                result.getRetried().add(objs.get(pos));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.escli4j.dao.bulk;
+
+/**
+ * Thrown when some of the bulk items failed after all retries
+ */
+public class BulkFailureException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient BulkResult<?> result;
+
+    public BulkFailureException(BulkResult<?> result) {
+        super(result.getFailed().size() + " bulk items failed, first failure: " + result.getFailed().get(0));
+        this.result = result;
+    }
+
+    /**
+     * @return result of the bulk with succeeded and failed items
+     */
+    public BulkResult<?> getResult() {
+        return result;
+    }
+
+}
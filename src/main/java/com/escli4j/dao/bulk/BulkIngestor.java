@@ -0,0 +1,480 @@
+package com.escli4j.dao.bulk;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accepts continuous stream of objects and writes them with bulk requests. Bulk is flushed when it reaches configured
+ * number of actions, size in bytes or flush interval. Producers are blocked or rejected when bytes of the not yet
+ * acknowledged objects exceed configured memory budget.
+ * @param <T> type of the ingested objects
+ */
+public class BulkIngestor<T> implements Consumer<T>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkIngestor.class);
+    // the same per request overhead elasticsearch uses in BulkRequest.estimatedSizeInBytes()
+    private static final int REQUEST_OVERHEAD = 50;
+
+    public interface Listener<T> {
+
+        /**
+         * Called after each bulk with per item results, rejected items are already retried
+         * @param result succeeded and failed objects of the bulk
+         */
+        void onResponse(BulkResult<T> result);
+
+        /**
+         * Called when the whole bulk failed
+         * @param objs objects of the failed bulk
+         * @param e cause of the failure
+         */
+        void onFailure(List<T> objs, Throwable e);
+    }
+
+    public static class Builder<T> {
+
+        private final BulkExecutor executor;
+        private final Function<T, DocWriteRequest<?>> requestFunction;
+        private final BiFunction<T, DocWriteResponse, T> responseFunction;
+        private final Listener<T> listener;
+        private int bulkActions = 1000;
+        private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+        private TimeValue flushInterval = null;
+        private int concurrentRequests = 1;
+        private ByteSizeValue memoryBudget = new ByteSizeValue(64, ByteSizeUnit.MB);
+        private boolean blockOnFull = true;
+        private RefreshPolicy refresh = RefreshPolicy.NONE;
+
+        public Builder(BulkExecutor executor, Function<T, DocWriteRequest<?>> requestFunction,
+                BiFunction<T, DocWriteResponse, T> responseFunction, Listener<T> listener) {
+            this.executor = executor;
+            this.requestFunction = requestFunction;
+            this.responseFunction = responseFunction;
+            this.listener = listener;
+        }
+
+        /**
+         * @param bulkActions flush bulk when it has this number of actions, -1 to disable. Ignored if executor has
+         * {@link AdaptiveBulkSizer}, its size is used instead.
+         * @return this builder
+         */
+        public Builder<T> setBulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        /**
+         * @param bulkSize flush bulk when its size reaches this value, -1 to disable
+         * @return this builder
+         */
+        public Builder<T> setBulkSize(ByteSizeValue bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        /**
+         * @param flushInterval flush not empty bulk with this interval, null to disable
+         * @return this builder
+         */
+        public Builder<T> setFlushInterval(TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * @param concurrentRequests number of bulks that can be executed concurrently, must be > 0
+         * @return this builder
+         */
+        public Builder<T> setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        /**
+         * @param memoryBudget max size of the accepted but not yet acknowledged objects
+         * @return this builder
+         */
+        public Builder<T> setMemoryBudget(ByteSizeValue memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * @param blockOnFull block producer when memory budget is exceeded, otherwise throw
+         * {@link RejectedExecutionException}
+         * @return this builder
+         */
+        public Builder<T> setBlockOnFull(boolean blockOnFull) {
+            this.blockOnFull = blockOnFull;
+            return this;
+        }
+
+        /**
+         * @param refresh refresh index configuration of each bulk
+         * @return this builder
+         */
+        public Builder<T> setRefreshPolicy(RefreshPolicy refresh) {
+            this.refresh = refresh;
+            return this;
+        }
+
+        public BulkIngestor<T> build() {
+            return new BulkIngestor<>(this);
+        }
+    }
+
+    private static class Batch<T> {
+
+        private final List<T> objs = new ArrayList<>();
+        private final List<DocWriteRequest<?>> requests = new ArrayList<>();
+        private long bytes = 0;
+
+        private void add(T obj, DocWriteRequest<?> request, long size) {
+            objs.add(obj);
+            requests.add(request);
+            bytes += size;
+        }
+
+        private boolean isEmpty() {
+            return objs.isEmpty();
+        }
+    }
+
+    private final BulkExecutor executor;
+    private final Function<T, DocWriteRequest<?>> requestFunction;
+    private final BiFunction<T, DocWriteResponse, T> responseFunction;
+    private final Listener<T> listener;
+    private final int bulkActions;
+    private final long bulkSize;
+    private final int concurrentRequests;
+    private final long memoryBudget;
+    private final boolean blockOnFull;
+    private final RefreshPolicy refresh;
+    private final ThreadPool.Cancellable flushTask;
+
+    private final Semaphore semaphore;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition budgetReleased = lock.newCondition();
+    private final Condition bulksCompleted = lock.newCondition();
+    private Batch<T> batch = new Batch<>();
+    private long inFlightBytes = 0;
+    // bulks taken from the current batch and not completed yet, sent or still waiting for the permit
+    private int pendingBulks = 0;
+    private volatile boolean closed = false;
+
+    protected BulkIngestor(Builder<T> builder) {
+        if (builder.concurrentRequests < 1) {
+            throw new IllegalArgumentException("Concurrent requests must be > 0.");
+        }
+        this.executor = builder.executor;
+        this.requestFunction = builder.requestFunction;
+        this.responseFunction = builder.responseFunction;
+        this.listener = builder.listener;
+        this.bulkActions = builder.bulkActions;
+        this.bulkSize = builder.bulkSize.getBytes();
+        this.concurrentRequests = builder.concurrentRequests;
+        this.memoryBudget = builder.memoryBudget.getBytes();
+        this.blockOnFull = builder.blockOnFull;
+        this.refresh = builder.refresh;
+        this.semaphore = new Semaphore(concurrentRequests);
+        if (builder.flushInterval != null) {
+            flushTask = builder.executor.threadPool().scheduleWithFixedDelay(this::flushQuietly,
+                    builder.flushInterval, ThreadPool.Names.GENERIC);
+        } else {
+            flushTask = null;
+        }
+    }
+
+    /**
+     * Adds object to the current bulk. Blocks or throws {@link RejectedExecutionException} if memory budget is
+     * exceeded.
+     * @param obj object to write
+     */
+    @Override
+    public void accept(T obj) {
+        DocWriteRequest<?> request = requestFunction.apply(obj);
+        long size = sizeOf(request);
+        Batch<T> toSend = null;
+        lock.lock();
+        try {
+            ensureOpen();
+            // single object that is bigger than the whole budget is accepted when nothing is in flight
+            while (inFlightBytes > 0 && inFlightBytes + size > memoryBudget) {
+                if (!batch.isEmpty()) {
+                    // current bulk holds the budget, send it before waiting
+                    Batch<T> full = takeBatch();
+                    lock.unlock();
+                    try {
+                        execute(full);
+                    } finally {
+                        lock.lock();
+                    }
+                    // ingestor could be closed while the lock was released, its last flush would not see this object
+                    ensureOpen();
+                } else if (blockOnFull) {
+                    budgetReleased.await();
+                    ensureOpen();
+                } else {
+                    throw new RejectedExecutionException("Memory budget " + new ByteSizeValue(memoryBudget)
+                            + " exceeded, in flight " + new ByteSizeValue(inFlightBytes));
+                }
+            }
+            inFlightBytes += size;
+            batch.add(obj, request, size);
+            if (isFull(batch)) {
+                toSend = takeBatch();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            lock.unlock();
+        }
+        if (toSend != null) {
+            execute(toSend);
+        }
+    }
+
+    /**
+     * Adds all objects of the iterator
+     * @param objs objects to write
+     */
+    public void acceptAll(Iterator<T> objs) {
+        while (objs.hasNext()) {
+            accept(objs.next());
+        }
+    }
+
+    /**
+     * Adds all objects of the stream
+     * @param objs objects to write
+     */
+    public void acceptAll(Stream<T> objs) {
+        objs.forEachOrdered(this);
+    }
+
+    /**
+     * Sends current bulk if it is not empty
+     */
+    public void flush() {
+        Batch<T> toSend;
+        lock.lock();
+        try {
+            toSend = takeBatch();
+        } finally {
+            lock.unlock();
+        }
+        if (!toSend.isEmpty()) {
+            execute(toSend);
+        }
+    }
+
+    /**
+     * @return size of the accepted but not yet acknowledged objects in bytes
+     */
+    public long getInFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes current bulk and waits for all bulks in flight, including the ones taken by producers but not sent yet
+     * @param timeout max time to wait
+     * @param unit time unit of the timeout
+     * @return true if all bulks was completed, false if the waiting time elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!closed) {
+            closed = true;
+            flush();
+            if (flushTask != null) {
+                flushTask.cancel();
+            }
+            lock.lock();
+            try {
+                // wake up blocked producers, they will get closed exception
+                budgetReleased.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        // repeated call waits for the bulks in flight too
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (pendingBulks > 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = bulksCompleted.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes current bulk and waits for all bulks in flight
+     */
+    @Override
+    public void close() {
+        try {
+            awaitClose(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("Failed to flush bulk by interval. ", e);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Bulk ingestor is closed. ");
+        }
+    }
+
+    private boolean isFull(Batch<T> batch) {
+        AdaptiveBulkSizer sizer = executor.getSizer();
+        int actions = sizer != null ? sizer.getBatchSize() : bulkActions;
+        return (actions != -1 && batch.objs.size() >= actions) || (bulkSize != -1 && batch.bytes >= bulkSize);
+    }
+
+    /**
+     * Takes the current batch under the lock, not empty batch is counted as pending until it is completed
+     * @return current batch
+     */
+    private Batch<T> takeBatch() {
+        Batch<T> retval = batch;
+        batch = new Batch<>();
+        if (!retval.isEmpty()) {
+            pendingBulks++;
+        }
+        return retval;
+    }
+
+    private void execute(Batch<T> toSend) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseBytes(toSend);
+            notifyFailure(toSend.objs, e);
+            return;
+        }
+        try {
+            executor.execute(toSend.objs, toSend.requests, refresh, responseFunction,
+                    new ActionListener<BulkResult<T>>() {
+
+                        @Override
+                        public void onResponse(BulkResult<T> result) {
+                            release(toSend);
+                            notifyResponse(result);
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            release(toSend);
+                            notifyFailure(toSend.objs, e);
+                        }
+                    });
+        } catch (Exception e) {
+            release(toSend);
+            notifyFailure(toSend.objs, e);
+        }
+    }
+
+    private void release(Batch<T> done) {
+        semaphore.release();
+        releaseBytes(done);
+    }
+
+    private void releaseBytes(Batch<T> done) {
+        lock.lock();
+        try {
+            inFlightBytes -= done.bytes;
+            budgetReleased.signalAll();
+            if (--pendingBulks == 0) {
+                bulksCompleted.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void notifyResponse(BulkResult<T> result) {
+        try {
+            listener.onResponse(result);
+        } catch (Exception e) {
+            log.error("Bulk listener failed. ", e);
+        }
+    }
+
+    private void notifyFailure(List<T> objs, Throwable e) {
+        try {
+            listener.onFailure(objs, e);
+        } catch (Exception ex) {
+            log.error("Bulk listener failed. ", ex);
+        }
+    }
+
+    /**
+     * Estimates size of the request the same way as elasticsearch bulk does
+     * @param request bulk item
+     * @return size in bytes
+     */
+    static long sizeOf(DocWriteRequest<?> request) {
+        long retval = REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest) {
+            IndexRequest index = (IndexRequest) request;
+            if (index.source() != null) {
+                retval += index.source().length();
+            }
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest update = (UpdateRequest) request;
+            if (update.doc() != null && update.doc().source() != null) {
+                retval += update.doc().source().length();
+            }
+            if (update.upsertRequest() != null && update.upsertRequest().source() != null) {
+                retval += update.upsertRequest().source().length();
+            }
+        }
+        return retval;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.escli4j.dao.bulk;
+
+import org.elasticsearch.rest.RestStatus;
+
+public class BulkItemFailure<T> {
+
+    private final T obj;
+    private final RestStatus status;
+    private final Throwable cause;
+
+    public BulkItemFailure(T obj, RestStatus status, Throwable cause) {
+        this.obj = obj;
+        this.status = status;
+        this.cause = cause;
+    }
+
+    /**
+     * @return object that was sent with the failed bulk item
+     */
+    public T getObj() {
+        return obj;
+    }
+
+    /**
+     * @return status of the failed bulk item
+     */
+    public RestStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return cause of the failure
+     */
+    public Throwable getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkItemFailure [obj=" + obj + ", status=" + status + ", cause=" + cause + "]";
+    }
+
+}
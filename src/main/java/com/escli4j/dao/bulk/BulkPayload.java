@@ -0,0 +1,83 @@
+package com.escli4j.dao.bulk;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.ReleasableBytesStreamOutput;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.PageCacheRecycler;
+
+import com.escli4j.util.EscliJsonUtils;
+
+/**
+ * Buffer the sources of the bulk items are serialized to. Heap payload serializes every object to its own byte array.
+ * Pooled payload serializes all objects of the bulk straight into one paged buffer taken from the shared page pool and
+ * returns slices of it, so there is no byte array per object. Pages are returned to the pool on {@link #close()}, the
+ * requests built with pooled sources must not be used after that.
+ */
+public class BulkPayload implements Releasable {
+
+    private static final BulkPayload HEAP = new BulkPayload(null);
+    // first allocation must be bigger than one page, so the buffer is paged and grows in place keeping slices valid
+    private static final int INITIAL_SIZE = BigArrays.BYTE_PAGE_SIZE + 1;
+
+    private final ReleasableBytesStreamOutput out;
+
+    private BulkPayload(ReleasableBytesStreamOutput out) {
+        this.out = out;
+    }
+
+    /**
+     * @return payload that serializes every object to its own byte array, closing is not required
+     */
+    public static BulkPayload heap() {
+        return HEAP;
+    }
+
+    /**
+     * @return payload that serializes objects into pooled pages, must be closed when the bulk is completed
+     */
+    public static BulkPayload pooled() {
+        return new BulkPayload(new ReleasableBytesStreamOutput(INITIAL_SIZE, PoolHolder.bigArrays));
+    }
+
+    /**
+     * Serializes object to json
+     * @param obj object to serialize
+     * @return json bytes of the object
+     */
+    public BytesReference write(Object obj) {
+        if (out == null) {
+            return new BytesArray(EscliJsonUtils.writeValueAsBytes(obj));
+        } else {
+            int from = out.size();
+            EscliJsonUtils.writeValue(out, obj);
+            return out.bytes().slice(from, out.size() - from);
+        }
+    }
+
+    /**
+     * @return number of bytes written to the pooled buffer, 0 for heap payload
+     */
+    public int size() {
+        return out == null ? 0 : out.size();
+    }
+
+    /**
+     * Returns pages to the pool
+     */
+    @Override
+    public void close() {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private static class PoolHolder {
+        // PageCacheRecycler constructor is protected, pool size is limited by cache.recycler.page settings
+        static BigArrays bigArrays = new BigArrays(new PageCacheRecycler(Settings.EMPTY) {
+        }, null, false);
+    }
+
+}
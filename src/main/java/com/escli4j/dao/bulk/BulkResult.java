@@ -0,0 +1,72 @@
+package com.escli4j.dao.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.rest.RestStatus;
+
+public class BulkResult<T> {
+
+    private final List<T> succeeded;
+    private final List<BulkItemFailure<T>> failed;
+    private final List<T> retried;
+
+    public BulkResult() {
+        this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+
+    public BulkResult(List<T> succeeded, List<BulkItemFailure<T>> failed, List<T> retried) {
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.retried = retried;
+    }
+
+    /**
+     * @return objects that was successfully written
+     */
+    public List<T> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return items that was failed after all retries
+     */
+    public List<BulkItemFailure<T>> getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return objects that was rejected at least once and sent again, they are also in succeeded or failed list
+     */
+    public List<T> getRetried() {
+        return retried;
+    }
+
+    /**
+     * @param other result to add to this one
+     */
+    public void addAll(BulkResult<T> other) {
+        succeeded.addAll(other.succeeded);
+        failed.addAll(other.failed);
+        retried.addAll(other.retried);
+    }
+
+    void addFailed(List<T> objs, Throwable e) {
+        RestStatus status = ExceptionsHelper.status(e);
+        for (T obj : objs) {
+            failed.add(new BulkItemFailure<>(obj, status, e));
+        }
+    }
+
+    public boolean hasFailures() {
+        return !failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult [succeeded=" + succeeded.size() + ", failed=" + failed.size() + ", retried="
+                + retried.size() + "]";
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.escli4j.dao.bulk;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Retry policy of the rejected bulk items. Delay grows exponentially with each attempt and gets random jitter, so
+ * concurrent writers rejected at the same moment do not retry at the same moment.
+ */
+public class RetryPolicy {
+
+    private final TimeValue initialDelay;
+    private final TimeValue maxDelay;
+    private final int maxRetries;
+
+    /**
+     * @param initialDelay delay before the first retry
+     * @param maxDelay max delay between retries
+     * @param maxRetries max number of retries, 0 disables retries
+     */
+    public RetryPolicy(TimeValue initialDelay, TimeValue maxDelay, int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Max retries must be >= 0.");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @return policy with 50ms initial delay, 5s max delay and 8 retries
+     */
+    public static RetryPolicy exponentialBackoff() {
+        return new RetryPolicy(TimeValue.timeValueMillis(50), TimeValue.timeValueSeconds(5), 8);
+    }
+
+    /**
+     * @return policy that never retries
+     */
+    public static RetryPolicy noRetry() {
+        return new RetryPolicy(TimeValue.timeValueMillis(0), TimeValue.timeValueMillis(0), 0);
+    }
+
+    /**
+     * @param attempt number of the retry starting from 0
+     * @return true if one more retry is allowed
+     */
+    public boolean canRetry(int attempt) {
+        return attempt < maxRetries;
+    }
+
+    /**
+     * Delay before retry. Half of the exponential delay is fixed and the other half is random.
+     * @param attempt number of the retry starting from 0
+     * @return delay before retry
+     */
+    public TimeValue delay(int attempt) {
+        long max = maxDelay.millis();
+        // 2^attempt, shift is limited to avoid overflow
+        long exp = initialDelay.millis() << Math.min(attempt, 30);
+        long delay = exp < 0 || exp > max ? max : exp;
+        long half = delay / 2;
+        return TimeValue.timeValueMillis(half + ThreadLocalRandom.current().nextLong(delay - half + 1));
+    }
+
+    /**
+     * @param status status of the failed item
+     * @return true if the failed item can be retried
+     */
+    public boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @param e failure of the whole request
+     * @return true if the whole request can be retried
+     */
+    public boolean isRetryable(Throwable e) {
+        return isRetryable(ExceptionsHelper.status(e));
+    }
+
+    public TimeValue getInitialDelay() {
+        return initialDelay;
+    }
+
+    public TimeValue getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy [initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + ", maxRetries=" + maxRetries
+                + "]";
+    }
+
+}
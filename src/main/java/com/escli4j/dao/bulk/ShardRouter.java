@@ -0,0 +1,227 @@
+package com.escli4j.dao.bulk;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.AliasOrIndex;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes target shard of the bulk items the same way as elasticsearch does, so bulk can be split into per shard or
+ * per node bulks. Index metadata is taken from the cluster state and cached, stale metadata is used while it is
+ * refreshed in background. Items of the index without cached metadata and items without id have no group.
+ */
+public class ShardRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRouter.class);
+
+    public enum Grouping {
+        /**
+         * One bulk per shard
+         */
+        SHARD,
+        /**
+         * One bulk per node that holds primary shards
+         */
+        NODE
+    }
+
+    private static class IndexRouting {
+
+        private final IndexMetaData metaData;
+        // node of the primary shard by shard id, null if it is not assigned
+        private final String[] primaryNodes;
+        private final long expireNanos;
+
+        private IndexRouting(IndexMetaData metaData, String[] primaryNodes, long expireNanos) {
+            this.metaData = metaData;
+            this.primaryNodes = primaryNodes;
+            this.expireNanos = expireNanos;
+        }
+    }
+
+    private final Client client;
+    private final Grouping grouping;
+    private final long ttlNanos;
+    private final Map<String, IndexRouting> cache = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param client client to get cluster state
+     * @param grouping group items by shard or by node
+     * @param ttl time cached cluster state is used without refresh
+     */
+    public ShardRouter(Client client, Grouping grouping, TimeValue ttl) {
+        this.client = client;
+        this.grouping = grouping;
+        this.ttlNanos = ttl.nanos();
+    }
+
+    public Grouping getGrouping() {
+        return grouping;
+    }
+
+    /**
+     * @param request bulk item
+     * @return group of the item, null if shard of the item is not known
+     */
+    public String group(DocWriteRequest<?> request) {
+        return request.id() == null ? null : group(request, routing(request.index()));
+    }
+
+    /**
+     * Groups of the bulk items. Routing of every index is resolved once, so all items of the index are grouped with
+     * the same metadata, even if it is refreshed in background meanwhile.
+     * @param requests bulk items
+     * @return groups of the items in the same order, null group if shard of the item is not known
+     */
+    public String[] groups(List<DocWriteRequest<?>> requests) {
+        Map<String, IndexRouting> routings = new HashMap<>();
+        String[] retval = new String[requests.size()];
+        for (int i = 0; i < retval.length; i++) {
+            DocWriteRequest<?> request = requests.get(i);
+            if (request.id() != null) {
+                IndexRouting routing;
+                if (routings.containsKey(request.index())) {
+                    routing = routings.get(request.index());
+                } else {
+                    routing = routing(request.index());
+                    routings.put(request.index(), routing);
+                }
+                retval[i] = group(request, routing);
+            }
+        }
+        return retval;
+    }
+
+    private String group(DocWriteRequest<?> request, IndexRouting routing) {
+        if (routing == null) {
+            return null;
+        }
+        String effectiveRouting = request.routing() != null ? request.routing() : request.parent();
+        if (effectiveRouting == null && routing.metaData.isRoutingPartitionedIndex()) {
+            return null;
+        }
+        int shard = shardId(routing.metaData, request.id(), effectiveRouting);
+        if (grouping == Grouping.NODE && routing.primaryNodes[shard] != null) {
+            return routing.primaryNodes[shard];
+        }
+        return routing.metaData.getIndex().getName() + "[" + shard + "]";
+    }
+
+    /**
+     * @param index index or alias with one index
+     * @param id document id
+     * @param routing document routing, null to route by id
+     * @return shard id of the document, -1 if metadata of the index is not known yet
+     */
+    public int shardId(String index, String id, String routing) {
+        IndexRouting indexRouting = routing(index);
+        return indexRouting == null ? -1 : shardId(indexRouting.metaData, id, routing);
+    }
+
+    /**
+     * Same as OperationRouting.generateShardId of elasticsearch
+     * @param metaData index metadata
+     * @param id document id
+     * @param routing document routing, null to route by id
+     * @return shard id of the document
+     */
+    static int shardId(IndexMetaData metaData, String id, String routing) {
+        String effectiveRouting = routing == null ? id : routing;
+        int partitionOffset = 0;
+        if (metaData.isRoutingPartitionedIndex()) {
+            partitionOffset = Math.floorMod(Murmur3HashFunction.hash(id), metaData.getRoutingPartitionSize());
+        }
+        int hash = Murmur3HashFunction.hash(effectiveRouting) + partitionOffset;
+        // routing num shards is used instead of number of shards, index might be shrunk
+        return Math.floorMod(hash, metaData.getRoutingNumShards()) / metaData.getRoutingFactor();
+    }
+
+    /**
+     * Drops cached metadata, for example after index was recreated
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    private IndexRouting routing(String index) {
+        IndexRouting retval = cache.get(index);
+        if (retval == null || System.nanoTime() - retval.expireNanos > 0) {
+            refresh(index);
+        }
+        return retval;
+    }
+
+    private void refresh(String index) {
+        if (!refreshing.add(index)) {
+            return;
+        }
+        try {
+            client.admin().cluster().prepareState().clear().setMetaData(true).setRoutingTable(true)
+                    .setIndices(index).execute(new ActionListener<ClusterStateResponse>() {
+
+                        @Override
+                        public void onResponse(ClusterStateResponse response) {
+                            try {
+                                IndexRouting routing = newRouting(response.getState(), index);
+                                if (routing == null) {
+                                    cache.remove(index);
+                                } else {
+                                    cache.put(index, routing);
+                                }
+                            } finally {
+                                refreshing.remove(index);
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            refreshing.remove(index);
+                            log.debug("Can't get routing of the index {}", index, e);
+                        }
+                    });
+        } catch (Exception e) {
+            refreshing.remove(index);
+            log.debug("Can't get routing of the index {}", index, e);
+        }
+    }
+
+    private IndexRouting newRouting(ClusterState state, String index) {
+        IndexMetaData metaData = state.getMetaData().index(index);
+        if (metaData == null) {
+            AliasOrIndex alias = state.getMetaData().getAliasAndIndexLookup().get(index);
+            if (alias == null || alias.getIndices().size() != 1) {
+                // writes to the alias with several indices are rejected anyway
+                return null;
+            }
+            metaData = alias.getIndices().get(0);
+        }
+        String[] primaryNodes = new String[metaData.getNumberOfShards()];
+        IndexRoutingTable table = state.getRoutingTable().index(metaData.getIndex());
+        if (table != null) {
+            for (int i = 0; i < primaryNodes.length; i++) {
+                IndexShardRoutingTable shard = table.shard(i);
+                ShardRouting primary = shard == null ? null : shard.primaryShard();
+                primaryNodes[i] = primary == null ? null : primary.currentNodeId();
+            }
+        }
+        return new IndexRouting(metaData, primaryNodes, System.nanoTime() + ttlNanos);
+    }
+
+}
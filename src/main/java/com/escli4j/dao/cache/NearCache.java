@@ -0,0 +1,356 @@
+package com.escli4j.dao.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Size or weight bounded cache of versioned values with expiration. Besides values it keeps missing keys (negative
+ * entries) and invalidation fences. Value is replaced only by the value of the same or greater version, so the result
+ * of the slow read can't overwrite the result of the racing write. Cache is split into segments, each segment is LRU
+ * ordered and evicts least recently used entries when its part of the max weight is exceeded.
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class NearCache<K, V> {
+
+    /**
+     * Version of the entry which version is not known, such entry replaces only absent entries
+     */
+    public static final long NO_VERSION = -1;
+
+    private static final int SEGMENTS = 16;
+
+    private enum State {
+        VALUE, MISSING, FENCE
+    }
+
+    /**
+     * Cached value or missing key
+     * @param <V> type of the value
+     */
+    public static final class Entry<V> {
+
+        private final V value;
+        private final long version;
+        private final State state;
+        private final long weight;
+        private final long expireNanos;
+
+        private Entry(V value, long version, State state, long weight, long expireNanos) {
+            this.value = value;
+            this.version = version;
+            this.state = state;
+            this.weight = weight;
+            this.expireNanos = expireNanos;
+        }
+
+        /**
+         * @return cached value, null if key is missing
+         */
+        public V getValue() {
+            return value;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return true if key is known to be missing
+         */
+        public boolean isMissing() {
+            return state == State.MISSING;
+        }
+    }
+
+    public static class Builder<K, V> {
+
+        private long maxWeight = 10000;
+        private ToLongFunction<V> weigher = v -> 1;
+        private TimeValue ttl = TimeValue.timeValueMinutes(1);
+        private TimeValue negativeTtl = TimeValue.timeValueSeconds(10);
+
+        /**
+         * @param maxWeight max total weight of the entries, max number of entries with default weigher
+         * @return this builder
+         */
+        public Builder<K, V> setMaxWeight(long maxWeight) {
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        /**
+         * @param weigher weight of the value, missing keys and fences weigh 1
+         * @return this builder
+         */
+        public Builder<K, V> setWeigher(ToLongFunction<V> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * @param ttl time values are kept after they are put
+         * @return this builder
+         */
+        public Builder<K, V> setTtl(TimeValue ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * @param negativeTtl time missing keys are kept, 0 to not cache missing keys
+         * @return this builder
+         */
+        public Builder<K, V> setNegativeTtl(TimeValue negativeTtl) {
+            this.negativeTtl = negativeTtl;
+            return this;
+        }
+
+        public NearCache<K, V> build() {
+            if (maxWeight < SEGMENTS) {
+                throw new IllegalArgumentException("Max weight must be >= " + SEGMENTS + ": " + maxWeight);
+            }
+            return new NearCache<>(this);
+        }
+    }
+
+    private class Segment extends LinkedHashMap<K, Entry<V>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private long weight = 0;
+
+        private Segment() {
+            super(16, 0.75f, true);
+        }
+
+        private void add(K key, Entry<V> entry) {
+            Entry<V> prev = put(key, entry);
+            if (prev != null) {
+                weight -= prev.weight;
+            }
+            weight += entry.weight;
+            Iterator<Map.Entry<K, Entry<V>>> it = entrySet().iterator();
+            while (weight > segmentWeight && it.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = it.next();
+                if (eldest.getValue() == entry) {
+                    // the only entry is heavier than the segment
+                    break;
+                }
+                weight -= eldest.getValue().weight;
+                it.remove();
+                evictions.increment();
+            }
+        }
+
+        private void delete(K key) {
+            Entry<V> prev = remove(key);
+            if (prev != null) {
+                weight -= prev.weight;
+            }
+        }
+    }
+
+    private final ToLongFunction<V> weigher;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final long segmentWeight;
+    private final List<Segment> segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder hitWeight = new LongAdder();
+    private final LongAdder putWeight = new LongAdder();
+
+    private NearCache(Builder<K, V> builder) {
+        this.weigher = builder.weigher;
+        this.ttlNanos = builder.ttl.nanos();
+        this.negativeTtlNanos = builder.negativeTtl.nanos();
+        this.segmentWeight = builder.maxWeight / SEGMENTS;
+        this.segments = new ArrayList<>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new Segment());
+        }
+    }
+
+    private Segment segment(K key) {
+        int hash = key.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+    }
+
+    /**
+     * @param key key to look up
+     * @return cached value or missing key, null if the key is not cached
+     */
+    public Entry<V> get(K key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.get(key);
+            if (entry != null && System.nanoTime() - entry.expireNanos > 0) {
+                segment.delete(key);
+                entry = null;
+            }
+            if (entry == null || entry.state == State.FENCE) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            hitWeight.add(entry.weight);
+            return entry;
+        }
+    }
+
+    /**
+     * Caches value if there is no entry of the greater version
+     * @param key key of the value
+     * @param value value
+     * @param version version of the value, {@link #NO_VERSION} if not known
+     * @return true if value was cached
+     */
+    public boolean put(K key, V value, long version) {
+        long weight = weigher.applyAsLong(value);
+        putWeight.add(weight);
+        return add(key, new Entry<>(value, version, State.VALUE, weight, System.nanoTime() + ttlNanos), false);
+    }
+
+    /**
+     * Caches missing key if there is no entry of the greater version
+     * @param key missing key
+     * @param version version of the delete, {@link #NO_VERSION} if key was not found
+     * @return true if missing key was cached
+     */
+    public boolean putMissing(K key, long version) {
+        if (negativeTtlNanos <= 0) {
+            if (version != NO_VERSION) {
+                invalidate(key, version);
+            }
+            return false;
+        }
+        return add(key, new Entry<>(null, version, State.MISSING, 1, System.nanoTime() + negativeTtlNanos), false);
+    }
+
+    /**
+     * Drops entries older than given version and keeps the version as a fence, so results of the older reads are not
+     * cached later
+     * @param key changed key
+     * @param version version of the change
+     */
+    public void invalidate(K key, long version) {
+        add(key, new Entry<>(null, version, State.FENCE, 1, System.nanoTime() + ttlNanos), true);
+    }
+
+    /**
+     * Drops entry of the key
+     * @param key key to drop
+     */
+    public void invalidate(K key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.delete(key);
+        }
+    }
+
+    /**
+     * Drops all entries
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    private boolean add(K key, Entry<V> entry, boolean fence) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry<V> prev = segment.get(key);
+            if (prev != null && System.nanoTime() - prev.expireNanos <= 0) {
+                // entry of unknown version fills only absent key, fence keeps the value of the same version
+                if (entry.version == NO_VERSION || prev.version > entry.version
+                        || (fence && prev.version == entry.version && prev.state == State.VALUE)) {
+                    return false;
+                }
+            }
+            segment.add(key, entry);
+            return true;
+        }
+    }
+
+    /**
+     * @return number of lookups that found value or missing key
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that found nothing
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted by size
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return total weight of the values served by the lookups
+     */
+    public long getHitWeight() {
+        return hitWeight.sum();
+    }
+
+    /**
+     * @return total weight of the values offered to the cache, that is the weight read past the cache
+     */
+    public long getPutWeight() {
+        return putWeight.sum();
+    }
+
+    /**
+     * @return number of entries including missing keys and fences
+     */
+    public int size() {
+        int retval = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                retval += segment.size();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return total weight of the entries
+     */
+    public long weight() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                retval += segment.weight;
+            }
+        }
+        return retval;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCache [size=" + size() + ", weight=" + weight() + ", hits=" + getHits() + ", misses="
+                + getMisses() + ", evictions=" + getEvictions() + ", hitWeight=" + getHitWeight() + ", putWeight="
+                + getPutWeight() + "]";
+    }
+
+}
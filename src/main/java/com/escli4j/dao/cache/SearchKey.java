@@ -0,0 +1,90 @@
+package com.escli4j.dao.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+/**
+ * Key of the search request built from its indices, types, routing, preference and serialized source. Key is a
+ * snapshot, changes of the request made after the key is built don't change the key.
+ */
+public final class SearchKey {
+
+    private final String[] indices;
+    private final String[] types;
+    private final String routing;
+    private final String preference;
+    private final BytesReference source;
+    private final int hash;
+
+    private SearchKey(SearchRequest request) {
+        this.indices = request.indices().clone();
+        this.types = request.types().clone();
+        this.routing = request.routing();
+        this.preference = request.preference();
+        try {
+            this.source = request.source() == null ? BytesArray.EMPTY
+                    : XContentHelper.toXContent(request.source(), XContentType.SMILE, false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.hash = Objects.hash(Arrays.hashCode(indices), Arrays.hashCode(types), routing, preference, source);
+    }
+
+    /**
+     * @param request search request
+     * @return key of the request, null for scroll request that can't be shared
+     */
+    public static SearchKey of(SearchRequest request) {
+        if (request.scroll() != null) {
+            return null;
+        }
+        return new SearchKey(request);
+    }
+
+    /**
+     * @return indices of the request
+     */
+    public String[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return types of the request
+     */
+    public String[] getTypes() {
+        return types;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        SearchKey other = (SearchKey) obj;
+        return hash == other.hash && Arrays.equals(indices, other.indices) && Arrays.equals(types, other.types)
+                && Objects.equals(routing, other.routing) && Objects.equals(preference, other.preference)
+                && source.equals(other.source);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchKey [indices=" + Arrays.toString(indices) + ", types=" + Arrays.toString(types) + ", routing="
+                + routing + ", preference=" + preference + ", source=" + source.length() + " bytes]";
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.escli4j.dao.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deduplicates concurrent identical calls. The first call of the key is executed, calls of the same key that come
+ * while it is in flight are not executed and get its result. Result is shared between the callers, so it should not
+ * be modified by them.
+ * @param <K> type of the call keys
+ * @param <V> type of the results
+ */
+public class SingleFlight<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    private class Flight implements ActionListener<V> {
+
+        private final K key;
+        // guarded by this
+        private final List<ActionListener<V>> listeners = new ArrayList<>();
+        private boolean done = false;
+
+        private Flight(K key, ActionListener<V> listener) {
+            this.key = key;
+            this.listeners.add(listener);
+        }
+
+        private synchronized boolean join(ActionListener<V> listener) {
+            if (done) {
+                return false;
+            }
+            listeners.add(listener);
+            return true;
+        }
+
+        private synchronized List<ActionListener<V>> finish() {
+            flights.remove(key, this);
+            done = true;
+            return listeners;
+        }
+
+        @Override
+        public void onResponse(V response) {
+            for (ActionListener<V> listener : finish()) {
+                try {
+                    listener.onResponse(response);
+                } catch (Exception e) {
+                    log.warn("Listener of {} failed", key, e);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            for (ActionListener<V> listener : finish()) {
+                try {
+                    listener.onFailure(e);
+                } catch (Exception ex) {
+                    log.warn("Listener of {} failed", key, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Asynchronous executes the call unless the call of the same key is in flight
+     * @param key key of the call
+     * @param call asynchronous call that passes result to the listener
+     * @param listener gets result of the executed or in flight call
+     */
+    public void execute(K key, Consumer<ActionListener<V>> call, ActionListener<V> listener) {
+        while (true) {
+            Flight flight = new Flight(key, listener);
+            Flight current = flights.putIfAbsent(key, flight);
+            if (current == null) {
+                executed.increment();
+                try {
+                    call.accept(flight);
+                } catch (Exception e) {
+                    flight.onFailure(e);
+                }
+                return;
+            } else if (current.join(listener)) {
+                shared.increment();
+                return;
+            }
+            // finished flight is being removed
+            flights.remove(key, current);
+        }
+    }
+
+    /**
+     * Executes the call on the calling thread unless the call of the same key is in flight, waits for the result of
+     * the in flight call otherwise
+     * @param key key of the call
+     * @param call call
+     * @return result of the executed or in flight call
+     */
+    public V get(K key, Supplier<V> call) {
+        PlainActionFuture<V> future = PlainActionFuture.newFuture();
+        execute(key, listener -> listener.onResponse(call.get()), future);
+        return future.actionGet();
+    }
+
+    /**
+     * Detaches call of the key that is in flight, next calls of the key are executed and don't get its result
+     * @param key key of the call
+     */
+    public void forget(K key) {
+        flights.remove(key);
+    }
+
+    /**
+     * @return number of executed calls
+     */
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    /**
+     * @return number of calls that got the result of the call in flight
+     */
+    public long getShared() {
+        return shared.sum();
+    }
+
+    /**
+     * @return number of calls in flight
+     */
+    public int size() {
+        return flights.size();
+    }
+
+}
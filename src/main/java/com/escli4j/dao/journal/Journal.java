@@ -0,0 +1,413 @@
+package com.escli4j.dao.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only log of records kept in memory-mapped segment files of the fixed size. Records are read in the order they
+ * was appended and committed when they are processed, committed position is stored in the checkpoint file. Segments
+ * before the committed position are deleted, so disk usage is limited by max number of segments. After restart
+ * records after the committed position are read again, torn record at the end of the log is detected with checksum
+ * and dropped.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Journal.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    // length and crc32 of the record data
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Record read from the journal
+     */
+    public static class Record {
+
+        private final long segment;
+        private final int endOffset;
+        private final byte[] data;
+
+        private Record(long segment, int endOffset, byte[] data) {
+            this.segment = segment;
+            this.endOffset = endOffset;
+            this.data = data;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static class Segment {
+
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // end of the valid records
+        private int writeOffset = 0;
+
+        private Segment(long id, Path path, int size) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean blockOnFull;
+    private final boolean syncOnWrite;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private long readSegment;
+    private int readOffset;
+    private long pendingRecords = 0;
+    private long pendingBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * Opens journal in the directory, creates it if there is no journal yet
+     * @param dir directory of the journal files
+     * @param segmentSize size of one segment file, max record size is limited by it
+     * @param maxSegments max number of segment files
+     * @param blockOnFull block appending when all segments are full, otherwise throw
+     * {@link RejectedExecutionException}
+     * @param syncOnWrite force every appended record to the disk, otherwise it is up to the operating system
+     */
+    public Journal(Path dir, ByteSizeValue segmentSize, int maxSegments, boolean blockOnFull, boolean syncOnWrite) {
+        if (segmentSize.getBytes() <= HEADER_SIZE || segmentSize.getBytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be > " + HEADER_SIZE + " and < 2gb.");
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("Max segments must be > 1.");
+        }
+        this.dir = dir;
+        this.segmentSize = (int) segmentSize.getBytes();
+        this.maxSegments = maxSegments;
+        this.blockOnFull = blockOnFull;
+        this.syncOnWrite = syncOnWrite;
+        try {
+            open();
+        } catch (IOException e) {
+            closeSegments();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(dir);
+        long commitSegment = 0;
+        int commitOffset = 0;
+        Path checkpoint = dir.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            commitSegment = buf.getLong();
+            commitOffset = buf.getInt();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length()
+                        - SEGMENT_SUFFIX.length()));
+                if (id < commitSegment) {
+                    Files.delete(file);
+                } else {
+                    segments.put(id, new Segment(id, file, segmentSize));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            addSegment(commitSegment);
+            commitOffset = 0;
+        } else if (segments.firstKey() != commitSegment) {
+            // committed segment was fully processed and deleted
+            commitSegment = segments.firstKey();
+            commitOffset = 0;
+        }
+        readSegment = commitSegment;
+        readOffset = commitOffset;
+        for (Segment segment : segments.values()) {
+            int offset = segment.id == commitSegment ? commitOffset : 0;
+            int length;
+            while ((length = validLength(segment, offset)) >= 0) {
+                pendingRecords++;
+                pendingBytes += HEADER_SIZE + length;
+                offset += HEADER_SIZE + length;
+            }
+            segment.writeOffset = offset;
+        }
+        // zero garbage after the last valid record, so it is not taken for a record after the next appends
+        Segment last = segments.lastEntry().getValue();
+        for (int i = last.writeOffset; i < segmentSize; i++) {
+            last.buffer.put(i, (byte) 0);
+        }
+        log.debug("Journal {} opened with {} segments and {} pending records", dir, segments.size(), pendingRecords);
+    }
+
+    /**
+     * @return length of the record data at the offset, -1 if there is no valid record
+     */
+    private int validLength(Segment segment, int offset) {
+        if (offset + HEADER_SIZE > segmentSize) {
+            return -1;
+        }
+        int length = segment.buffer.getInt(offset);
+        if (length <= 0 || length > segmentSize - HEADER_SIZE - offset) {
+            return -1;
+        }
+        ByteBuffer data = segment.buffer.duplicate();
+        data.position(offset + HEADER_SIZE);
+        data.limit(offset + HEADER_SIZE + length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue() == segment.buffer.getInt(offset + 4) ? length : -1;
+    }
+
+    private Segment addSegment(long id) throws IOException {
+        Path path = dir.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, path, segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Appends record to the journal
+     * @param data record data
+     * @throws RejectedExecutionException if journal is full and it should not block
+     */
+    public synchronized void append(byte[] data) {
+        int size = HEADER_SIZE + data.length;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("Record of " + data.length + " bytes does not fit segment of "
+                    + segmentSize + " bytes.");
+        }
+        Segment segment = segments.lastEntry().getValue();
+        while (!closed && segment.writeOffset + size > segmentSize) {
+            if (segments.size() < maxSegments) {
+                try {
+                    segment = addSegment(segment.id + 1);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            } else if (blockOnFull) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                segment = segments.lastEntry().getValue();
+            } else {
+                throw new RejectedExecutionException("Journal " + dir + " is full.");
+            }
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal " + dir + " is closed.");
+        }
+        int offset = segment.writeOffset;
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.position(offset + HEADER_SIZE);
+        buf.put(data);
+        segment.buffer.putInt(offset + 4, (int) crc.getValue());
+        // length is written last, record is not visible until it is complete
+        segment.buffer.putInt(offset, data.length);
+        if (syncOnWrite) {
+            segment.buffer.force();
+        }
+        segment.writeOffset += size;
+        pendingRecords++;
+        pendingBytes += size;
+        notifyAll();
+    }
+
+    /**
+     * Reads next records, waits for them if there are no unread records
+     * @param max max number of records to read
+     * @param timeoutMillis max time to wait for the first record
+     * @return records in the order they was appended, empty list if there are no records
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized List<Record> poll(int max, long timeoutMillis) throws InterruptedException {
+        if (!closed && !hasUnread()) {
+            wait(timeoutMillis);
+        }
+        List<Record> retval = new ArrayList<>();
+        while (!closed && retval.size() < max && hasUnread()) {
+            Segment segment = segments.get(readSegment);
+            int length = segment.buffer.getInt(readOffset);
+            byte[] data = new byte[length];
+            ByteBuffer buf = segment.buffer.duplicate();
+            buf.position(readOffset + HEADER_SIZE);
+            buf.get(data);
+            readOffset += HEADER_SIZE + length;
+            retval.add(new Record(readSegment, readOffset, data));
+        }
+        return retval;
+    }
+
+    /**
+     * Moves read position to the next segment if current one is fully read
+     * @return true if there is record to read
+     */
+    private boolean hasUnread() {
+        Segment segment = segments.get(readSegment);
+        while (readOffset >= segment.writeOffset) {
+            Map.Entry<Long, Segment> next = segments.higherEntry(readSegment);
+            if (next == null) {
+                return false;
+            }
+            segment = next.getValue();
+            readSegment = segment.id;
+            readOffset = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Marks records as processed, they will not be read after restart. Segments that contain only processed records
+     * are deleted.
+     * @param records processed records, must be the next not committed records
+     */
+    public synchronized void commit(List<Record> records) {
+        if (records.isEmpty() || closed) {
+            return;
+        }
+        Record last = records.get(records.size() - 1);
+        ByteBuffer buf = ByteBuffer.allocate(12);
+        buf.putLong(last.segment);
+        buf.putInt(last.endOffset);
+        try {
+            Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                buf.flip();
+                channel.write(buf);
+                channel.force(true);
+            }
+            Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        pendingRecords -= records.size();
+        for (Record record : records) {
+            pendingBytes -= HEADER_SIZE + record.data.length;
+        }
+        Iterator<Segment> it = segments.headMap(last.segment).values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            it.remove();
+            delete(segment);
+        }
+        notifyAll();
+    }
+
+    private static void delete(Segment segment) {
+        try {
+            segment.channel.close();
+            // mapping is released by garbage collector, file space is freed after that
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Can't delete journal segment {}", segment.path, e);
+        }
+    }
+
+    /**
+     * Forces all appended records to the disk
+     */
+    public synchronized void sync() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * @return number of appended and not committed records
+     */
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * @return size of appended and not committed records
+     */
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return number of segment files
+     */
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    /**
+     * @return size of the segment files
+     */
+    public synchronized long getDiskBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    /**
+     * @return max size of the segment files
+     */
+    public long getMaxDiskBytes() {
+        return (long) maxSegments * segmentSize;
+    }
+
+    /**
+     * Closes segment files, not committed records will be read after the journal is opened again
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            sync();
+            closeSegments();
+            notifyAll();
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                log.warn("Can't close journal segment {}", segment.path, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Journal [dir=" + dir + ", segments=" + segments.size() + ", pendingRecords=" + pendingRecords
+                + ", pendingBytes=" + pendingBytes + "]";
+    }
+
+}
@@ -0,0 +1,448 @@
+package com.escli4j.dao.journal;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.escli4j.dao.EntityDao;
+import com.escli4j.dao.bulk.BulkItemFailure;
+import com.escli4j.dao.bulk.BulkResult;
+import com.escli4j.dao.bulk.RetryPolicy;
+import com.escli4j.model.EsEntity;
+import com.escli4j.util.EscliJsonUtils;
+
+/**
+ * Write-behind queue of the document writes. Operations are appended to the {@link Journal} and acknowledged at once,
+ * background thread drains the journal with bulk requests. Bulks that failed because the cluster is not available or
+ * overloaded are retried until they succeed, so operations survive cluster outages and, with the journal on disk,
+ * restarts of the application. Operations can be sent more than once after restart, index operations overwrite
+ * documents and documents without id get generated id at the time they are queued, so replay is safe.
+ * @param <T> type of the documents
+ */
+public class WriteBehindQueue<T extends EsEntity> implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+    private static final long POLL_TIMEOUT = 1000;
+    // bulk is retried while cluster is not available, so there is no max retries
+    private static final RetryPolicy BACKOFF = new RetryPolicy(TimeValue.timeValueMillis(100),
+            TimeValue.timeValueSeconds(30), Integer.MAX_VALUE);
+    private static final int MAX_BACKOFF_ATTEMPT = 20;
+
+    public interface Listener {
+
+        /**
+         * Called after each drained bulk. Failed items are not retried, they are dropped from the journal.
+         * @param result succeeded and failed operations of the bulk
+         */
+        void onResponse(BulkResult<WriteOperation> result);
+
+        /**
+         * Called when bulk failed and will be retried
+         * @param ops operations of the failed bulk
+         * @param e cause of the failure
+         */
+        void onFailure(List<WriteOperation> ops, Throwable e);
+    }
+
+    public static class Builder<T extends EsEntity> {
+
+        private final EntityDao<T> dao;
+        private final Path dir;
+        private final Listener listener;
+        private ByteSizeValue segmentSize = new ByteSizeValue(64, ByteSizeUnit.MB);
+        private int maxSegments = 16;
+        private int batchSize = 1000;
+        private boolean blockOnFull = true;
+        private boolean syncOnWrite = false;
+        private RefreshPolicy refresh = RefreshPolicy.NONE;
+
+        public Builder(EntityDao<T> dao, Path dir, Listener listener) {
+            this.dao = dao;
+            this.dir = dir;
+            this.listener = listener;
+        }
+
+        /**
+         * @param segmentSize size of one journal file, max size of the operation is limited by it
+         * @return this builder
+         */
+        public Builder<T> setSegmentSize(ByteSizeValue segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param maxSegments max number of journal files, disk usage is limited by segment size * max segments
+         * @return this builder
+         */
+        public Builder<T> setMaxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * @param batchSize max number of operations in one bulk
+         * @return this builder
+         */
+        public Builder<T> setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param blockOnFull block producer when journal is full, otherwise throw {@link RejectedExecutionException}
+         * @return this builder
+         */
+        public Builder<T> setBlockOnFull(boolean blockOnFull) {
+            this.blockOnFull = blockOnFull;
+            return this;
+        }
+
+        /**
+         * @param syncOnWrite force every operation to the disk before it is acknowledged. Otherwise operations survive
+         * crash of the application, but may be lost on crash of the operating system.
+         * @return this builder
+         */
+        public Builder<T> setSyncOnWrite(boolean syncOnWrite) {
+            this.syncOnWrite = syncOnWrite;
+            return this;
+        }
+
+        /**
+         * @param refresh refresh index configuration of each bulk
+         * @return this builder
+         */
+        public Builder<T> setRefreshPolicy(RefreshPolicy refresh) {
+            this.refresh = refresh;
+            return this;
+        }
+
+        /**
+         * Opens journal and starts draining operations left from the previous run
+         * @return write-behind queue
+         */
+        public WriteBehindQueue<T> build() {
+            return new WriteBehindQueue<>(this);
+        }
+    }
+
+    private final EntityDao<T> dao;
+    private final Listener listener;
+    private final int batchSize;
+    private final RefreshPolicy refresh;
+    private final Journal journal;
+    private final Thread drainer;
+    private volatile boolean closed = false;
+    private final AtomicLong appended = new AtomicLong();
+    private volatile long drained = 0;
+    private volatile long failed = 0;
+    private volatile long retries = 0;
+
+    protected WriteBehindQueue(Builder<T> builder) {
+        if (builder.batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be > 0.");
+        }
+        this.dao = builder.dao;
+        this.listener = builder.listener;
+        this.batchSize = builder.batchSize;
+        this.refresh = builder.refresh;
+        this.journal = new Journal(builder.dir, builder.segmentSize, builder.maxSegments, builder.blockOnFull,
+                builder.syncOnWrite);
+        this.drainer = new Thread(this::drain, "escli4j-write-behind[" + builder.dir.getFileName() + "]");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Queues index of the document, document without id gets generated id
+     * @param obj document to index
+     * @return same object with id
+     */
+    public T index(T obj) {
+        if (obj.getId() == null) {
+            obj.setId(UUIDs.base64UUID());
+        }
+        append(new WriteOperation(WriteOperation.Type.INDEX, obj.getId(), EscliJsonUtils.writeValueAsBytes(obj),
+                false));
+        return obj;
+    }
+
+    /**
+     * Queues update of the document with document as partial doc. Queued update is acknowledged, so tracked changes
+     * of the document are taken as sent.
+     * @param obj document to update
+     * @param docAsUpsert should this doc be upserted or not
+     */
+    public void update(T obj, boolean docAsUpsert) {
+        if (obj.getId() == null) {
+            throw new IllegalArgumentException("Id of the updated document == null. ");
+        }
+        append(new WriteOperation(WriteOperation.Type.UPDATE, obj.getId(), EscliJsonUtils.writeValueAsBytes(obj),
+                docAsUpsert));
+        dao.advanceSnapshot(obj);
+    }
+
+    /**
+     * Queues delete of the document
+     * @param id document id to delete
+     */
+    public void delete(String id) {
+        append(new WriteOperation(WriteOperation.Type.DELETE, id, new byte[0], false));
+    }
+
+    private void append(WriteOperation op) {
+        if (closed) {
+            throw new IllegalStateException("Write-behind queue is closed.");
+        }
+        journal.append(op.toBytes());
+        appended.incrementAndGet();
+    }
+
+    private void drain() {
+        List<Journal.Record> records = Collections.emptyList();
+        int attempt = 0;
+        while (!closed) {
+            try {
+                // records of the failed batch are sent again, journal does not return them twice
+                if (records.isEmpty()) {
+                    records = journal.poll(batchSize, POLL_TIMEOUT);
+                    if (records.isEmpty()) {
+                        continue;
+                    }
+                }
+                List<WriteOperation> ops = read(records);
+                if (!send(ops)) {
+                    // closed while cluster was not available, operations stay in the journal
+                    return;
+                }
+                journal.commit(records);
+                drained += records.size();
+                records = Collections.emptyList();
+                attempt = 0;
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                attempt++;
+                log.warn("Draining of {} queued operations failed, attempt {}", records.size(), attempt, e);
+                if (!backoff(attempt)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads operations of the records, records that can't be read are dropped
+     */
+    private List<WriteOperation> read(List<Journal.Record> records) {
+        List<WriteOperation> retval = new ArrayList<>(records.size());
+        for (Journal.Record record : records) {
+            try {
+                retval.add(WriteOperation.read(record.getData()));
+            } catch (RuntimeException e) {
+                failed++;
+                log.error("Queued operation can't be read and is dropped", e);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Sends operations until there are no retryable failures
+     * @return false if queue was closed before all operations was sent
+     */
+    private boolean send(List<WriteOperation> ops) {
+        List<WriteOperation> pending = ops;
+        int attempt = 0;
+        while (!pending.isEmpty()) {
+            if (attempt > 0) {
+                retries++;
+                if (!backoff(attempt)) {
+                    return false;
+                }
+            }
+            if (closed) {
+                return false;
+            }
+            attempt++;
+            BulkResult<WriteOperation> result;
+            try {
+                result = execute(pending);
+            } catch (RuntimeException e) {
+                log.debug("Bulk of {} queued operations failed, attempt {}", pending.size(), attempt, e);
+                onFailure(pending, e);
+                continue;
+            }
+            List<WriteOperation> next = new ArrayList<>();
+            List<BulkItemFailure<WriteOperation>> dropped = new ArrayList<>();
+            for (BulkItemFailure<WriteOperation> failure : result.getFailed()) {
+                if (isRetryable(failure.getStatus())) {
+                    next.add(failure.getObj());
+                } else {
+                    dropped.add(failure);
+                }
+            }
+            failed += dropped.size();
+            onResponse(new BulkResult<>(result.getSucceeded(), dropped, result.getRetried()));
+            pending = next;
+        }
+        return true;
+    }
+
+    /**
+     * Sends bulk of the operations
+     * @param ops operations to send
+     * @return succeeded and failed operations
+     */
+    protected BulkResult<WriteOperation> execute(List<WriteOperation> ops) {
+        List<DocWriteRequest<?>> requests = new ArrayList<>(ops.size());
+        for (WriteOperation op : ops) {
+            requests.add(op.toRequest(dao));
+        }
+        return dao.getBulkExecutor().execute(ops, requests, refresh, (op, resp) -> op);
+    }
+
+    private void onResponse(BulkResult<WriteOperation> result) {
+        try {
+            listener.onResponse(result);
+        } catch (RuntimeException e) {
+            log.warn("Listener failed", e);
+        }
+    }
+
+    private void onFailure(List<WriteOperation> ops, Throwable e) {
+        try {
+            listener.onFailure(ops, e);
+        } catch (RuntimeException ex) {
+            log.warn("Listener failed", ex);
+        }
+    }
+
+    /**
+     * Sleeps before the next attempt
+     * @return false if interrupted
+     */
+    private static boolean backoff(int attempt) {
+        try {
+            Thread.sleep(BACKOFF.delay(Math.min(attempt, MAX_BACKOFF_ATTEMPT)).millis());
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * Waits until all queued operations are sent
+     * @param timeout max time to wait
+     * @param unit time unit of the timeout
+     * @return true if all operations was sent
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (journal.getPendingRecords() > 0) {
+            if (System.nanoTime() > deadline || closed) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return number of operations queued since the queue was opened
+     */
+    public long getAppended() {
+        return appended.get();
+    }
+
+    /**
+     * @return number of operations sent since the queue was opened, including failed operations
+     */
+    public long getDrained() {
+        return drained;
+    }
+
+    /**
+     * @return number of operations that failed with not retryable error and was dropped
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of bulk retries
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return number of queued and not yet sent operations
+     */
+    public long getPendingOperations() {
+        return journal.getPendingRecords();
+    }
+
+    /**
+     * @return size of queued and not yet sent operations
+     */
+    public long getPendingBytes() {
+        return journal.getPendingBytes();
+    }
+
+    /**
+     * @return disk space used by the journal
+     */
+    public long getDiskBytes() {
+        return journal.getDiskBytes();
+    }
+
+    /**
+     * @return max disk space the journal can use
+     */
+    public long getMaxDiskBytes() {
+        return journal.getMaxDiskBytes();
+    }
+
+    /**
+     * Stops draining and closes the journal. Not sent operations are sent after the queue is opened again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        drainer.interrupt();
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindQueue [appended=" + appended + ", drained=" + drained + ", failed=" + failed + ", retries="
+                + retries + ", journal=" + journal + "]";
+    }
+
+}
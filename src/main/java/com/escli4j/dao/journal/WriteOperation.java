@@ -0,0 +1,99 @@
+package com.escli4j.dao.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import com.escli4j.dao.Dao;
+
+/**
+ * Write operation stored in the journal
+ */
+public class WriteOperation {
+
+    public enum Type {
+        INDEX, UPDATE, DELETE
+    }
+
+    private final Type type;
+    private final String id;
+    private final byte[] source;
+    private final boolean docAsUpsert;
+
+    public WriteOperation(Type type, String id, byte[] source, boolean docAsUpsert) {
+        this.type = type;
+        this.id = id;
+        this.source = source;
+        this.docAsUpsert = docAsUpsert;
+    }
+
+    public static WriteOperation read(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            Type type = Type.values()[in.readByte()];
+            String id = in.readUTF();
+            boolean docAsUpsert = in.readBoolean();
+            byte[] source = new byte[in.readInt()];
+            in.readFully(source);
+            return new WriteOperation(type, id, source, docAsUpsert);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(source.length + id.length() + 16);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type.ordinal());
+            out.writeUTF(id);
+            out.writeBoolean(docAsUpsert);
+            out.writeInt(source.length);
+            out.write(source);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Builds bulk item of the operation. Index operation overwrites the document, so operations can be replayed.
+     * @param dao dao of the documents
+     * @return bulk item
+     */
+    public DocWriteRequest<?> toRequest(Dao dao) {
+        switch (type) {
+        case INDEX:
+            return dao.prepareIndex(id).setSource(source, XContentType.JSON).request();
+        case UPDATE:
+            return dao.prepareUpdate(id).setDoc(source, XContentType.JSON).setDocAsUpsert(docAsUpsert).request();
+        default:
+            return dao.prepareDelete(id).request();
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public byte[] getSource() {
+        return source;
+    }
+
+    public boolean isDocAsUpsert() {
+        return docAsUpsert;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteOperation [type=" + type + ", id=" + id + "]";
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.escli4j.dao.limit;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Additive increase / multiplicative decrease limit. Limit grows by one when all permits are used and requests are
+ * fast, and is cut when a request is rejected by the cluster or is slower than the timeout.
+ */
+public class AimdLimit implements LimitAlgorithm {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long timeoutNanos;
+
+    private double limit;
+
+    /**
+     * Limit that starts with 10, backs off by 0.9 and treats requests slower than 5 seconds as drops
+     * @param minLimit min limit
+     * @param maxLimit max limit
+     */
+    public AimdLimit(int minLimit, int maxLimit) {
+        this(Math.max(minLimit, Math.min(maxLimit, 10)), minLimit, maxLimit, 0.9, TimeValue.timeValueSeconds(5));
+    }
+
+    /**
+     * @param initialLimit limit before the first sample
+     * @param minLimit min limit
+     * @param maxLimit max limit
+     * @param backoffRatio limit multiplier after dropped request
+     * @param timeout latency that is treated as drop
+     */
+    public AimdLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, TimeValue timeout) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Must be 0 < minLimit <= initialLimit <= maxLimit.");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be in (0, 1).");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.timeoutNanos = timeout.nanos();
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped || rttNanos > timeoutNanos) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight >= (int) limit) {
+            // grow only when the limit was reached, otherwise it tells nothing about the capacity
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AimdLimit [limit=" + getLimit() + "]";
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.escli4j.dao.limit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Limits number of asynchronous requests in flight. Requests above the limit wait in the queue and are started when
+ * previous requests complete, if the queue is full request is failed with {@link RejectedExecutionException}. Every
+ * completed request is reported to the {@link LimitAlgorithm}, so the limit follows the cluster capacity.
+ */
+public class ConcurrencyLimiter {
+
+    private final LimitAlgorithm algorithm;
+    private final int maxQueueSize;
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private int inFlight = 0;
+    private long rejected = 0;
+
+    /**
+     * @param algorithm computes the limit
+     * @param maxQueueSize max number of requests waiting for the permit, 0 to fail requests above the limit at once
+     */
+    public ConcurrencyLimiter(LimitAlgorithm algorithm, int maxQueueSize) {
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("Max queue size must be >= 0.");
+        }
+        this.algorithm = algorithm;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * @return limiter that never delays requests
+     */
+    public static ConcurrencyLimiter unlimited() {
+        return new ConcurrencyLimiter(new FixedLimit(Integer.MAX_VALUE), 0);
+    }
+
+    /**
+     * Starts request when there is a free permit, queues it otherwise
+     * @param action starts request with given listener
+     * @param listener gets result of the request
+     */
+    public <R> void execute(Consumer<ActionListener<R>> action, ActionListener<R> listener) {
+        Runnable task = () -> run(action, listener);
+        synchronized (this) {
+            if (inFlight < algorithm.getLimit()) {
+                inFlight++;
+            } else if (queue.size() < maxQueueSize) {
+                queue.add(task);
+                return;
+            } else {
+                rejected++;
+                task = null;
+            }
+        }
+        if (task == null) {
+            listener.onFailure(new RejectedExecutionException(
+                    "Concurrency limit " + algorithm.getLimit() + " reached, queue is full."));
+        } else {
+            task.run();
+        }
+    }
+
+    private <R> void run(Consumer<ActionListener<R>> action, ActionListener<R> listener) {
+        long start = System.nanoTime();
+        int startInFlight = getInFlight();
+        AtomicBoolean released = new AtomicBoolean(false);
+        ActionListener<R> limited = new ActionListener<R>() {
+
+            @Override
+            public void onResponse(R response) {
+                if (released.compareAndSet(false, true)) {
+                    release(System.nanoTime() - start, startInFlight, false);
+                }
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (released.compareAndSet(false, true)) {
+                    release(System.nanoTime() - start, startInFlight,
+                            ExceptionsHelper.status(e) == RestStatus.TOO_MANY_REQUESTS);
+                }
+                listener.onFailure(e);
+            }
+        };
+        try {
+            action.accept(limited);
+        } catch (Exception e) {
+            limited.onFailure(e);
+        }
+    }
+
+    private void release(long rttNanos, int startInFlight, boolean dropped) {
+        List<Runnable> next = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            algorithm.onSample(rttNanos, startInFlight, dropped);
+            int limit = algorithm.getLimit();
+            while (inFlight < limit && !queue.isEmpty()) {
+                inFlight++;
+                next.add(queue.poll());
+            }
+        }
+        for (Runnable task : next) {
+            task.run();
+        }
+    }
+
+    public LimitAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return current limit
+     */
+    public int getLimit() {
+        return algorithm.getLimit();
+    }
+
+    /**
+     * @return number of requests in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return number of requests waiting for the permit
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of requests failed because the queue was full
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConcurrencyLimiter [algorithm=" + algorithm + ", inFlight=" + inFlight + ", queueSize=" + queue.size()
+                + ", rejected=" + rejected + "]";
+    }
+
+}
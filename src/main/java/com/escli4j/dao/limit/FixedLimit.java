@@ -0,0 +1,32 @@
+package com.escli4j.dao.limit;
+
+/**
+ * Limit that never changes
+ */
+public class FixedLimit implements LimitAlgorithm {
+
+    private final int limit;
+
+    public FixedLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be > 0.");
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rttNanos, int inFlight, boolean dropped) {
+        // nothing to adjust
+    }
+
+    @Override
+    public String toString() {
+        return "FixedLimit [limit=" + limit + "]";
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.escli4j.dao.limit;
+
+/**
+ * Limit that follows the ratio between the min observed latency and the current latency. While latency is near the
+ * min, limit grows by the square root of the limit, growing latency means that requests are queued in the cluster and
+ * limit is reduced proportionally. Min latency slowly drifts to the current latency, so the limit recovers after the
+ * cluster becomes slower for a long time.
+ */
+public class GradientLimit implements LimitAlgorithm {
+
+    // weight of the new limit in the smoothed limit
+    private static final double SMOOTHING = 0.2;
+    // weight of the current latency in the min latency drift
+    private static final double MIN_RTT_DRIFT = 0.001;
+    // limit is never reduced more than in two times by one sample
+    private static final double MIN_GRADIENT = 0.5;
+    // latency below this part of the min latency is noise
+    private static final double TOLERANCE = 1.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private double minRttNanos = 0;
+
+    /**
+     * @param initialLimit limit before the first sample
+     * @param minLimit min limit
+     * @param maxLimit max limit
+     */
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Must be 0 < minLimit <= initialLimit <= maxLimit.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (minRttNanos == 0 || rttNanos < minRttNanos) {
+            minRttNanos = rttNanos;
+        } else {
+            minRttNanos = MIN_RTT_DRIFT * rttNanos + (1 - MIN_RTT_DRIFT) * minRttNanos;
+        }
+        double newLimit;
+        if (dropped) {
+            newLimit = limit * MIN_GRADIENT;
+        } else {
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * minRttNanos / rttNanos));
+            // do not grow while the limit is not used
+            double queueSize = inFlight * 2 >= limit ? Math.sqrt(limit) : 0;
+            newLimit = limit * gradient + queueSize;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, (1 - SMOOTHING) * limit + SMOOTHING * newLimit));
+    }
+
+    /**
+     * @return latency the current latency is compared with
+     */
+    public synchronized long getMinRttNanos() {
+        return (long) minRttNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GradientLimit [limit=" + getLimit() + ", minRtt=" + getMinRttNanos() + "ns]";
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.escli4j.dao.limit;
+
+/**
+ * Computes concurrency limit from the latency and the result of the completed requests
+ */
+public interface LimitAlgorithm {
+
+    /**
+     * @return max number of requests in flight
+     */
+    int getLimit();
+
+    /**
+     * Records completed request
+     * @param rttNanos request latency
+     * @param inFlight number of requests in flight when the request was started
+     * @param dropped request was rejected by the cluster
+     */
+    void onSample(long rttNanos, int inFlight, boolean dropped);
+
+}
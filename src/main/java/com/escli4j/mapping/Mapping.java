@@ -3,13 +3,33 @@ package com.escli4j.mapping;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.IdsQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryAction;
+import org.elasticsearch.index.reindex.ReindexAction;
+import org.elasticsearch.index.reindex.ReindexRequestBuilder;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,9 +40,11 @@ import com.escli4j.model.EsEntity;
 public class Mapping {
 
     private static final Logger log = LoggerFactory.getLogger(Mapping.class);
+    private static final int RECONCILE_PAGE_SIZE = 1000;
     // <index name, <type name, model class>>
     protected final Map<String, Index> model = new HashMap<>();
     protected final Client client;
+    protected boolean aliasMigration = false;
 
     public Mapping(Client client) {
         this(null, client);
@@ -64,11 +86,27 @@ public class Mapping {
         this.client = client;
     }
 
+    public boolean isAliasMigration() {
+        return aliasMigration;
+    }
+
+    /**
+     * @param aliasMigration true to keep data in versioned indices behind the alias named as the model index, so
+     * migration never closes the index and incompatible changes are applied by reindex
+     */
+    public void setAliasMigration(boolean aliasMigration) {
+        this.aliasMigration = aliasMigration;
+    }
+
     public void migrate() throws IOException {
         model.forEach((k, v) -> migrateIndex(v));
     }
 
     private void migrateIndex(Index indexObject) {
+        if (aliasMigration) {
+            migrateAlias(indexObject);
+            return;
+        }
         if (!isIndexExists(indexObject.getName())) {
             log.info("{} index not exists, creating...", indexObject.getName());
             createIndex(indexObject, null);
@@ -167,4 +205,230 @@ public class Mapping {
         return execute && result;
     }
 
+    ///////////////////////////////// ALIAS MIGRATION /////////////////////////////////
+
+    private void migrateAlias(Index index) {
+        String current = currentIndex(index.getName());
+        if (current == null) {
+            log.info("{} index not exists, creating...", index.getName());
+            String version = nextVersion(index.getName(), null);
+            if (createIndex(index, version)) {
+                client.admin().indices().prepareAliases()
+                        .addAlias(index.getName() + "_" + version, index.getName()).get();
+            }
+            log.info("{} index created.", index.getName());
+        } else if (isSameAnalysis(index, current) && tryPutMappings(index, current)) {
+            log.info("{} index updated in place.", index.getName());
+        } else {
+            log.info("{} index is not compatible with the model, reindexing...", index.getName());
+            reindexIndex(index, current);
+        }
+    }
+
+    /**
+     * Copies data of the index to the new versioned index with the model mappings and settings, then atomically
+     * moves alias to it. Writes are not blocked during the first copy, the ones made meanwhile are caught up by the
+     * next pass that copies only documents with greater version. Then the index is blocked for writes, the last pass
+     * copies the rest and documents deleted during the copy are removed from the new index, so nothing is written to
+     * the index after the last pass and writes through the alias are rejected instead of lost until it is moved.
+     * Previous index is kept and made writable again, except the case when data was in the index with the alias name,
+     * such index is removed with the alias swap.
+     * @param index name of the model index, that is alias name
+     * @return name of the new index
+     */
+    public String reindexIndex(String index) {
+        Index indexObject = model.get(index);
+        String current = currentIndex(index);
+        if (current == null) {
+            throw new IllegalStateException(index + " index not exists");
+        }
+        return reindexIndex(indexObject, current);
+    }
+
+    protected String reindexIndex(Index index, String current) {
+        String alias = index.getName();
+        String version = nextVersion(alias, current);
+        while (isIndexExists(alias + "_" + version)) {
+            version = nextVersion(alias, alias + "_" + version);
+        }
+        String target = alias + "_" + version;
+        if (!createIndex(index, version)) {
+            throw new IllegalStateException(target + " index was not created");
+        }
+        boolean blocked = false;
+        try {
+            int slices = Integer.parseInt(client.admin().indices().prepareGetSettings(current).get()
+                    .getSetting(current, "index.number_of_shards"));
+            copy(current, target, slices);
+            // writes made during the first pass
+            copy(current, target, slices);
+            log.warn("{} index is blocked for writes until {} alias is moved", current, alias);
+            setWriteBlock(current, true);
+            blocked = true;
+            // writes made before the block, nothing is written to the index after it
+            copy(current, target, slices);
+            removeDeleted(current, target);
+            IndicesAliasesRequestBuilder aliases = client.admin().indices().prepareAliases();
+            if (current.equals(alias)) {
+                aliases.removeIndex(current);
+            } else {
+                aliases.removeAlias(current, alias);
+            }
+            if (!aliases.addAlias(target, alias).get().isAcknowledged()) {
+                throw new IllegalStateException(alias + " alias was not moved to " + target);
+            }
+        } catch (RuntimeException e) {
+            if (!target.equals(currentIndex(alias))) {
+                // alias was not moved, new index is dropped so the next attempt starts from scratch
+                client.admin().indices().prepareDelete(target).get();
+                if (blocked) {
+                    setWriteBlock(current, false);
+                }
+            }
+            throw e;
+        }
+        log.info("{} alias moved from {} to {}.", alias, current, target);
+        if (!current.equals(alias)) {
+            setWriteBlock(current, false);
+        }
+        return target;
+    }
+
+    /**
+     * Removes documents of the target index that are missing in the source index, that is deleted during the copy
+     * @param source index blocked for writes
+     * @param target index the source was copied to
+     */
+    private void removeDeleted(String source, String target) {
+        client.admin().indices().prepareRefresh(source, target).get();
+        TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+        // ids of the target are scanned page by page and looked up in the source
+        SearchResponse page = client.prepareSearch(target).setScroll(keepAlive).setSize(RECONCILE_PAGE_SIZE)
+                .setFetchSource(false).addSort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC).get();
+        long deleted = 0;
+        try {
+            while (page.getHits().getHits().length > 0) {
+                deleted += removeDeleted(source, target, page.getHits().getHits());
+                page = client.prepareSearchScroll(page.getScrollId()).setScroll(keepAlive).get();
+            }
+        } finally {
+            client.prepareClearScroll().addScrollId(page.getScrollId()).get();
+        }
+        log.info("{} documents deleted during the copy are removed from {}.", deleted, target);
+    }
+
+    private long removeDeleted(String source, String target, SearchHit[] hits) {
+        IdsQueryBuilder ids = QueryBuilders.idsQuery();
+        for (SearchHit hit : hits) {
+            ids.addIds(hit.getId());
+        }
+        Set<String> present = new HashSet<>();
+        for (SearchHit hit : client.prepareSearch(source).setQuery(ids).setSize(hits.length).setFetchSource(false)
+                .get().getHits().getHits()) {
+            present.add(hit.getType() + "#" + hit.getId());
+        }
+        // <type name, ids of the documents missing in the source>
+        Map<String, IdsQueryBuilder> missing = new HashMap<>();
+        for (SearchHit hit : hits) {
+            if (!present.contains(hit.getType() + "#" + hit.getId())) {
+                missing.computeIfAbsent(hit.getType(), QueryBuilders::idsQuery).addIds(hit.getId());
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        missing.values().forEach(query::should);
+        // child documents are routed by the parent, so they are deleted by query
+        BulkByScrollResponse response = DeleteByQueryAction.INSTANCE.newRequestBuilder(client).source(target)
+                .filter(query).refresh(true).get();
+        if (response.isTimedOut() || !response.getBulkFailures().isEmpty()
+                || !response.getSearchFailures().isEmpty()) {
+            throw new IllegalStateException("Delete from " + target + " failed: " + response);
+        }
+        return response.getDeleted();
+    }
+
+    private void setWriteBlock(String index, boolean block) {
+        if (!client.admin().indices().prepareUpdateSettings(index)
+                .setSettings(Settings.builder().put("index.blocks.write", block)).get().isAcknowledged()) {
+            throw new IllegalStateException("Write block of " + index + " was not " + (block ? "set" : "removed"));
+        }
+    }
+
+    private void copy(String source, String target, int slices) {
+        ReindexRequestBuilder builder = ReindexAction.INSTANCE.newRequestBuilder(client).source(source)
+                .destination(target).abortOnVersionConflict(false).setSlices(slices);
+        // source versions are kept, document already copied with the same or greater version is skipped
+        builder.destination().setVersionType(VersionType.EXTERNAL);
+        BulkByScrollResponse response = builder.get();
+        if (response.isTimedOut() || !response.getBulkFailures().isEmpty()
+                || !response.getSearchFailures().isEmpty()) {
+            throw new IllegalStateException("Copy from " + source + " to " + target + " failed: " + response);
+        }
+        log.info("{} copied to {}: {} created, {} updated, {} skipped.", source, target, response.getCreated(),
+                response.getUpdated(), response.getVersionConflicts());
+    }
+
+    /**
+     * @param alias name of the model index
+     * @return index the alias points to, the index with alias name or null if there is no such index
+     */
+    protected String currentIndex(String alias) {
+        ImmutableOpenMap<String, ?> indices = client.admin().indices().prepareGetAliases(alias).get().getAliases();
+        if (indices.size() > 1) {
+            throw new IllegalStateException(alias + " alias points to several indices " + indices.keys());
+        } else if (indices.size() == 1) {
+            return indices.keysIt().next();
+        }
+        return isIndexExists(alias) ? alias : null;
+    }
+
+    private boolean isSameAnalysis(Index index, String current) {
+        String settings = MappingUtils.getSettingsBuilder(index.getAnnotations());
+        Settings expected = settings == null ? Settings.EMPTY
+                : Settings.builder().loadFromSource(settings, XContentType.JSON).build().getByPrefix("analysis.");
+        GetSettingsResponse response = client.admin().indices().prepareGetSettings(current).get();
+        return expected.equals(response.getIndexToSettings().get(current).getByPrefix("index.analysis."));
+    }
+
+    private boolean tryPutMappings(Index index, String current) {
+        for (Map.Entry<String, Class<? extends EsEntity>> entry : index.getTypes().entrySet()) {
+            Type typeAmmotation = entry.getValue().getAnnotation(Type.class);
+            if (typeAmmotation.update()) {
+                try {
+                    client.admin().indices().preparePutMapping(current).setType(entry.getKey())
+                            .setSource(MappingUtils.getMappingBuilder(entry.getKey(), typeAmmotation.parent(),
+                                    entry.getValue()))
+                            .get();
+                } catch (RuntimeException e) {
+                    if (ExceptionsHelper.status(e) != RestStatus.BAD_REQUEST) {
+                        throw e;
+                    }
+                    log.info("{} mapping of {} can't be updated in place: {}", entry.getKey(), current,
+                            e.getMessage());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param alias name of the model index
+     * @param current current index, null if there is no one
+     * @return version suffix of the next index, v1 for the first one
+     */
+    static String nextVersion(String alias, String current) {
+        String prefix = alias + "_v";
+        if (current != null && current.startsWith(prefix)) {
+            try {
+                return "v" + (Integer.parseInt(current.substring(prefix.length())) + 1);
+            } catch (NumberFormatException e) {
+                // not a versioned index
+            }
+        }
+        return "v1";
+    }
+
 }
@@ -2,6 +2,7 @@ package com.escli4j.mapping;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -35,4 +36,18 @@ public class MappingReflectUtils {
         return retval;
     }
 
+    public static List<Field> getAllFields(Class<?> type) {
+        List<Field> retval = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                retval.add(field);
+            }
+        }
+        if (type.getSuperclass() != null) {
+            retval.addAll(getAllFields(type.getSuperclass()));
+        }
+        return retval;
+    }
+
 }
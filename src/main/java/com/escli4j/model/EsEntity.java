@@ -1,11 +1,15 @@
 package com.escli4j.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
 
 public class EsEntity {
 
     @JsonIgnore
     protected String id;
+    // source of the document as it was loaded, used to send only changed fields on update
+    @JsonIgnore
+    protected JsonNode snapshot;
 
     public String getId() {
         return id;
@@ -15,6 +19,14 @@ public class EsEntity {
         this.id = id;
     }
 
+    public JsonNode getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(JsonNode snapshot) {
+        this.snapshot = snapshot;
+    }
+
     @Override
     public String toString() {
         return "EsEntity [id=" + id + "]";
@@ -0,0 +1,111 @@
+package com.escli4j.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+
+/**
+ * Thread safe Bloom filter of strings. Filter never answers that added string is absent, string that was not added is
+ * reported as present with the false positive probability the filter is sized for. Strings can't be removed.
+ */
+public class BloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+
+    /**
+     * @param expectedInsertions number of strings the filter is sized for
+     * @param fpp false positive probability when the filter has expected number of strings
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions < 1) {
+            throw new IllegalArgumentException("Expected insertions must be positive: " + expectedInsertions);
+        }
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("False positive probability must be in (0, 1): " + fpp);
+        }
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (LN2 * LN2));
+        long size = Math.max(1, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Filter of " + optimalBits + " bits is too large");
+        }
+        this.words = new AtomicLongArray((int) size);
+        this.bits = size * Long.SIZE;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * LN2));
+    }
+
+    /**
+     * @param value string to add
+     */
+    public void put(String value) {
+        MurmurHash3.Hash128 hash = hash(value);
+        long combined = hash.h1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (combined & Long.MAX_VALUE) % bits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long prev;
+            do {
+                prev = words.get(word);
+            } while ((prev & mask) == 0 && !words.compareAndSet(word, prev, prev | mask));
+            combined += hash.h2;
+        }
+    }
+
+    /**
+     * @param value string to check
+     * @return false if the string was never added, true if it was probably added
+     */
+    public boolean mightContain(String value) {
+        MurmurHash3.Hash128 hash = hash(value);
+        long combined = hash.h1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (combined & Long.MAX_VALUE) % bits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            combined += hash.h2;
+        }
+        return true;
+    }
+
+    /**
+     * @return current false positive probability estimated by the number of set bits
+     */
+    public double expectedFpp() {
+        long set = 0;
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return Math.pow((double) set / bits, hashes);
+    }
+
+    /**
+     * @return number of bits of the filter
+     */
+    public long getBits() {
+        return bits;
+    }
+
+    /**
+     * @return number of hash functions of the filter
+     */
+    public int getHashes() {
+        return hashes;
+    }
+
+    private static MurmurHash3.Hash128 hash(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash3.hash128(bytes, 0, bytes.length, 0, new MurmurHash3.Hash128());
+    }
+
+    @Override
+    public String toString() {
+        return "BloomFilter [bits=" + bits + ", hashes=" + hashes + ", expectedFpp=" + expectedFpp() + "]";
+    }
+
+}
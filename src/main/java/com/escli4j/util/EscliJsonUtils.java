@@ -1,19 +1,43 @@
 package com.escli4j.util;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class EscliJsonUtils {
 
+    // numbers are compared by value, the same long is read back as int and the same float as double
+    private static final Comparator<JsonNode> VALUE_COMPARATOR = (a, b) -> {
+        if (a.isNumber() && b.isNumber()) {
+            return compareNumbers(a, b);
+        }
+        return a.equals(b) ? 0 : 1;
+    };
+
     private final ObjectMapper json;
+    // does not close target stream, so many values can be written to the same stream
+    private final ObjectWriter streamWriter;
 
     public EscliJsonUtils() {
         json = new ObjectMapper();
         json.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        streamWriter = json.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     public static ObjectMapper json() {
@@ -68,6 +92,141 @@ public class EscliJsonUtils {
         }
     }
 
+    public static void writeValue(OutputStream out, Object value) {
+        try {
+            getInstance().streamWriter.writeValue(out, value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static JsonNode readTree(byte[] src) {
+        try {
+            return getInstance().json.readTree(src);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static <T> T treeToValue(JsonNode src, Class<T> valueType) {
+        try {
+            return getInstance().json.treeToValue(src, valueType);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static JsonNode valueToTree(Object value) {
+        return getInstance().json.valueToTree(value);
+    }
+
+    /**
+     * Builds partial document with fields that differ. Objects are compared field by field, any other changed value
+     * (including arrays) is taken from the new document as is. Fields that are missing in the new document are set to
+     * null.
+     * @param before old document
+     * @param after new document
+     * @return changed fields, empty object if documents are equal
+     */
+    public static ObjectNode diff(JsonNode before, JsonNode after) {
+        return diff(before, after, (JavaType) null);
+    }
+
+    /**
+     * Builds partial document with fields that differ, the same as {@link #diff(JsonNode, JsonNode)}, but fields that
+     * are missing in the new document are set to null only if they are serialized properties of the type. Fields the
+     * type does not model (unknown, ignored) are kept as is in the index.
+     * @param before old document
+     * @param after new document
+     * @param type class the new document was serialized from
+     * @return changed fields, empty object if documents are equal
+     */
+    public static ObjectNode diff(JsonNode before, JsonNode after, Class<?> type) {
+        return diff(before, after, json().constructType(type));
+    }
+
+    private static ObjectNode diff(JsonNode before, JsonNode after, JavaType type) {
+        Map<String, JavaType> properties = properties(type);
+        ObjectNode retval = JsonNodeFactory.instance.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = after.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            JsonNode old = before.get(field.getKey());
+            if (old == null || !old.equals(VALUE_COMPARATOR, value)) {
+                if (old != null && old.isObject() && value.isObject()) {
+                    retval.set(field.getKey(),
+                            diff(old, value, properties == null ? null : properties.get(field.getKey())));
+                } else {
+                    retval.set(field.getKey(), value);
+                }
+            }
+        }
+        Iterator<String> names = before.fieldNames();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (!after.has(name) && (properties == null || properties.containsKey(name))) {
+                retval.putNull(name);
+            }
+        }
+        return retval;
+    }
+
+    private static int compareNumbers(JsonNode a, JsonNode b) {
+        if (a.isFloat() || b.isFloat()) {
+            // float is written with float precision
+            return Float.compare(a.floatValue(), b.floatValue());
+        } else if (a.isIntegralNumber() && b.isIntegralNumber()) {
+            return a.bigIntegerValue().compareTo(b.bigIntegerValue());
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    /**
+     * @param type type of the object node, null if unknown
+     * @return serialized properties by name, null if any field can be serialized (unknown type, map, tree, bean with
+     *         any getter)
+     */
+    private static Map<String, JavaType> properties(JavaType type) {
+        if (type == null || type.isContainerType() || type.isJavaLangObject()
+                || JsonNode.class.isAssignableFrom(type.getRawClass())) {
+            return null;
+        }
+        BeanDescription description = json().getSerializationConfig().introspect(type);
+        if (description.findAnyGetter() != null) {
+            return null;
+        }
+        Map<String, JavaType> retval = new HashMap<>();
+        for (BeanPropertyDefinition property : description.findProperties()) {
+            if (property.couldSerialize()) {
+                retval.put(property.getName(), property.getAccessor().getType());
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Merges partial document into the target the same way as partial update does. Objects are merged field by field,
+     * any other value (including arrays) replaces the target value.
+     * @param target document to merge into, it is changed
+     * @param update partial document
+     * @return target
+     */
+    public static ObjectNode merge(ObjectNode target, JsonNode update) {
+        Iterator<Map.Entry<String, JsonNode>> fields = update.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            JsonNode old = target.get(field.getKey());
+            if (old != null && old.isObject() && value.isObject()) {
+                merge((ObjectNode) old, value);
+            } else {
+                target.set(field.getKey(), value.deepCopy());
+            }
+        }
+        return target;
+    }
+
     private static EscliJsonUtils getInstance() {
         return InstanceHolder.json;
     }
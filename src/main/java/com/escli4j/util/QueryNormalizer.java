@@ -0,0 +1,117 @@
+package com.escli4j.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Rewrites queries to the canonical form, so the same query built in different ways is sent as the same bytes and
+ * can be served by the shard request cache. Fields of the objects are sorted by name and <code>now</code> of the range
+ * bounds is replaced with the given time in epoch millis, queries with <code>now</code> are never cached by the
+ * cluster. Lower and upper bounds get their own time, so the rounded range can be widened instead of narrowed. Ranges
+ * with the explicit format are kept as is, the format may not parse epoch millis.
+ */
+public class QueryNormalizer {
+
+    private static final List<String> LOWER_BOUNDS = Arrays.asList("from", "gt", "gte");
+    private static final List<String> UPPER_BOUNDS = Arrays.asList("to", "lt", "lte");
+    private static final String NOW = "now";
+
+    private QueryNormalizer() {
+    }
+
+    /**
+     * @param query query to normalize
+     * @param now time in epoch millis to replace <code>now</code> of the range bounds with, negative to keep
+     *            <code>now</code>
+     * @return wrapper query with the canonical json of the query
+     */
+    public static QueryBuilder normalize(QueryBuilder query, long now) {
+        return normalize(query, now, now);
+    }
+
+    /**
+     * @param query query to normalize
+     * @param lower time in epoch millis to replace <code>now</code> of the lower range bounds with, negative to keep
+     *            <code>now</code>
+     * @param upper time in epoch millis to replace <code>now</code> of the upper range bounds with
+     * @return wrapper query with the canonical json of the query
+     */
+    public static QueryBuilder normalize(QueryBuilder query, long lower, long upper) {
+        try {
+            JsonNode tree = EscliJsonUtils
+                    .readTree(BytesReference.toBytes(XContentHelper.toXContent(query, XContentType.JSON, false)));
+            return QueryBuilders.wrapperQuery(normalize(tree, lower, upper, false).toString());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param node json node to normalize
+     * @param lower time in epoch millis to replace <code>now</code> of the lower range bounds with, negative to keep
+     *            <code>now</code>
+     * @param upper time in epoch millis to replace <code>now</code> of the upper range bounds with
+     * @param range true if the node is the body of the range query
+     * @return copy of the node with sorted fields and resolved <code>now</code>
+     */
+    static JsonNode normalize(JsonNode node, long lower, long upper, boolean range) {
+        if (node.isObject()) {
+            List<String> names = new ArrayList<>();
+            for (Iterator<String> it = node.fieldNames(); it.hasNext();) {
+                names.add(it.next());
+            }
+            Collections.sort(names);
+            ObjectNode retval = JsonNodeFactory.instance.objectNode();
+            for (String name : names) {
+                JsonNode value = node.get(name);
+                if (range && value.isObject() && !value.has("format") && lower >= 0) {
+                    ObjectNode bounds = (ObjectNode) normalize(value, lower, upper, false);
+                    resolveNow(bounds, LOWER_BOUNDS, lower);
+                    resolveNow(bounds, UPPER_BOUNDS, upper);
+                    retval.set(name, bounds);
+                } else {
+                    retval.set(name, normalize(value, lower, upper, "range".equals(name)));
+                }
+            }
+            return retval;
+        } else if (node.isArray()) {
+            ArrayNode retval = JsonNodeFactory.instance.arrayNode();
+            for (JsonNode item : node) {
+                retval.add(normalize(item, lower, upper, false));
+            }
+            return retval;
+        } else {
+            return node;
+        }
+    }
+
+    private static void resolveNow(ObjectNode bounds, List<String> names, long now) {
+        for (String bound : names) {
+            JsonNode node = bounds.get(bound);
+            if (node != null && node.isTextual() && node.textValue().startsWith(NOW)) {
+                String math = node.textValue().substring(NOW.length());
+                if (math.isEmpty()) {
+                    bounds.put(bound, String.valueOf(now));
+                } else if (math.charAt(0) == '+' || math.charAt(0) == '-' || math.charAt(0) == '/') {
+                    bounds.put(bound, now + "||" + math);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.escli4j.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocWriteResponse.Result;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.search.MultiSearchAction;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.mapping.model.TestMappingModel3;
+
+public class ChildEntityDaoTest {
+
+    private final ShardId shardId = new ShardId("test1", "_na_", 0);
+
+    @Test
+    public void searchCacheTest() {
+        List<ActionRequest> writes = new ArrayList<>();
+        NodeClient client = new NodeClient(Settings.EMPTY, null) {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <Request extends ActionRequest, Response extends ActionResponse,
+                    RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                    Action<Request, Response, RequestBuilder> action, Request request,
+                    ActionListener<Response> listener) {
+                writes.add(request);
+                if (request instanceof DeleteRequest) {
+                    DeleteRequest delete = (DeleteRequest) request;
+                    listener.onResponse((Response) new DeleteResponse(shardId, delete.type(), delete.id(), 2, true));
+                } else {
+                    UpdateRequest update = (UpdateRequest) request;
+                    listener.onResponse((Response) new UpdateResponse(shardId, update.type(), update.id(), 2,
+                            Result.UPDATED));
+                }
+            }
+        };
+        ChildEntityDao<TestMappingModel3> dao = new ChildEntityDao<>(TestMappingModel3.class, client);
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        List<ActionListener<MultiSearchResponse>> listeners = new ArrayList<>();
+        try {
+            dao.searchBatcher = new SearchBatcher(threadPool, TimeValue.MINUS_ONE, 1, 1,
+                    () -> new MultiSearchRequestBuilder(client, MultiSearchAction.INSTANCE),
+                    (request, listener) -> listeners.add(listener));
+            dao.setSearchCache(Dao.searchCacheBuilder().build());
+            MultiSearchResponse multi = new MultiSearchResponse(new MultiSearchResponse.Item[] {
+                    new MultiSearchResponse.Item(new SearchResponse(InternalSearchResponse.empty(), null, 1, 1, 0, 1,
+                            ShardSearchFailure.EMPTY_ARRAY), null) });
+            search(dao);
+            listeners.get(0).onResponse(multi);
+            Assert.assertEquals(1, dao.getSearchCache().size());
+            // sync write of the child drops cached responses
+            TestMappingModel3 obj = new TestMappingModel3();
+            obj.setId("1");
+            obj.setParent("p1");
+            dao.updateStatus(obj, RefreshPolicy.NONE, false);
+            Assert.assertEquals(0, dao.getSearchCache().size());
+            search(dao);
+            listeners.get(1).onResponse(multi);
+            Assert.assertEquals(1, dao.getSearchCache().size());
+            Assert.assertEquals(Result.DELETED, dao.delete("1", "p1", RefreshPolicy.NONE));
+            Assert.assertEquals(0, dao.getSearchCache().size());
+            Assert.assertEquals(2, writes.size());
+            Assert.assertEquals("p1", ((DeleteRequest) writes.get(1)).parent());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void search(Dao dao) {
+        PlainActionFuture<SearchResponse> retval = PlainActionFuture.newFuture();
+        dao.executeSearch(dao.prepareSearch().setQuery(QueryBuilders.termQuery("field", "a")), retval);
+    }
+
+}
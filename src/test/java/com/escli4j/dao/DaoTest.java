@@ -0,0 +1,210 @@
+package com.escli4j.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.MultiSearchAction;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.model.TestModel1;
+
+public class DaoTest {
+
+    private static SearchHit[] hits(int size) {
+        SearchHit[] retval = new SearchHit[size];
+        for (int i = 0; i < size; i++) {
+            retval[i] = new SearchHit(i, String.valueOf(i), null, null);
+        }
+        return retval;
+    }
+
+    @Test
+    public void readHitsTest() {
+        Dao dao = new Dao(TestModel1.class, new NodeClient(Settings.EMPTY, null));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            dao.setHitsPool(pool);
+            dao.setParallelHitsThreshold(100);
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            // below threshold hits are read on the calling thread
+            List<String> ids = dao.readHits(hits(99), hit -> {
+                threads.add(Thread.currentThread());
+                return hit.getId();
+            });
+            Assert.assertEquals(99, ids.size());
+            Assert.assertEquals(1, threads.size());
+            Assert.assertTrue(threads.contains(Thread.currentThread()));
+            // order of the hits is kept
+            threads.clear();
+            ids = dao.readHits(hits(10000), hit -> {
+                threads.add(Thread.currentThread());
+                return hit.getId();
+            });
+            Assert.assertEquals(10000, ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                Assert.assertEquals(String.valueOf(i), ids.get(i));
+            }
+            Assert.assertFalse(threads.contains(Thread.currentThread()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void chunksTest() {
+        Dao dao = new Dao(TestModel1.class, new NodeClient(Settings.EMPTY, null));
+        Assert.assertArrayEquals(new int[] { 0 }, dao.chunks());
+        dao.setChunkSize(2);
+        Assert.assertArrayEquals(new int[] { 0, 2, 4, 5 }, dao.chunks("1", "2", "3", "4", "5"));
+        // every id is sent with index and type
+        int overhead = dao.index.length() + dao.type.length();
+        dao.setChunkSize(100);
+        dao.setChunkBytes(2 * (overhead + 1));
+        Assert.assertArrayEquals(new int[] { 0, 2, 3, 4 }, dao.chunks("1", "2", "33", "4"));
+        // id larger than chunk bytes gets its own chunk
+        dao.setChunkBytes(1);
+        Assert.assertArrayEquals(new int[] { 0, 1, 2 }, dao.chunks("1", "2"));
+    }
+
+    @Test
+    public void executeChunksTest() {
+        Dao dao = new Dao(TestModel1.class, new NodeClient(Settings.EMPTY, null));
+        dao.setChunkParallelism(2);
+        List<Integer> started = new ArrayList<>();
+        List<ActionListener<String>> listeners = new ArrayList<>();
+        PlainActionFuture<List<String>> future = PlainActionFuture.newFuture();
+        dao.executeChunks(4, (chunk, listener) -> {
+            started.add(chunk);
+            listeners.add(listener);
+        }, future);
+        Assert.assertEquals(2, started.size());
+        // next chunk is started on completion, results are in the order of the chunks
+        listeners.get(1).onResponse("b");
+        Assert.assertEquals(3, started.size());
+        listeners.get(0).onResponse("a");
+        listeners.get(2).onResponse("c");
+        Assert.assertFalse(future.isDone());
+        listeners.get(3).onResponse("d");
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), future.actionGet());
+
+        started.clear();
+        listeners.clear();
+        PlainActionFuture<List<String>> failed = PlainActionFuture.newFuture();
+        dao.executeChunks(4, (chunk, listener) -> {
+            started.add(chunk);
+            listeners.add(listener);
+        }, failed);
+        listeners.get(0).onFailure(new IllegalStateException("test"));
+        listeners.get(1).onFailure(new IllegalStateException("other"));
+        try {
+            failed.actionGet();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("test", e.getMessage());
+        }
+        Assert.assertEquals(2, started.size());
+    }
+
+    private static PlainActionFuture<SearchResponse> search(Dao dao, String value) {
+        PlainActionFuture<SearchResponse> retval = PlainActionFuture.newFuture();
+        dao.executeSearch(dao.prepareSearch().setQuery(QueryBuilders.termQuery("field", value)), retval);
+        return retval;
+    }
+
+    @Test
+    public void searchCacheTest() {
+        NodeClient client = new NodeClient(Settings.EMPTY, null);
+        Dao dao = new Dao(TestModel1.class, client);
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        List<ActionListener<MultiSearchResponse>> listeners = new ArrayList<>();
+        try {
+            dao.searchBatcher = new SearchBatcher(threadPool, TimeValue.MINUS_ONE, 1, 1,
+                    () -> new MultiSearchRequestBuilder(client, MultiSearchAction.INSTANCE),
+                    (request, listener) -> listeners.add(listener));
+            dao.setSearchCache(Dao.searchCacheBuilder().build());
+            SearchResponse response = new SearchResponse(InternalSearchResponse.empty(), null, 1, 1, 0, 1,
+                    ShardSearchFailure.EMPTY_ARRAY);
+            MultiSearchResponse multi = new MultiSearchResponse(
+                    new MultiSearchResponse.Item[] { new MultiSearchResponse.Item(response, null) });
+            PlainActionFuture<SearchResponse> first = search(dao, "a");
+            listeners.get(0).onResponse(multi);
+            Assert.assertSame(response, first.actionGet());
+            // identical search is served from the cache
+            Assert.assertSame(response, search(dao, "a").actionGet());
+            Assert.assertEquals(1, listeners.size());
+            Assert.assertEquals(1, dao.getSearchCache().getHits());
+            Assert.assertTrue(dao.getSearchCache().getHitWeight() > 0);
+            Assert.assertEquals(dao.getSearchCache().getHitWeight(), dao.getSearchCache().getPutWeight());
+            search(dao, "b");
+            Assert.assertEquals(2, listeners.size());
+            // write drops cached responses, response of the search started before it is not cached
+            PlainActionFuture<SearchResponse> racing = search(dao, "c");
+            dao.onWritten(new IndexResponse(new ShardId("test", "_na_", 0), "TestModel1", "1", 1, true));
+            listeners.get(2).onResponse(multi);
+            Assert.assertSame(response, racing.actionGet());
+            Assert.assertEquals(0, dao.getSearchCache().size());
+            search(dao, "a");
+            search(dao, "c");
+            Assert.assertEquals(5, listeners.size());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void slicesTest() {
+        List<Integer> opened = Collections.synchronizedList(new ArrayList<>());
+        Set<String> cleared = ConcurrentHashMap.newKeySet();
+        IntFunction<ScrollIterator<String>> sliceFunction = i -> {
+            opened.add(i);
+            return new ScrollIterator<>(1, SearchHit::getId, (scrollId, listener) -> {
+                // one page of two hits per slice
+                SearchHit[] hits = { new SearchHit(0, i + "a", null, null), new SearchHit(1, i + "b", null, null) };
+                listener.onResponse(new SearchResponse(new InternalSearchResponse(new SearchHits(hits, 2, 1), null,
+                        null, null, false, null, 1), "scroll" + i, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY));
+            }, cleared::add);
+        };
+        try (Stream<String> stream = Dao.slices(8, sliceFunction)) {
+            // scrolls are not opened before the slices are started
+            Assert.assertTrue(opened.isEmpty());
+            Assert.assertEquals(16, stream.collect(Collectors.toSet()).size());
+            Assert.assertEquals(8, opened.size());
+            Assert.assertEquals(8, cleared.size());
+        }
+        opened.clear();
+        try (Stream<String> stream = Dao.slices(8, sliceFunction)) {
+            Iterator<String> it = stream.iterator();
+            it.next();
+            // only the started slice is opened
+            Assert.assertEquals(Collections.singletonList(0), opened);
+        }
+    }
+
+}
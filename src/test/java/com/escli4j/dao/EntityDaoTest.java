@@ -0,0 +1,193 @@
+package com.escli4j.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocWriteResponse.Result;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.WrapperQueryBuilder;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.max.InternalMax;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.model.TestModel1;
+import com.escli4j.util.BloomFilter;
+
+public class EntityDaoTest {
+
+    private final EntityDao<TestModel1> dao = new EntityDao<>(TestModel1.class, new NodeClient(Settings.EMPTY, null));
+    private final ShardId shardId = new ShardId("test", "_na_", 0);
+
+    @Test
+    public void prepareExistsTest() {
+        GetRequest request = dao.prepareExists("1").request();
+        Assert.assertFalse(request.fetchSourceContext().fetchSource());
+        Assert.assertEquals(0, request.storedFields().length);
+        dao.prepareMultiExists("1", "2").request().getItems().forEach(item -> {
+            Assert.assertFalse(item.fetchSourceContext().fetchSource());
+            Assert.assertEquals(0, item.storedFields().length);
+        });
+    }
+
+    @Test
+    public void existenceFilterTest() {
+        dao.setExistenceFilter(new BloomFilter(100, 0.01));
+        // absent ids are answered without request
+        Assert.assertFalse(dao.isExist("1"));
+        Assert.assertEquals(Collections.emptySet(), dao.isExist("1", "2"));
+        // written ids are added to the filter
+        dao.onWritten(new IndexResponse(shardId, "TestModel1", "1", 1, true));
+        dao.onWritten(new DeleteResponse(shardId, "TestModel1", "2", 1, false));
+        dao.onWritten(new IndexResponse(shardId, "other", "3", 1, true));
+        Assert.assertFalse(dao.isAbsent("1"));
+        Assert.assertTrue(dao.isAbsent("2"));
+        Assert.assertTrue(dao.isAbsent("3"));
+        Assert.assertArrayEquals(new int[] { 0 }, dao.mightExist("1", "2", "3"));
+        dao.setExistenceFilter(null);
+        Assert.assertFalse(dao.isAbsent("2"));
+    }
+
+    @Test
+    public void prepareCountTest() {
+        dao.setNowRounding(TimeValue.timeValueHours(1));
+        SearchRequest request = dao.prepareAggregate(QueryBuilders.rangeQuery("date").lt("now"),
+                AggregationBuilders.max("max").field("value")).request();
+        Assert.assertEquals(0, request.source().size());
+        Assert.assertTrue(request.requestCache());
+        Assert.assertEquals(1, request.source().aggregations().count());
+        String query = new String(((WrapperQueryBuilder) request.source().query()).source(), StandardCharsets.UTF_8);
+        long now = System.currentTimeMillis();
+        // upper bound is rounded up
+        Assert.assertTrue(query.contains("\"to\":\"" + (now - now % 3600000 + 3600000) + "\"")
+                || query.contains("\"to\":\"" + (now - now % 3600000) + "\""));
+        Assert.assertEquals(1, dao.prepareExistsByQuery(null).request().source().terminateAfter());
+    }
+
+    @Test
+    public void aggregationTest() {
+        InternalAggregations aggregations = new InternalAggregations(Collections.<InternalAggregation> singletonList(
+                new InternalMax("max", 2, DocValueFormat.RAW, Collections.emptyList(), Collections.emptyMap())));
+        SearchResponse response = new SearchResponse(new InternalSearchResponse(SearchHits.empty(), aggregations,
+                null, null, false, null, 1), null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY);
+        Assert.assertEquals(2, EntityDao.aggregation(response, "max", Max.class).getValue(), 0);
+        try {
+            EntityDao.aggregation(response, "max", Terms.class);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Aggregation max is InternalMax, not Terms", e.getMessage());
+        }
+        try {
+            EntityDao.aggregation(response, "min", Max.class);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Aggregation min is not found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void trackChangesTest() {
+        List<UpdateRequest> requests = new ArrayList<>();
+        NodeClient client = new NodeClient(Settings.EMPTY, null) {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <Request extends ActionRequest, Response extends ActionResponse,
+                    RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                    Action<Request, Response, RequestBuilder> action, Request request,
+                    ActionListener<Response> listener) {
+                requests.add((UpdateRequest) request);
+                listener.onResponse((Response) new UpdateResponse(shardId, "TestModel1", "1", requests.size(),
+                        Result.UPDATED));
+            }
+        };
+        EntityDao<TestModel1> dao = new EntityDao<>(TestModel1.class, client);
+        dao.setTrackChanges(true);
+        TestModel1 obj = dao.readEntity("{\"field1\":\"1\"}".getBytes(StandardCharsets.UTF_8), TestModel1.class);
+        obj.setId("1");
+        obj.field1 = "2";
+        dao.updateStatus(obj, RefreshPolicy.NONE, false);
+        obj.field1 = "1";
+        dao.updateStatus(obj, RefreshPolicy.NONE, false);
+        dao.updateStatus(obj, RefreshPolicy.NONE, false);
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals("{\"field1\":\"2\"}", requests.get(0).doc().source().utf8ToString());
+        // change back to the loaded value is sent, the snapshot is advanced by the acknowledged update
+        Assert.assertEquals("{\"field1\":\"1\"}", requests.get(1).doc().source().utf8ToString());
+        Assert.assertEquals("{}", requests.get(2).doc().source().utf8ToString());
+    }
+
+    @Test
+    public void multiExistsFailureTest() {
+        NodeClient client = new NodeClient(Settings.EMPTY, null) {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <Request extends ActionRequest, Response extends ActionResponse,
+                    RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                    Action<Request, Response, RequestBuilder> action, Request request,
+                    ActionListener<Response> listener) {
+                List<MultiGetItemResponse> items = new ArrayList<>();
+                for (MultiGetRequest.Item item : (MultiGetRequest) request) {
+                    if ("failed".equals(item.id())) {
+                        items.add(new MultiGetItemResponse(null, new MultiGetResponse.Failure(item.index(),
+                                item.type(), item.id(), new IllegalStateException("shard failure"))));
+                    } else {
+                        items.add(new MultiGetItemResponse(new GetResponse(new GetResult(item.index(), item.type(),
+                                item.id(), 1, true, null, null)), null));
+                    }
+                }
+                listener.onResponse((Response) new MultiGetResponse(
+                        items.toArray(new MultiGetItemResponse[items.size()])));
+            }
+        };
+        EntityDao<TestModel1> dao = new EntityDao<>(TestModel1.class, client);
+        PlainActionFuture<BitSet> exists = PlainActionFuture.newFuture();
+        dao.multiExists(new String[] { "1", "2" }, exists);
+        Assert.assertEquals(2, exists.actionGet().cardinality());
+        // failed item is reported, not taken as absent
+        PlainActionFuture<BitSet> failed = PlainActionFuture.newFuture();
+        dao.multiExists(new String[] { "1", "failed" }, failed);
+        try {
+            failed.actionGet();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("shard failure", e.getMessage());
+        }
+    }
+
+}
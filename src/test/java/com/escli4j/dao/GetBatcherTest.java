@@ -0,0 +1,141 @@
+package com.escli4j.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetAction;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GetBatcherTest {
+
+    private final NodeClient client = new NodeClient(Settings.EMPTY, null);
+    private final List<MultiGetRequest> requests = new ArrayList<>();
+    private final List<ActionListener<MultiGetResponse>> listeners = new ArrayList<>();
+
+    private GetBatcher newBatcher(ThreadPool threadPool, TimeValue window, int maxBatch) {
+        return new GetBatcher(threadPool, window, maxBatch,
+                () -> new MultiGetRequestBuilder(client, MultiGetAction.INSTANCE), (request, listener) -> {
+                    requests.add(request.request());
+                    listeners.add(listener);
+                });
+    }
+
+    private static MultiGetRequest.Item item(String id, String parent) {
+        return new MultiGetRequest.Item("index", "type", id).parent(parent);
+    }
+
+    private static PlainActionFuture<GetResponse> get(GetBatcher batcher, MultiGetRequest.Item item) {
+        PlainActionFuture<GetResponse> retval = PlainActionFuture.newFuture();
+        batcher.get(item, retval);
+        return retval;
+    }
+
+    private static MultiGetResponse response(MultiGetRequest request) {
+        List<MultiGetItemResponse> items = new ArrayList<>();
+        for (MultiGetRequest.Item item : request.getItems()) {
+            if ("failed".equals(item.id())) {
+                items.add(new MultiGetItemResponse(null, new MultiGetResponse.Failure(item.index(), item.type(),
+                        item.id(), new IllegalArgumentException("test"))));
+            } else {
+                items.add(new MultiGetItemResponse(new GetResponse(new GetResult(item.index(), item.type(), item.id(),
+                        1, false, null, Collections.emptyMap())), null));
+            }
+        }
+        return new MultiGetResponse(items.toArray(new MultiGetItemResponse[items.size()]));
+    }
+
+    @Test
+    public void batchTest() {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            GetBatcher batcher = newBatcher(threadPool, TimeValue.timeValueHours(1), 100);
+            PlainActionFuture<GetResponse> first = get(batcher, item("1", null));
+            PlainActionFuture<GetResponse> same = get(batcher, item("1", null));
+            PlainActionFuture<GetResponse> child = get(batcher, item("1", "p"));
+            PlainActionFuture<GetResponse> failed = get(batcher, item("failed", null));
+            Assert.assertTrue(requests.isEmpty());
+            batcher.flush();
+            Assert.assertEquals(1, requests.size());
+            // identical items are sent once, item with parent is routed by it
+            List<MultiGetRequest.Item> items = requests.get(0).getItems();
+            Assert.assertEquals(3, items.size());
+            Assert.assertNull(items.get(0).parent());
+            Assert.assertEquals("p", items.get(1).parent());
+            listeners.get(0).onResponse(response(requests.get(0)));
+            Assert.assertEquals("1", first.actionGet().getId());
+            Assert.assertSame(first.actionGet(), same.actionGet());
+            Assert.assertNotSame(first.actionGet(), child.actionGet());
+            try {
+                failed.actionGet();
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("test", e.getMessage());
+            }
+            Assert.assertEquals(4, batcher.getGets());
+            Assert.assertEquals(1, batcher.getRequests());
+            batcher.close();
+            PlainActionFuture<GetResponse> closed = get(batcher, item("2", null));
+            Assert.assertTrue(closed.isDone());
+            Assert.assertEquals(1, requests.size());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void maxBatchTest() {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            GetBatcher batcher = newBatcher(threadPool, TimeValue.timeValueHours(1), 2);
+            get(batcher, item("1", null));
+            Assert.assertTrue(requests.isEmpty());
+            get(batcher, item("2", null));
+            Assert.assertEquals(1, requests.size());
+            PlainActionFuture<GetResponse> next = get(batcher, item("3", null));
+            Assert.assertEquals(1, requests.size());
+            batcher.flush();
+            Assert.assertEquals(2, requests.size());
+            listeners.get(1).onFailure(new IllegalStateException("test"));
+            try {
+                next.actionGet();
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("test", e.getMessage());
+            }
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void windowTest() throws InterruptedException {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            GetBatcher batcher = newBatcher(threadPool, TimeValue.timeValueMillis(200), GetBatcher.DEFAULT_MAX_BATCH);
+            get(batcher, item("1", null));
+            get(batcher, item("2", null));
+            for (int i = 0; i < 1000 && batcher.getRequests() == 0; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, batcher.getRequests());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.escli4j.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.model.EsEntity;
+import com.escli4j.model.TestModel1;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ProjectionTest {
+
+    public static class NameView extends EsEntity {
+        public static final String CONSTANT = "constant";
+        public String name;
+        @JsonProperty("last_name")
+        public String lastName;
+    }
+
+    public interface CountView {
+
+        String getId();
+
+        int getCount();
+
+        boolean isActive();
+
+        List<String> getTags();
+    }
+
+    public interface InvalidView {
+
+        void count(int count);
+    }
+
+    @Test
+    public void classViewTest() {
+        Projection<NameView> projection = Projection.of(NameView.class);
+        Assert.assertArrayEquals(new String[] { "name", "last_name" }, projection.getIncludes());
+        Assert.assertSame(projection, Projection.of(NameView.class));
+        NameView view = projection.read("{\"name\":\"a\",\"last_name\":\"b\"}".getBytes(StandardCharsets.UTF_8), "1");
+        Assert.assertEquals("1", view.getId());
+        Assert.assertEquals("a", view.name);
+        Assert.assertEquals("b", view.lastName);
+    }
+
+    @Test
+    public void annotatedFieldsTest() {
+        Assert.assertArrayEquals(new String[] { "field1" }, Projection.of(TestModel1.class).getIncludes());
+    }
+
+    @Test
+    public void interfaceViewTest() {
+        Projection<CountView> projection = Projection.of(CountView.class);
+        List<String> includes = Arrays.asList(projection.getIncludes());
+        Assert.assertEquals(3, includes.size());
+        Assert.assertTrue(includes.containsAll(Arrays.asList("count", "active", "tags")));
+        CountView view = projection.read("{\"count\":5,\"tags\":[\"a\",\"b\"]}".getBytes(StandardCharsets.UTF_8), "1");
+        Assert.assertEquals("1", view.getId());
+        Assert.assertEquals(5, view.getCount());
+        Assert.assertFalse(view.isActive());
+        Assert.assertEquals(Arrays.asList("a", "b"), view.getTags());
+        Assert.assertEquals(view, view);
+        Assert.assertTrue(view.toString().startsWith("CountView"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidViewTest() {
+        Projection.of(InvalidView.class);
+    }
+
+}
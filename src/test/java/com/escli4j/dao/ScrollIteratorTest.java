@@ -0,0 +1,119 @@
+package com.escli4j.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScrollIteratorTest {
+
+    private static final int TOTAL = 25;
+    private static final int PAGE = 10;
+
+    private final List<String> requested = new ArrayList<>();
+    private final List<ActionListener<SearchResponse>> listeners = new ArrayList<>();
+    private final List<String> cleared = new ArrayList<>();
+
+    private ScrollIterator<String> newIterator(int pages) {
+        return new ScrollIterator<>(pages, SearchHit::getId, (scrollId, listener) -> {
+            requested.add(scrollId);
+            listeners.add(listener);
+        }, cleared::add);
+    }
+
+    private void respond(int page) {
+        List<SearchHit> hits = new ArrayList<>();
+        for (int i = page * PAGE; i < Math.min(TOTAL, (page + 1) * PAGE); i++) {
+            hits.add(new SearchHit(i, String.valueOf(i), null, null));
+        }
+        SearchHits searchHits = new SearchHits(hits.toArray(new SearchHit[hits.size()]), TOTAL, 1);
+        listeners.get(page).onResponse(new SearchResponse(
+                new InternalSearchResponse(searchHits, null, null, null, false, null, 1), "scroll" + page, 1, 1, 0, 1,
+                ShardSearchFailure.EMPTY_ARRAY));
+    }
+
+    @Test
+    public void iterateTest() {
+        ScrollIterator<String> iterator = new ScrollIterator<>(2, SearchHit::getId, (scrollId, listener) -> {
+            requested.add(scrollId);
+            listeners.add(listener);
+            respond(listeners.size() - 1);
+        }, cleared::add);
+        List<String> result = iterator.stream().collect(Collectors.toList());
+        Assert.assertEquals(TOTAL, result.size());
+        for (int i = 0; i < TOTAL; i++) {
+            Assert.assertEquals(String.valueOf(i), result.get(i));
+        }
+        // last page is detected by total hits, there is no empty page request
+        Assert.assertEquals(3, requested.size());
+        Assert.assertNull(requested.get(0));
+        Assert.assertEquals("scroll0", requested.get(1));
+        Assert.assertEquals(1, cleared.size());
+        Assert.assertEquals("scroll2", cleared.get(0));
+        iterator.close();
+        Assert.assertEquals(1, cleared.size());
+    }
+
+    @Test
+    public void prefetchTest() {
+        ScrollIterator<String> iterator = newIterator(1);
+        Assert.assertEquals(1, requested.size());
+        respond(0);
+        // buffer is full, fetching is paused
+        Assert.assertEquals(1, requested.size());
+        Assert.assertEquals("0", iterator.next());
+        // consumer took the page, next one is requested while it is consumed
+        Assert.assertEquals(2, requested.size());
+        respond(1);
+        Assert.assertEquals(2, requested.size());
+        for (int i = 1; i < PAGE; i++) {
+            Assert.assertEquals(String.valueOf(i), iterator.next());
+        }
+        Assert.assertEquals("10", iterator.next());
+        Assert.assertEquals(3, requested.size());
+        iterator.close();
+        Assert.assertTrue(cleared.isEmpty());
+        // in flight page clears the scroll
+        respond(2);
+        Assert.assertEquals(1, cleared.size());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void closeTest() {
+        ScrollIterator<String> iterator = newIterator(1);
+        respond(0);
+        iterator.close();
+        Assert.assertEquals(1, cleared.size());
+        Assert.assertEquals("scroll0", cleared.get(0));
+        Assert.assertFalse(iterator.hasNext());
+        Assert.assertEquals(1, requested.size());
+    }
+
+    @Test
+    public void failureTest() {
+        ScrollIterator<String> iterator = newIterator(2);
+        respond(0);
+        listeners.get(1).onFailure(new IllegalArgumentException("test"));
+        for (int i = 0; i < PAGE; i++) {
+            iterator.next();
+        }
+        try {
+            iterator.hasNext();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("test", e.getMessage());
+        }
+        Assert.assertFalse(iterator.hasNext());
+        Assert.assertEquals(1, cleared.size());
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.escli4j.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchAction;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SearchBatcherTest {
+
+    private final NodeClient client = new NodeClient(Settings.EMPTY, null);
+    private final List<MultiSearchRequest> requests = new ArrayList<>();
+    private final List<ActionListener<MultiSearchResponse>> listeners = new ArrayList<>();
+
+    private SearchBatcher newBatcher(ThreadPool threadPool, TimeValue window, int maxBatch) {
+        return new SearchBatcher(threadPool, window, maxBatch, 3,
+                () -> new MultiSearchRequestBuilder(client, MultiSearchAction.INSTANCE), (request, listener) -> {
+                    requests.add(request.request());
+                    listeners.add(listener);
+                });
+    }
+
+    private static PlainActionFuture<SearchResponse> search(SearchBatcher batcher, SearchRequest search) {
+        PlainActionFuture<SearchResponse> retval = PlainActionFuture.newFuture();
+        batcher.search(search, retval);
+        return retval;
+    }
+
+    private static MultiSearchResponse response(MultiSearchRequest request) {
+        List<MultiSearchResponse.Item> items = new ArrayList<>();
+        for (SearchRequest search : request.requests()) {
+            if ("failed".equals(search.indices()[0])) {
+                items.add(new MultiSearchResponse.Item(null, new IllegalArgumentException("test")));
+            } else {
+                items.add(new MultiSearchResponse.Item(new SearchResponse(InternalSearchResponse.empty(),
+                        search.indices()[0], 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY), null));
+            }
+        }
+        return new MultiSearchResponse(items.toArray(new MultiSearchResponse.Item[items.size()]));
+    }
+
+    @Test
+    public void batchTest() {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            SearchBatcher batcher = newBatcher(threadPool, TimeValue.MINUS_ONE, 100);
+            PlainActionFuture<SearchResponse> first = search(batcher, new SearchRequest("a"));
+            PlainActionFuture<SearchResponse> failed = search(batcher, new SearchRequest("failed"));
+            PlainActionFuture<SearchResponse> second = search(batcher, new SearchRequest("b"));
+            Assert.assertTrue(requests.isEmpty());
+            batcher.flush();
+            Assert.assertEquals(1, requests.size());
+            Assert.assertEquals(3, requests.get(0).requests().size());
+            Assert.assertEquals(3, requests.get(0).maxConcurrentSearchRequests());
+            // every caller gets response of its own search
+            listeners.get(0).onResponse(response(requests.get(0)));
+            Assert.assertEquals("a", first.actionGet().getScrollId());
+            Assert.assertEquals("b", second.actionGet().getScrollId());
+            try {
+                failed.actionGet();
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("test", e.getMessage());
+            }
+            Assert.assertEquals(3, batcher.getSearches());
+            Assert.assertEquals(1, batcher.getRequests());
+            PlainActionFuture<SearchResponse> scroll = search(batcher, new SearchRequest("a").scroll("1m"));
+            Assert.assertTrue(scroll.isDone());
+            batcher.close();
+            PlainActionFuture<SearchResponse> closed = search(batcher, new SearchRequest("a"));
+            Assert.assertTrue(closed.isDone());
+            Assert.assertEquals(1, requests.size());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void maxBatchTest() {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            SearchBatcher batcher = newBatcher(threadPool, TimeValue.MINUS_ONE, 2);
+            search(batcher, new SearchRequest("a"));
+            Assert.assertTrue(requests.isEmpty());
+            search(batcher, new SearchRequest("a"));
+            Assert.assertEquals(1, requests.size());
+            PlainActionFuture<SearchResponse> next = search(batcher, new SearchRequest("b"));
+            batcher.flush();
+            Assert.assertEquals(2, requests.size());
+            listeners.get(1).onFailure(new IllegalStateException("test"));
+            try {
+                next.actionGet();
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("test", e.getMessage());
+            }
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void windowTest() throws InterruptedException {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            SearchBatcher batcher = newBatcher(threadPool, TimeValue.timeValueMillis(200),
+                    SearchBatcher.DEFAULT_MAX_BATCH);
+            search(batcher, new SearchRequest("a"));
+            search(batcher, new SearchRequest("b"));
+            for (int i = 0; i < 1000 && batcher.getRequests() == 0; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, batcher.getRequests());
+            Assert.assertEquals(2, requests.get(0).requests().size());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.escli4j.dao;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SearchPageTest {
+
+    @Test
+    public void cursorTest() {
+        Object[] values = new Object[] { 0.2876821f, Long.MAX_VALUE, "TestModel1#abc", new BytesRef("b") };
+        String cursor = SearchPage.encodeCursor(values);
+        Assert.assertTrue(cursor, cursor.matches("[A-Za-z0-9_-]+"));
+        Object[] decoded = SearchPage.decodeCursor(cursor);
+        Assert.assertEquals(4, decoded.length);
+        Assert.assertEquals(0.2876821f, ((Number) decoded[0]).floatValue(), 0);
+        Assert.assertEquals(Long.MAX_VALUE, ((Number) decoded[1]).longValue());
+        Assert.assertEquals("TestModel1#abc", decoded[2]);
+        Assert.assertEquals("b", decoded[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCursorTest() {
+        SearchPage.decodeCursor("not a cursor");
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.escli4j.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.model.EsChildEntity;
+import com.escli4j.model.TestModel1;
+import com.escli4j.util.EscliJsonUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+public class UpdateCoalescerTest {
+
+    @Test
+    public void coalesceTest() throws InterruptedException {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            List<JsonNode> docs = new ArrayList<>();
+            List<ActionListener<UpdateResponse>> listeners = new ArrayList<>();
+            UpdateCoalescer<TestModel1> coalescer = new UpdateCoalescer<>(threadPool, TimeValue.timeValueHours(1),
+                    EscliJsonUtils::valueToTree, null, (obj, doc) -> {
+                        docs.add(doc);
+                        return null;
+                    }, (obj, resp) -> obj, (req, listener) -> listeners.add(listener));
+            List<TestModel1> results = new ArrayList<>();
+            coalescer.update(newModel("1", "a"), results::add, e -> Assert.fail());
+            coalescer.update(newModel("1", "b"), results::add, e -> Assert.fail());
+            coalescer.update(newModel("2", "c"), results::add, e -> Assert.fail());
+            coalescer.flush();
+            // one request per document
+            Assert.assertEquals(2, docs.size());
+            Assert.assertEquals("{\"field1\":\"b\"}", docs.get(0).toString());
+            Assert.assertEquals("{\"field1\":\"c\"}", docs.get(1).toString());
+            Assert.assertEquals(3, coalescer.getUpdates());
+            Assert.assertEquals(2, coalescer.getRequests());
+            // update while first one is in flight waits for it
+            List<Throwable> errors = new ArrayList<>();
+            coalescer.update(newModel("1", "d"), results::add, errors::add);
+            coalescer.flush();
+            Assert.assertEquals(2, docs.size());
+            listeners.get(0).onResponse(null);
+            Assert.assertEquals(3, docs.size());
+            Assert.assertEquals("{\"field1\":\"d\"}", docs.get(2).toString());
+            // both callers of the first request get its result
+            Assert.assertEquals(2, results.size());
+            Assert.assertEquals("b", results.get(0).field1);
+            Assert.assertSame(results.get(0), results.get(1));
+            listeners.get(1).onResponse(null);
+            listeners.get(2).onFailure(new IllegalStateException());
+            Assert.assertEquals(1, errors.size());
+            Assert.assertEquals(0, coalescer.getPendingDocuments());
+            coalescer.close();
+            coalescer.update(newModel("1", "e"), results::add, errors::add);
+            Assert.assertEquals(2, errors.size());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void mergeTest() throws InterruptedException {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            List<JsonNode> docs = new ArrayList<>();
+            // partial doc has only the field named by the value
+            UpdateCoalescer<TestModel1> coalescer = new UpdateCoalescer<>(threadPool, TimeValue.timeValueHours(1),
+                    obj -> JsonNodeFactory.instance.objectNode().put(obj.field1, obj.getId()), null, (obj, doc) -> {
+                        docs.add(doc);
+                        return null;
+                    }, (obj, resp) -> obj, (req, listener) -> listener.onResponse(null));
+            coalescer.update(newModel("1", "a"), obj -> {}, e -> Assert.fail());
+            coalescer.update(newModel("1", "b"), obj -> {}, e -> Assert.fail());
+            coalescer.flush();
+            Assert.assertEquals(1, docs.size());
+            Assert.assertEquals("{\"a\":\"1\",\"b\":\"1\"}", docs.get(0).toString());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void parentTest() throws InterruptedException {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            List<EsChildEntity> sent = new ArrayList<>();
+            UpdateCoalescer<EsChildEntity> coalescer = new UpdateCoalescer<>(threadPool,
+                    TimeValue.timeValueHours(1), obj -> JsonNodeFactory.instance.objectNode(), null, (obj, doc) -> {
+                        sent.add(obj);
+                        return null;
+                    }, (obj, resp) -> obj, (req, listener) -> listener.onResponse(null));
+            coalescer.update(newChild("1", "p1"), obj -> {}, e -> Assert.fail());
+            coalescer.update(newChild("1", "p2"), obj -> {}, e -> Assert.fail());
+            coalescer.update(newChild("1", "p1"), obj -> {}, e -> Assert.fail());
+            Assert.assertEquals(2, coalescer.getPendingDocuments());
+            coalescer.flush();
+            // children with the same id under different parents are different documents
+            Assert.assertEquals(2, sent.size());
+            Assert.assertEquals(3, coalescer.getUpdates());
+            Assert.assertEquals(2, coalescer.getRequests());
+            Assert.assertNotEquals(sent.get(0).getParent(), sent.get(1).getParent());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void upsertTest() throws InterruptedException {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            List<UpdateRequest> requests = new ArrayList<>();
+            NodeClient client = new NodeClient(Settings.EMPTY, threadPool) {
+
+                @Override
+                public <Request extends ActionRequest, Response extends ActionResponse,
+                        RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                        Action<Request, Response, RequestBuilder> action, Request request,
+                        ActionListener<Response> listener) {
+                    requests.add((UpdateRequest) request);
+                }
+            };
+            AsyncEntityDao<TestModel1> dao = new AsyncEntityDao<>(TestModel1.class, client);
+            dao.setTrackChanges(true);
+            TestModel1 obj = dao.readEntity("{\"field1\":\"1\"}".getBytes(StandardCharsets.UTF_8), TestModel1.class);
+            obj.setId("1");
+            UpdateCoalescer<TestModel1> coalescer = dao.updateCoalescer(TimeValue.timeValueHours(1), true);
+            coalescer.update(obj, o -> {}, e -> {});
+            coalescer.flush();
+            Assert.assertEquals(1, requests.size());
+            // only changed fields are sent, missing document is created from the whole object
+            Assert.assertEquals("{}", requests.get(0).doc().source().utf8ToString());
+            Assert.assertFalse(requests.get(0).docAsUpsert());
+            Assert.assertEquals("{\"field1\":\"1\"}", requests.get(0).upsertRequest().source().utf8ToString());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static EsChildEntity newChild(String id, String parent) {
+        EsChildEntity obj = new EsChildEntity();
+        obj.setId(id);
+        obj.setParent(parent);
+        return obj;
+    }
+
+    private static TestModel1 newModel(String id, String value) {
+        TestModel1 obj = new TestModel1();
+        obj.setId(id);
+        obj.field1 = value;
+        return obj;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.escli4j.dao.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.dao.bulk.AdaptiveBulkSizer.Decision;
+
+public class AdaptiveBulkSizerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void convergeTest() {
+        AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(100, 100000, TimeValue.timeValueMillis(500),
+                new ByteSizeValue(1, ByteSizeUnit.GB));
+        // cluster takes 1ms per document
+        for (int i = 0; i < 200; i++) {
+            int size = sizer.getBatchSize();
+            sizer.onBulk(size, size * 100, size * MS, 0);
+        }
+        int size = sizer.getBatchSize();
+        Assert.assertTrue(String.valueOf(size), size >= 250 && size <= 500);
+        Assert.assertEquals(Decision.HOLD, sizer.getLastDecision());
+        Assert.assertTrue(sizer.getIncreases() > 0);
+        Assert.assertEquals(200, sizer.getBulks());
+        // cluster becomes two times slower
+        for (int i = 0; i < 200; i++) {
+            size = sizer.getBatchSize();
+            sizer.onBulk(size, size * 100, size * 2 * MS, 0);
+        }
+        size = sizer.getBatchSize();
+        Assert.assertTrue(String.valueOf(size), size >= 100 && size <= 250);
+        Assert.assertTrue(sizer.getDecreases() > 0);
+        Assert.assertEquals(100, sizer.getAverageItemBytes());
+    }
+
+    @Test
+    public void rejectionTest() {
+        AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(10, 1000, TimeValue.timeValueMillis(500),
+                new ByteSizeValue(1, ByteSizeUnit.GB), 100, 0.5, 0.0);
+        Assert.assertEquals(Decision.INCREASE, sizer.onBulk(10, 1000, MS, 0));
+        Assert.assertEquals(110, sizer.getBatchSize());
+        Assert.assertEquals(Decision.DECREASE, sizer.onBulk(110, 1000, MS, 1));
+        Assert.assertEquals(55, sizer.getBatchSize());
+        Assert.assertTrue(sizer.getRejectionRate() > 0);
+        // never below min size
+        for (int i = 0; i < 10; i++) {
+            sizer.onBulk(sizer.getBatchSize(), 1000, MS, 1);
+        }
+        Assert.assertEquals(10, sizer.getBatchSize());
+    }
+
+    @Test
+    public void notFullBulkTest() {
+        AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(100, 1000, TimeValue.timeValueMillis(500),
+                new ByteSizeValue(1, ByteSizeUnit.GB));
+        Assert.assertEquals(Decision.HOLD, sizer.onBulk(5, 500, MS, 0));
+        Assert.assertEquals(100, sizer.getBatchSize());
+        Assert.assertEquals(1, sizer.getHolds());
+    }
+
+    @Test
+    public void maxBulkSizeTest() {
+        AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(10, 1000, TimeValue.timeValueMillis(500),
+                new ByteSizeValue(10, ByteSizeUnit.KB), 100, 0.5, 0.0);
+        // 1KB per item limits size to 10 items
+        for (int i = 0; i < 10; i++) {
+            int size = sizer.getBatchSize();
+            sizer.onBulk(size, size * 1024, MS, 0);
+        }
+        Assert.assertEquals(10, sizer.getBatchSize());
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.escli4j.dao.bulk;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.model.TestModel1;
+import com.escli4j.util.EscliJsonUtils;
+
+public class BulkExecutorTest {
+
+    @Test
+    public void parallelToRequestsTest() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BulkExecutor executor = new BulkExecutor(null, null);
+            executor.setSerializationPool(pool);
+            executor.setParallelThreshold(1000);
+            executor.setPooledPayload(true);
+            List<TestModel1> objs = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                TestModel1 obj = new TestModel1();
+                obj.field1 = "value" + i;
+                objs.add(obj);
+            }
+            List<BulkPayload> payloads = new ArrayList<>();
+            try {
+                List<DocWriteRequest<?>> requests = executor.toRequests(objs, payloads,
+                        (obj, payload) -> new IndexRequest("test", "TestModel1").source(payload.write(obj),
+                                XContentType.JSON));
+                // 5000 objects on 4 threads are split into 16 chunks
+                Assert.assertEquals(16, payloads.size());
+                Assert.assertEquals(objs.size(), requests.size());
+                for (int i = 0; i < objs.size(); i++) {
+                    IndexRequest request = (IndexRequest) requests.get(i);
+                    TestModel1 obj = EscliJsonUtils.read(request.source().utf8ToString(), TestModel1.class);
+                    Assert.assertEquals("value" + i, obj.field1);
+                }
+            } finally {
+                Releasables.close(payloads);
+            }
+            // below threshold objects are serialized on the caller thread into one payload
+            payloads.clear();
+            executor.toRequests(objs.subList(0, 999), payloads,
+                    (obj, payload) -> new IndexRequest().source(payload.write(obj), XContentType.JSON));
+            Assert.assertEquals(1, payloads.size());
+            Releasables.close(payloads);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void groupsTest() {
+        StubBulkClient client = new StubBulkClient(null, 3, 0, 0, TimeValue.ZERO);
+        BulkExecutor executor = new BulkExecutor(client, client::prepareBulk);
+        ShardRouter router = new ShardRouter(client, ShardRouter.Grouping.SHARD, TimeValue.timeValueMinutes(1));
+        executor.setShardRouter(router);
+        List<String> objs = new ArrayList<>();
+        List<DocWriteRequest<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            objs.add("id" + i);
+            requests.add(new IndexRequest(StubBulkClient.INDEX, "type", "id" + i).source("{}", XContentType.JSON));
+        }
+        // item without id has no shard
+        objs.add(null);
+        requests.add(new IndexRequest(StubBulkClient.INDEX, "type").source("{}", XContentType.JSON));
+        // routing is not known yet, all items are sent with one bulk
+        BulkResult<String> result = executor.execute(objs, requests, RefreshPolicy.NONE, (obj, resp) -> resp.getId());
+        Assert.assertEquals(1, client.bulks.size());
+        Assert.assertEquals(31, result.getSucceeded().size());
+        client.bulks.clear();
+        result = executor.execute(objs, requests, RefreshPolicy.NONE, (obj, resp) -> resp.getId());
+        Assert.assertEquals(31, result.getSucceeded().size());
+        // one bulk per shard and one bulk of the items without shard
+        Assert.assertEquals(4, client.bulks.size());
+        Set<Integer> shards = new HashSet<>();
+        for (BulkRequest bulk : client.bulks) {
+            if (bulk.requests().get(0).id() == null) {
+                Assert.assertEquals(1, bulk.requests().size());
+                continue;
+            }
+            Set<Integer> bulkShards = new HashSet<>();
+            for (DocWriteRequest<?> request : bulk.requests()) {
+                bulkShards.add(client.shardId(request));
+            }
+            Assert.assertEquals(1, bulkShards.size());
+            shards.addAll(bulkShards);
+        }
+        Assert.assertEquals(3, shards.size());
+        String[] groups = router.groups(requests);
+        for (int i = 0; i < requests.size(); i++) {
+            Assert.assertEquals(router.group(requests.get(i)), groups[i]);
+        }
+        Assert.assertNull(groups[30]);
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.escli4j.dao.bulk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulkIngestorTest {
+
+    // pool of the flush by interval
+    private ThreadPool threadPool = null;
+    // objects and listeners of the bulks sent by the ingestor
+    private final List<List<String>> bulks = Collections.synchronizedList(new ArrayList<>());
+    private final List<ActionListener<BulkResult<String>>> listeners = Collections
+            .synchronizedList(new ArrayList<>());
+    private final List<BulkResult<String>> results = Collections.synchronizedList(new ArrayList<>());
+
+    private final BulkExecutor executor = new BulkExecutor(null, null) {
+
+        @Override
+        public ThreadPool threadPool() {
+            return threadPool;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> void execute(List<T> objs, List<DocWriteRequest<?>> requests, RefreshPolicy refresh,
+                BiFunction<T, DocWriteResponse, T> responseFunction, ActionListener<BulkResult<T>> listener) {
+            bulks.add(new ArrayList<>((List<String>) objs));
+            listeners.add((ActionListener<BulkResult<String>>) (ActionListener<?>) listener);
+        }
+    };
+
+    private static DocWriteRequest<?> request(String obj) {
+        return new IndexRequest("test", "type", obj).source("{\"a\":1}", XContentType.JSON);
+    }
+
+    private static final long SIZE = BulkIngestor.sizeOf(request("1"));
+
+    private BulkIngestor.Builder<String> builder() {
+        return new BulkIngestor.Builder<>(executor, BulkIngestorTest::request, (obj, resp) -> obj,
+                new BulkIngestor.Listener<String>() {
+
+                    @Override
+                    public void onResponse(BulkResult<String> result) {
+                        results.add(result);
+                    }
+
+                    @Override
+                    public void onFailure(List<String> objs, Throwable e) {
+                        Assert.fail(e.getMessage());
+                    }
+                }).setConcurrentRequests(10);
+    }
+
+    private void complete(int bulk) {
+        BulkResult<String> result = new BulkResult<>();
+        result.getSucceeded().addAll(bulks.get(bulk));
+        listeners.get(bulk).onResponse(result);
+    }
+
+    @Test
+    public void flushByCountTest() {
+        BulkIngestor<String> ingestor = builder().setBulkActions(2).setBulkSize(new ByteSizeValue(-1)).build();
+        ingestor.accept("1");
+        Assert.assertTrue(bulks.isEmpty());
+        ingestor.accept("2");
+        ingestor.accept("3");
+        Assert.assertEquals(1, bulks.size());
+        Assert.assertEquals(2, bulks.get(0).size());
+        ingestor.flush();
+        Assert.assertEquals(2, bulks.size());
+        Assert.assertEquals(Collections.singletonList("3"), bulks.get(1));
+        complete(0);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(SIZE, ingestor.getInFlightBytes());
+    }
+
+    @Test
+    public void flushByBytesTest() {
+        BulkIngestor<String> ingestor = builder().setBulkActions(-1).setBulkSize(new ByteSizeValue(SIZE * 3))
+                .build();
+        ingestor.accept("1");
+        ingestor.accept("2");
+        Assert.assertTrue(bulks.isEmpty());
+        ingestor.accept("3");
+        Assert.assertEquals(1, bulks.size());
+        Assert.assertEquals(3, bulks.get(0).size());
+    }
+
+    @Test
+    public void flushByIntervalTest() throws InterruptedException {
+        threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        try {
+            BulkIngestor<String> ingestor = builder().setFlushInterval(TimeValue.timeValueMillis(50)).build();
+            ingestor.accept("1");
+            for (int i = 0; i < 1000 && bulks.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, bulks.size());
+            complete(0);
+            Assert.assertTrue(ingestor.awaitClose(10, TimeUnit.SECONDS));
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void rejectTest() {
+        BulkIngestor<String> ingestor = builder().setBulkActions(2).setMemoryBudget(new ByteSizeValue(SIZE * 2))
+                .setBlockOnFull(false).build();
+        ingestor.accept("1");
+        ingestor.accept("2");
+        Assert.assertEquals(SIZE * 2, ingestor.getInFlightBytes());
+        try {
+            ingestor.accept("3");
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // budget is held by the bulk in flight
+        }
+        complete(0);
+        Assert.assertEquals(0, ingestor.getInFlightBytes());
+        ingestor.accept("3");
+        Assert.assertEquals(SIZE, ingestor.getInFlightBytes());
+    }
+
+    @Test
+    public void blockTest() throws Exception {
+        BulkIngestor<String> ingestor = builder().setBulkActions(10).setMemoryBudget(new ByteSizeValue(SIZE * 2))
+                .build();
+        ingestor.accept("1");
+        ingestor.accept("2");
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> ingestor.accept("3"));
+        // producer sends the bulk that holds the budget and waits for it
+        for (int i = 0; i < 1000 && bulks.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, bulks.size());
+        Thread.sleep(100);
+        Assert.assertFalse(blocked.isDone());
+        complete(0);
+        blocked.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(SIZE, ingestor.getInFlightBytes());
+    }
+
+    @Test
+    public void closeTakenBulkTest() throws Exception {
+        BulkIngestor<String> ingestor = builder().setBulkActions(1).setConcurrentRequests(1).build();
+        ingestor.accept("1");
+        // producer took the second bulk and waits for the permit held by the first one
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> ingestor.accept("2"));
+        Thread.sleep(100);
+        CompletableFuture<Boolean> closing = CompletableFuture.supplyAsync(() -> {
+            try {
+                return ingestor.awaitClose(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        Assert.assertFalse(closing.isDone());
+        complete(0);
+        producer.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, bulks.size());
+        // close waits for the bulk taken before it, not only for the ones in flight
+        Thread.sleep(100);
+        Assert.assertFalse(closing.isDone());
+        complete(1);
+        Assert.assertTrue(closing.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, results.size());
+    }
+
+    @Test
+    public void closeTest() throws InterruptedException {
+        BulkIngestor<String> ingestor = builder().setBulkActions(2).build();
+        ingestor.accept("1");
+        ingestor.accept("2");
+        ingestor.accept("3");
+        // current bulk is flushed, close waits for the bulks in flight
+        Assert.assertFalse(ingestor.awaitClose(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, bulks.size());
+        complete(0);
+        complete(1);
+        Assert.assertTrue(ingestor.awaitClose(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(0, ingestor.getInFlightBytes());
+        try {
+            ingestor.accept("4");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // closed
+        }
+    }
+
+}
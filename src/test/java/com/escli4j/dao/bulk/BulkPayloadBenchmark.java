@@ -0,0 +1,66 @@
+package com.escli4j.dao.bulk;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import com.escli4j.model.TestModel1;
+
+/**
+ * Compares allocations of the bulk assembly with heap and pooled payloads. Builds bulk of 10k documents and serializes
+ * it the same way transport does. Run as java application, allocations are measured for the current thread.
+ */
+public class BulkPayloadBenchmark {
+
+    private static final int DOCS = 10000;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) throws IOException {
+        TestModel1[] objs = new TestModel1[DOCS];
+        for (int i = 0; i < DOCS; i++) {
+            objs[i] = new TestModel1();
+            objs[i].field1 = "Lorem ipsum dolor sit amet, consectetur adipiscing elit " + i;
+        }
+        for (int i = 0; i < WARMUP; i++) {
+            run(objs, false);
+            run(objs, true);
+        }
+        report("heap", objs, false);
+        report("pooled", objs, true);
+    }
+
+    private static void report(String name, TestModel1[] objs, boolean pooled) throws IOException {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            run(objs, pooled);
+        }
+        long took = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        System.out.println(String.format("%-6s %8d bytes/doc %8d us/bulk", name, bytes / ITERATIONS / DOCS,
+                took / ITERATIONS / 1000));
+    }
+
+    private static long run(TestModel1[] objs, boolean pooled) throws IOException {
+        try (BulkPayload payload = pooled ? BulkPayload.pooled() : BulkPayload.heap();
+                BytesStreamOutput out = new BytesStreamOutput()) {
+            BulkRequest bulk = new BulkRequest();
+            for (TestModel1 obj : objs) {
+                bulk.add(new IndexRequest("test", "TestModel1").source(payload.write(obj), XContentType.JSON));
+            }
+            bulk.writeTo(out);
+            return out.size();
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.escli4j.dao.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.util.BigArrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.model.TestModel1;
+import com.escli4j.util.EscliJsonUtils;
+
+public class BulkPayloadTest {
+
+    @Test
+    public void pooledTest() {
+        List<BytesReference> sources = new ArrayList<>();
+        try (BulkPayload payload = BulkPayload.pooled()) {
+            // enough documents to grow the buffer over several pages
+            for (int i = 0; i < 10000; i++) {
+                sources.add(payload.write(newModel(i)));
+            }
+            Assert.assertTrue(payload.size() > BigArrays.BYTE_PAGE_SIZE * 4);
+            for (int i = 0; i < sources.size(); i++) {
+                TestModel1 obj = EscliJsonUtils.read(BytesReference.toBytes(sources.get(i)), TestModel1.class);
+                Assert.assertEquals("value" + i, obj.field1);
+            }
+        }
+    }
+
+    @Test
+    public void heapTest() {
+        BulkPayload payload = BulkPayload.heap();
+        BytesReference source = payload.write(newModel(1));
+        Assert.assertArrayEquals(EscliJsonUtils.writeValueAsBytes(newModel(1)), BytesReference.toBytes(source));
+        Assert.assertEquals(0, payload.size());
+    }
+
+    private static TestModel1 newModel(int i) {
+        TestModel1 obj = new TestModel1();
+        obj.field1 = "value" + i;
+        return obj;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.escli4j.dao.bulk;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void delayTest() {
+        RetryPolicy policy = new RetryPolicy(TimeValue.timeValueMillis(100), TimeValue.timeValueMillis(1000), 10);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.delay(0).millis();
+            Assert.assertTrue(String.valueOf(delay), delay >= 50 && delay <= 100);
+            delay = policy.delay(2).millis();
+            Assert.assertTrue(String.valueOf(delay), delay >= 200 && delay <= 400);
+            // capped with max delay
+            delay = policy.delay(5).millis();
+            Assert.assertTrue(String.valueOf(delay), delay >= 500 && delay <= 1000);
+            delay = policy.delay(100).millis();
+            Assert.assertTrue(String.valueOf(delay), delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void canRetryTest() {
+        RetryPolicy policy = new RetryPolicy(TimeValue.timeValueMillis(100), TimeValue.timeValueMillis(1000), 2);
+        Assert.assertTrue(policy.canRetry(0));
+        Assert.assertTrue(policy.canRetry(1));
+        Assert.assertFalse(policy.canRetry(2));
+        Assert.assertFalse(RetryPolicy.noRetry().canRetry(0));
+    }
+
+    @Test
+    public void isRetryableTest() {
+        RetryPolicy policy = RetryPolicy.exponentialBackoff();
+        Assert.assertTrue(policy.isRetryable(RestStatus.TOO_MANY_REQUESTS));
+        Assert.assertFalse(policy.isRetryable(RestStatus.CONFLICT));
+        Assert.assertFalse(policy.isRetryable(RestStatus.BAD_REQUEST));
+        Assert.assertTrue(policy.isRetryable(new EsRejectedExecutionException("rejected")));
+        Assert.assertFalse(policy.isRetryable(new IllegalStateException("failed")));
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.escli4j.dao.bulk;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.routing.OperationRouting;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShardRouterTest {
+
+    private static final OperationRouting ROUTING = new OperationRouting(Settings.EMPTY,
+            new ClusterSettings(Settings.EMPTY, ClusterSettings.BUILT_IN_CLUSTER_SETTINGS));
+
+    @Test
+    public void idRoutingTest() {
+        assertSameShards(indexMetaData(5).build(), false);
+    }
+
+    @Test
+    public void customRoutingTest() {
+        assertSameShards(indexMetaData(5).build(), true);
+    }
+
+    @Test
+    public void partitionedRoutingTest() {
+        assertSameShards(indexMetaData(5).routingPartitionSize(2).build(), true);
+    }
+
+    @Test
+    public void shrunkIndexTest() {
+        // index shrunk from 10 shards keeps routing num shards of the source index
+        assertSameShards(indexMetaData(5).setRoutingNumShards(10).build(), false);
+    }
+
+    private static IndexMetaData.Builder indexMetaData(int shards) {
+        return IndexMetaData.builder("test")
+                .settings(Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                .numberOfShards(shards).numberOfReplicas(0);
+    }
+
+    private static void assertSameShards(IndexMetaData metaData, boolean routing) {
+        ClusterState state = ClusterState.builder(new ClusterName("test"))
+                .metaData(MetaData.builder().put(metaData, false)).build();
+        for (int i = 0; i < 1000; i++) {
+            String id = "id" + i;
+            String route = routing ? "r" + (i % 17) : null;
+            Assert.assertEquals(id, ROUTING.shardId(state, "test", id, route).id(),
+                    ShardRouter.shardId(metaData, id, route));
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.escli4j.dao.bulk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Compares latency of the documents written by the bulk executor with and without shard router, when one shard of the
+ * cluster stalls from time to time. Cluster is the stub client, bulk that touches the hot shard is answered after the
+ * stall. Latency of the document is the time from the start of its bulk to the write listener call, without router
+ * all documents of the stalled bulk wait, with router only documents of the hot shard do. Run as java application,
+ * prints latency percentiles of the documents.
+ */
+public class ShardRoutingBenchmark {
+
+    private static final int SHARDS = 5;
+    private static final int HOT_SHARD = 0;
+    private static final int BULK_SIZE = 1000;
+    private static final int BULKS = 200;
+    private static final double STALL_PROBABILITY = 0.05;
+    private static final TimeValue STALL = TimeValue.timeValueMillis(200);
+
+    public static void main(String[] args) {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "benchmark").build());
+        try {
+            report("mixed", run(threadPool, false));
+            report("shard", run(threadPool, true));
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static double[] run(ThreadPool threadPool, boolean routed) {
+        StubBulkClient client = new StubBulkClient(threadPool, SHARDS, HOT_SHARD, STALL_PROBABILITY, STALL);
+        BulkExecutor executor = new BulkExecutor(client, client::prepareBulk);
+        if (routed) {
+            ShardRouter router = new ShardRouter(client, ShardRouter.Grouping.SHARD, TimeValue.timeValueMinutes(1));
+            executor.setShardRouter(router);
+            // first call loads the routing of the index
+            router.group(new IndexRequest(StubBulkClient.INDEX, "type", "warmup"));
+        }
+        double[] retval = new double[BULKS * BULK_SIZE];
+        int[] pos = new int[1];
+        long[] start = new long[1];
+        executor.setWriteListener(response -> {
+            synchronized (retval) {
+                retval[pos[0]++] = (System.nanoTime() - start[0]) / 1000000.0;
+            }
+        });
+        for (int bulk = 0; bulk < BULKS; bulk++) {
+            List<String> objs = new ArrayList<>(BULK_SIZE);
+            List<DocWriteRequest<?>> requests = new ArrayList<>(BULK_SIZE);
+            for (int i = 0; i < BULK_SIZE; i++) {
+                String id = bulk + "-" + i;
+                objs.add(id);
+                requests.add(new IndexRequest(StubBulkClient.INDEX, "type", id).source("{}", XContentType.JSON));
+            }
+            synchronized (retval) {
+                start[0] = System.nanoTime();
+            }
+            executor.execute(objs, requests, RefreshPolicy.NONE, (obj, resp) -> obj);
+        }
+        return retval;
+    }
+
+    private static void report(String name, double[] latencies) {
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-6s p50 %7.2f ms p90 %7.2f ms p99 %7.2f ms", name,
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99)));
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.escli4j.dao.bulk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Client of the simulated cluster with one index. Bulk items always succeed, bulk that touches the hot shard stalls
+ * with the given probability, the same way a bulk waits for the slowest of its shards.
+ */
+class StubBulkClient extends NodeClient {
+
+    static final String INDEX = "test";
+
+    private final IndexMetaData metaData;
+    private final int hotShard;
+    private final double stallProbability;
+    private final TimeValue stall;
+    private final Random random = new Random(42);
+    // bulks received by the cluster
+    final List<BulkRequest> bulks = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param threadPool pool the stalled bulks are answered on, null if bulks never stall
+     * @param shards number of shards of the index
+     * @param hotShard shard that stalls
+     * @param stallProbability probability that bulk with items of the hot shard stalls
+     * @param stall time the stalled bulk waits
+     */
+    StubBulkClient(ThreadPool threadPool, int shards, int hotShard, double stallProbability, TimeValue stall) {
+        super(Settings.EMPTY, threadPool);
+        this.metaData = IndexMetaData.builder(INDEX)
+                .settings(Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                .numberOfShards(shards).numberOfReplicas(0).build();
+        this.hotShard = hotShard;
+        this.stallProbability = stallProbability;
+        this.stall = stall;
+    }
+
+    int shardId(DocWriteRequest<?> request) {
+        return ShardRouter.shardId(metaData, request.id(), request.routing());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <Request extends ActionRequest, Response extends ActionResponse,
+            RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+            Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (request instanceof ClusterStateRequest) {
+            ClusterState state = ClusterState.builder(new ClusterName("test"))
+                    .metaData(MetaData.builder().put(metaData, false)).build();
+            listener.onResponse((Response) new ClusterStateResponse(state.getClusterName(), state));
+        } else if (request instanceof BulkRequest) {
+            BulkRequest bulk = (BulkRequest) request;
+            bulks.add(bulk);
+            boolean stalled = false;
+            BulkItemResponse[] items = new BulkItemResponse[bulk.requests().size()];
+            for (int i = 0; i < items.length; i++) {
+                DocWriteRequest<?> item = bulk.requests().get(i);
+                // id is generated by the cluster, item goes to any shard
+                String id = item.id() == null ? "generated" + i : item.id();
+                int shard = ShardRouter.shardId(metaData, id, item.routing());
+                stalled |= shard == hotShard;
+                items[i] = new BulkItemResponse(i, item.opType(),
+                        new IndexResponse(new ShardId(INDEX, "_na_", shard), item.type(), id, 1, true));
+            }
+            Response response = (Response) new BulkResponse(items, 1);
+            if (stalled && random.nextDouble() < stallProbability) {
+                threadPool().schedule(stall, ThreadPool.Names.GENERIC, () -> listener.onResponse(response));
+            } else {
+                listener.onResponse(response);
+            }
+        } else {
+            listener.onFailure(new UnsupportedOperationException(action.name()));
+        }
+    }
+
+}
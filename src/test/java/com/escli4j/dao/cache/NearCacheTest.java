@@ -0,0 +1,117 @@
+package com.escli4j.dao.cache;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearCacheTest {
+
+    @Test
+    public void getTest() {
+        NearCache<String, String> cache = new NearCache.Builder<String, String>().build();
+        Assert.assertNull(cache.get("1"));
+        Assert.assertTrue(cache.put("1", "a", 1));
+        Assert.assertEquals("a", cache.get("1").getValue());
+        Assert.assertEquals(1, cache.get("1").getVersion());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictionTest() {
+        // 2 per segment, keys 0, 16 and 32 are in the same segment
+        NearCache<Integer, String> cache = new NearCache.Builder<Integer, String>().setMaxWeight(32).build();
+        cache.put(0, "a", 1);
+        cache.put(16, "b", 1);
+        Assert.assertNotNull(cache.get(0));
+        cache.put(32, "c", 1);
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNull(cache.get(16));
+        Assert.assertNotNull(cache.get(0));
+        Assert.assertNotNull(cache.get(32));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void weightTest() {
+        NearCache<Integer, String> cache = new NearCache.Builder<Integer, String>().setMaxWeight(160)
+                .setWeigher(String::length).build();
+        cache.put(0, "aaaa", 1);
+        cache.put(16, "bbbb", 1);
+        Assert.assertEquals(8, cache.weight());
+        cache.put(32, "cccccc", 1);
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(10, cache.weight());
+        // entry heavier than the segment is kept alone
+        cache.put(48, "dddddddddddd", 1);
+        Assert.assertEquals(3, cache.getEvictions());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNotNull(cache.get(48));
+        Assert.assertEquals(26, cache.getPutWeight());
+        Assert.assertEquals(12, cache.getHitWeight());
+    }
+
+    @Test
+    public void ttlTest() throws InterruptedException {
+        NearCache<String, String> cache = new NearCache.Builder<String, String>().setTtl(TimeValue.timeValueMillis(1))
+                .build();
+        cache.put("1", "a", 1);
+        Thread.sleep(5);
+        Assert.assertNull(cache.get("1"));
+        Assert.assertEquals(0, cache.size());
+        // expired entry doesn't fence older versions
+        cache.invalidate("2", 5);
+        Thread.sleep(5);
+        Assert.assertTrue(cache.put("2", "b", 3));
+    }
+
+    @Test
+    public void missingTest() {
+        NearCache<String, String> cache = new NearCache.Builder<String, String>().build();
+        Assert.assertTrue(cache.putMissing("1", NearCache.NO_VERSION));
+        Assert.assertTrue(cache.get("1").isMissing());
+        Assert.assertNull(cache.get("1").getValue());
+        NearCache<String, String> disabled = new NearCache.Builder<String, String>().setNegativeTtl(TimeValue.ZERO)
+                .build();
+        Assert.assertFalse(disabled.putMissing("1", NearCache.NO_VERSION));
+        Assert.assertNull(disabled.get("1"));
+        Assert.assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void versionTest() {
+        NearCache<String, String> cache = new NearCache.Builder<String, String>().build();
+        cache.put("1", "a", 2);
+        // older read can't overwrite newer value
+        Assert.assertFalse(cache.put("1", "old", 1));
+        Assert.assertFalse(cache.put("1", "unknown", NearCache.NO_VERSION));
+        Assert.assertEquals("a", cache.get("1").getValue());
+        // write fences the key, reads older than the write are not cached
+        cache.invalidate("1", 3);
+        Assert.assertNull(cache.get("1"));
+        Assert.assertFalse(cache.put("1", "a", 2));
+        Assert.assertFalse(cache.putMissing("1", NearCache.NO_VERSION));
+        Assert.assertTrue(cache.put("1", "b", 3));
+        // fence of the same version keeps the value
+        cache.invalidate("1", 3);
+        Assert.assertEquals("b", cache.get("1").getValue());
+        // delete replaces the value
+        Assert.assertTrue(cache.putMissing("1", 4));
+        Assert.assertTrue(cache.get("1").isMissing());
+        Assert.assertFalse(cache.put("1", "b", 3));
+    }
+
+    @Test
+    public void clearTest() {
+        NearCache<String, String> cache = new NearCache.Builder<String, String>().build();
+        cache.put("1", "a", 1);
+        cache.put("2", "b", 1);
+        cache.invalidate("1");
+        Assert.assertNull(cache.get("1"));
+        Assert.assertEquals(1, cache.size());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.weight());
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.escli4j.dao.cache;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SearchKeyTest {
+
+    private static SearchRequest request(String value) {
+        return new SearchRequest("index").types("type")
+                .source(new SearchSourceBuilder().query(QueryBuilders.termQuery("field", value)).size(20));
+    }
+
+    @Test
+    public void equalsTest() {
+        SearchKey key = SearchKey.of(request("a"));
+        Assert.assertEquals(key, SearchKey.of(request("a")));
+        Assert.assertEquals(key.hashCode(), SearchKey.of(request("a")).hashCode());
+        Assert.assertNotEquals(key, SearchKey.of(request("b")));
+        Assert.assertNotEquals(key, SearchKey.of(request("a").routing("1")));
+        Assert.assertNotEquals(key, SearchKey.of(request("a").types("other")));
+        Assert.assertNotEquals(key, SearchKey.of(new SearchRequest("index").types("type")));
+        Assert.assertArrayEquals(new String[] { "index" }, key.getIndices());
+    }
+
+    @Test
+    public void snapshotTest() {
+        SearchRequest request = request("a");
+        SearchKey key = SearchKey.of(request);
+        request.source().size(30);
+        Assert.assertEquals(key, SearchKey.of(request("a")));
+        Assert.assertNotEquals(key, SearchKey.of(request));
+    }
+
+    @Test
+    public void scrollTest() {
+        Assert.assertNull(SearchKey.of(request("a").scroll("1m")));
+    }
+
+}
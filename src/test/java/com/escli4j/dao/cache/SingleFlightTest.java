@@ -0,0 +1,126 @@
+package com.escli4j.dao.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+    private final List<ActionListener<String>> calls = new ArrayList<>();
+
+    private PlainActionFuture<String> execute(String key) {
+        PlainActionFuture<String> retval = PlainActionFuture.newFuture();
+        flights.execute(key, calls::add, retval);
+        return retval;
+    }
+
+    @Test
+    public void executeTest() {
+        PlainActionFuture<String> first = execute("1");
+        PlainActionFuture<String> second = execute("1");
+        PlainActionFuture<String> other = execute("2");
+        Assert.assertEquals(2, calls.size());
+        Assert.assertEquals(1, flights.getShared());
+        calls.get(0).onResponse("a");
+        Assert.assertEquals("a", first.actionGet());
+        Assert.assertEquals("a", second.actionGet());
+        Assert.assertFalse(other.isDone());
+        Assert.assertEquals(1, flights.size());
+        // finished call is not shared
+        PlainActionFuture<String> third = execute("1");
+        Assert.assertEquals(3, calls.size());
+        Assert.assertFalse(third.isDone());
+        Assert.assertEquals(3, flights.getExecuted());
+    }
+
+    @Test
+    public void failureTest() {
+        PlainActionFuture<String> first = execute("1");
+        PlainActionFuture<String> second = execute("1");
+        calls.get(0).onFailure(new IllegalArgumentException("test"));
+        for (PlainActionFuture<String> future : Arrays.asList(first, second)) {
+            try {
+                future.actionGet();
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("test", e.getMessage());
+            }
+        }
+        Assert.assertEquals(0, flights.size());
+        PlainActionFuture<String> thrown = PlainActionFuture.newFuture();
+        flights.execute("1", l -> {
+            throw new IllegalStateException("thrown");
+        }, thrown);
+        Assert.assertTrue(thrown.isDone());
+        Assert.assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void forgetTest() {
+        PlainActionFuture<String> first = execute("1");
+        flights.forget("1");
+        PlainActionFuture<String> second = execute("1");
+        Assert.assertEquals(2, calls.size());
+        calls.get(1).onResponse("b");
+        Assert.assertEquals("b", second.actionGet());
+        Assert.assertFalse(first.isDone());
+        // forgotten call doesn't remove the next one
+        calls.get(0).onResponse("a");
+        Assert.assertEquals("a", first.actionGet());
+        execute("1");
+        calls.get(2).onResponse("c");
+        Assert.assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void getTest() throws Exception {
+        int threads = 8;
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> flights.get("1", () -> {
+                executed.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "a";
+            })));
+            started.await();
+            for (int i = 1; i < threads; i++) {
+                results.add(executor.submit(() -> flights.get("1", () -> {
+                    executed.incrementAndGet();
+                    return "b";
+                })));
+            }
+            while (flights.getShared() < threads - 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                Assert.assertEquals("a", result.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, executed.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.escli4j.dao.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JournalTest {
+
+    private static final ByteSizeValue SEGMENT_SIZE = new ByteSizeValue(1, ByteSizeUnit.KB);
+
+    @Test
+    public void replayTest() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 4, false, false)) {
+            // 100 bytes records, 9 records per segment
+            for (int i = 0; i < 20; i++) {
+                journal.append(record(i));
+            }
+            Assert.assertEquals(3, journal.getSegments());
+            Assert.assertEquals(20, journal.getPendingRecords());
+            List<Journal.Record> records = journal.poll(10, 0);
+            Assert.assertEquals(10, records.size());
+            Assert.assertEquals(9, records.get(9).getData()[0]);
+            journal.commit(records);
+            // first segment is fully committed
+            Assert.assertEquals(2, journal.getSegments());
+            Assert.assertEquals(10, journal.getPendingRecords());
+            // read but not committed records are read again after restart
+            Assert.assertEquals(5, journal.poll(5, 0).size());
+        }
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 4, false, false)) {
+            Assert.assertEquals(10, journal.getPendingRecords());
+            List<Journal.Record> records = journal.poll(100, 0);
+            Assert.assertEquals(10, records.size());
+            Assert.assertEquals(10, records.get(0).getData()[0]);
+            Assert.assertEquals(19, records.get(9).getData()[0]);
+            journal.commit(records);
+            Assert.assertEquals(0, journal.getPendingRecords());
+            Assert.assertEquals(0, journal.getPendingBytes());
+        }
+    }
+
+    @Test
+    public void tornRecordTest() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 4, false, false)) {
+            journal.append(record(1));
+            journal.append(record(2));
+        }
+        // corrupt data of the second record
+        try (FileChannel channel = FileChannel.open(dir.resolve(String.format("segment-%019d.log", 0)),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 42 }), 108 + 8 + 50);
+        }
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 4, false, false)) {
+            Assert.assertEquals(1, journal.getPendingRecords());
+            journal.append(record(3));
+            List<Journal.Record> records = journal.poll(10, 0);
+            Assert.assertEquals(2, records.size());
+            Assert.assertEquals(3, records.get(1).getData()[0]);
+        }
+    }
+
+    @Test
+    public void fullTest() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 2, false, false)) {
+            for (int i = 0; i < 18; i++) {
+                journal.append(record(i));
+            }
+            Assert.assertEquals(2 * 1024, journal.getDiskBytes());
+            Assert.assertEquals(journal.getMaxDiskBytes(), journal.getDiskBytes());
+            try {
+                journal.append(record(18));
+                Assert.fail();
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+        }
+    }
+
+    private static byte[] record(int i) {
+        byte[] retval = new byte[100];
+        retval[0] = (byte) i;
+        return retval;
+    }
+
+}
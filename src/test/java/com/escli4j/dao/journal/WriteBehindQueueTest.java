@@ -0,0 +1,170 @@
+package com.escli4j.dao.journal;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.dao.EntityDao;
+import com.escli4j.dao.bulk.BulkItemFailure;
+import com.escli4j.dao.bulk.BulkResult;
+import com.escli4j.model.TestModel1;
+
+public class WriteBehindQueueTest {
+
+    private final EntityDao<TestModel1> dao = new EntityDao<>(TestModel1.class, new NodeClient(Settings.EMPTY, null));
+    // bulks sent by the queue and results passed to the listener
+    private final List<List<String>> bulks = Collections.synchronizedList(new ArrayList<>());
+    private final List<BulkResult<WriteOperation>> results = Collections.synchronizedList(new ArrayList<>());
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+    private interface Cluster {
+        BulkResult<WriteOperation> execute(int bulk, List<WriteOperation> ops);
+    }
+
+    private WriteBehindQueue<TestModel1> newQueue(Path dir, Cluster cluster) {
+        WriteBehindQueue.Builder<TestModel1> builder = dao.writeBehind(dir, new WriteBehindQueue.Listener() {
+
+            @Override
+            public void onResponse(BulkResult<WriteOperation> result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onFailure(List<WriteOperation> ops, Throwable e) {
+                failures.add(e);
+                // failed listener does not stop draining
+                throw new IllegalStateException("listener");
+            }
+        });
+        return new WriteBehindQueue<TestModel1>(builder) {
+
+            @Override
+            protected BulkResult<WriteOperation> execute(List<WriteOperation> ops) {
+                List<String> ids = new ArrayList<>();
+                for (WriteOperation op : ops) {
+                    ids.add(op.getId());
+                }
+                bulks.add(ids);
+                return cluster.execute(bulks.size() - 1, ops);
+            }
+        };
+    }
+
+    private static TestModel1 obj(String id) {
+        TestModel1 retval = new TestModel1();
+        retval.setId(id);
+        retval.field1 = "value" + id;
+        return retval;
+    }
+
+    private static BulkResult<WriteOperation> succeeded(List<WriteOperation> ops) {
+        BulkResult<WriteOperation> retval = new BulkResult<>();
+        retval.getSucceeded().addAll(ops);
+        return retval;
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        Path dir = Files.createTempDirectory("write-behind");
+        Set<String> sent = Collections.synchronizedSet(new HashSet<>());
+        try (WriteBehindQueue<TestModel1> queue = newQueue(dir, (bulk, ops) -> {
+            BulkResult<WriteOperation> retval = new BulkResult<>();
+            for (WriteOperation op : ops) {
+                if (!sent.add(op.getId()) || "4".equals(op.getId())) {
+                    retval.getSucceeded().add(op);
+                } else if ("1".equals(op.getId())) {
+                    retval.getFailed().add(new BulkItemFailure<>(op, RestStatus.TOO_MANY_REQUESTS, null));
+                } else if ("2".equals(op.getId())) {
+                    retval.getFailed().add(new BulkItemFailure<>(op, RestStatus.SERVICE_UNAVAILABLE, null));
+                } else {
+                    retval.getFailed().add(new BulkItemFailure<>(op, RestStatus.BAD_REQUEST, null));
+                }
+            }
+            return retval;
+        })) {
+            queue.index(obj("1"));
+            queue.update(obj("2"), false);
+            queue.index(obj("3"));
+            queue.delete("4");
+            Assert.assertTrue(queue.awaitDrained(10, TimeUnit.SECONDS));
+            List<String> ids = new ArrayList<>();
+            List<BulkItemFailure<WriteOperation>> dropped = new ArrayList<>();
+            int succeeded = 0;
+            synchronized (bulks) {
+                bulks.forEach(ids::addAll);
+                results.forEach(result -> dropped.addAll(result.getFailed()));
+                for (BulkResult<WriteOperation> result : results) {
+                    succeeded += result.getSucceeded().size();
+                }
+            }
+            // 429 and 5xx items are retried, 4xx items are dropped and reported
+            Collections.sort(ids);
+            Assert.assertEquals(Arrays.asList("1", "1", "2", "2", "3", "4"), ids);
+            Assert.assertEquals(1, dropped.size());
+            Assert.assertEquals("3", dropped.get(0).getObj().getId());
+            Assert.assertEquals(RestStatus.BAD_REQUEST, dropped.get(0).getStatus());
+            Assert.assertEquals(3, succeeded);
+            Assert.assertEquals(1, queue.getFailed());
+            Assert.assertTrue(queue.getRetries() > 0);
+        }
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        Path dir = Files.createTempDirectory("write-behind");
+        try (WriteBehindQueue<TestModel1> queue = newQueue(dir, (bulk, ops) -> {
+            if (bulk == 0) {
+                throw new IllegalStateException("cluster");
+            }
+            return succeeded(ops);
+        })) {
+            queue.index(obj("1"));
+            Assert.assertTrue(queue.awaitDrained(10, TimeUnit.SECONDS));
+            Assert.assertEquals(2, bulks.size());
+            Assert.assertEquals(1, failures.size());
+            Assert.assertEquals("cluster", failures.get(0).getMessage());
+            // drainer is alive after the failed listener
+            queue.index(obj("2"));
+            Assert.assertTrue(queue.awaitDrained(10, TimeUnit.SECONDS));
+            Assert.assertEquals(3, bulks.size());
+        }
+    }
+
+    @Test
+    public void replayTest() throws Exception {
+        Path dir = Files.createTempDirectory("write-behind");
+        try (WriteBehindQueue<TestModel1> queue = newQueue(dir, (bulk, ops) -> {
+            BulkResult<WriteOperation> retval = new BulkResult<>();
+            for (WriteOperation op : ops) {
+                retval.getFailed().add(new BulkItemFailure<>(op, RestStatus.SERVICE_UNAVAILABLE, null));
+            }
+            return retval;
+        })) {
+            queue.index(obj("1"));
+            queue.update(obj("2"), true);
+            Assert.assertFalse(queue.awaitDrained(200, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(2, queue.getPendingOperations());
+        }
+        // operations that was not sent before close are sent after the queue is opened again
+        bulks.clear();
+        try (WriteBehindQueue<TestModel1> queue = newQueue(dir, (bulk, ops) -> succeeded(ops))) {
+            Assert.assertTrue(queue.awaitDrained(10, TimeUnit.SECONDS));
+            Assert.assertEquals(1, bulks.size());
+            Assert.assertEquals(Arrays.asList("1", "2"), bulks.get(0));
+            Assert.assertEquals(0, queue.getAppended());
+        }
+    }
+
+}
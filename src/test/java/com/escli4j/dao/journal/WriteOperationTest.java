@@ -0,0 +1,48 @@
+package com.escli4j.dao.journal;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.dao.EntityDao;
+import com.escli4j.model.TestModel1;
+
+public class WriteOperationTest {
+
+    private final EntityDao<TestModel1> dao = new EntityDao<>(TestModel1.class, new NodeClient(Settings.EMPTY, null));
+
+    @Test
+    public void roundTripTest() {
+        WriteOperation op = WriteOperation.read(
+                new WriteOperation(WriteOperation.Type.UPDATE, "id", "{\"field1\":\"a\"}".getBytes(), true).toBytes());
+        Assert.assertEquals(WriteOperation.Type.UPDATE, op.getType());
+        Assert.assertEquals("id", op.getId());
+        Assert.assertEquals("{\"field1\":\"a\"}", new String(op.getSource()));
+        Assert.assertTrue(op.isDocAsUpsert());
+        op = WriteOperation.read(new WriteOperation(WriteOperation.Type.DELETE, "id", new byte[0], false).toBytes());
+        Assert.assertEquals(WriteOperation.Type.DELETE, op.getType());
+        Assert.assertEquals(0, op.getSource().length);
+        Assert.assertFalse(op.isDocAsUpsert());
+    }
+
+    @Test
+    public void toRequestTest() {
+        DocWriteRequest<?> request = new WriteOperation(WriteOperation.Type.INDEX, "1", "{}".getBytes(), false)
+                .toRequest(dao);
+        Assert.assertTrue(request instanceof IndexRequest);
+        Assert.assertEquals("1", request.id());
+        Assert.assertEquals("test", request.index());
+        request = new WriteOperation(WriteOperation.Type.UPDATE, "2", "{}".getBytes(), true).toRequest(dao);
+        Assert.assertTrue(request instanceof UpdateRequest);
+        Assert.assertTrue(((UpdateRequest) request).docAsUpsert());
+        request = new WriteOperation(WriteOperation.Type.DELETE, "3", new byte[0], false).toRequest(dao);
+        Assert.assertTrue(request instanceof DeleteRequest);
+        Assert.assertEquals("3", request.id());
+    }
+
+}
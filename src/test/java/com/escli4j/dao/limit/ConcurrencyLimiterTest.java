@@ -0,0 +1,102 @@
+package com.escli4j.dao.limit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void queueTest() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new FixedLimit(2), 1);
+        List<ActionListener<String>> started = new ArrayList<>();
+        AtomicInteger responses = new AtomicInteger();
+        List<Exception> failures = new ArrayList<>();
+        ActionListener<String> listener = ActionListener.wrap(r -> responses.incrementAndGet(), failures::add);
+        for (int i = 0; i < 4; i++) {
+            limiter.execute(started::add, listener);
+        }
+        Assert.assertEquals(2, started.size());
+        Assert.assertEquals(2, limiter.getInFlight());
+        Assert.assertEquals(1, limiter.getQueueSize());
+        // fourth request is over the limit and the queue
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.get(0) instanceof RejectedExecutionException);
+        Assert.assertEquals(1, limiter.getRejected());
+        // completed request starts the queued one
+        started.get(0).onResponse("ok");
+        Assert.assertEquals(3, started.size());
+        Assert.assertEquals(2, limiter.getInFlight());
+        Assert.assertEquals(0, limiter.getQueueSize());
+        started.get(1).onResponse("ok");
+        started.get(2).onFailure(new IllegalStateException());
+        Assert.assertEquals(0, limiter.getInFlight());
+        Assert.assertEquals(2, responses.get());
+        Assert.assertEquals(2, failures.size());
+    }
+
+    @Test
+    public void aimdTest() {
+        AimdLimit limit = new AimdLimit(10, 1, 20, 0.5, TimeValue.timeValueSeconds(1));
+        // limit is not used, nothing to learn
+        limit.onSample(MS, 5, false);
+        Assert.assertEquals(10, limit.getLimit());
+        limit.onSample(MS, 10, false);
+        Assert.assertEquals(11, limit.getLimit());
+        limit.onSample(MS, 11, true);
+        Assert.assertEquals(5, limit.getLimit());
+        limit.onSample(2000 * MS, 5, false);
+        Assert.assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void gradientTest() {
+        GradientLimit limit = new GradientLimit(10, 1, 100);
+        // latency stays at min, limit grows
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(10 * MS, limit.getLimit(), false);
+        }
+        int grown = limit.getLimit();
+        Assert.assertTrue(String.valueOf(grown), grown > 20);
+        // latency grows because requests are queued in the cluster
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(40 * MS, limit.getLimit(), false);
+        }
+        Assert.assertTrue(limit.getLimit() < grown);
+        int before = limit.getLimit();
+        limit.onSample(10 * MS, before, true);
+        Assert.assertTrue(limit.getLimit() < before);
+    }
+
+    @Test
+    public void droppedTest() {
+        List<Boolean> drops = new ArrayList<>();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new FixedLimit(1) {
+
+            @Override
+            public void onSample(long rttNanos, int inFlight, boolean dropped) {
+                drops.add(dropped);
+            }
+        }, 0);
+        limiter.execute(l -> l.onFailure(new EsRejectedExecutionException("rejected")), ActionListener.wrap(r -> {
+        }, e -> {
+        }));
+        limiter.execute(l -> l.onFailure(new IllegalStateException()), ActionListener.wrap(r -> {
+        }, e -> {
+        }));
+        Assert.assertEquals(2, drops.size());
+        Assert.assertTrue(drops.get(0));
+        Assert.assertFalse(drops.get(1));
+    }
+
+}
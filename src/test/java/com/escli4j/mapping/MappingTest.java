@@ -0,0 +1,219 @@
+package com.escli4j.mapping;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesResponse;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.IdsQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.BulkByScrollTask;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappingTest {
+
+    @Test
+    public void nextVersionTest() {
+        Assert.assertEquals("v1", Mapping.nextVersion("test", null));
+        Assert.assertEquals("v1", Mapping.nextVersion("test", "test"));
+        Assert.assertEquals("v2", Mapping.nextVersion("test", "test_v1"));
+        Assert.assertEquals("v11", Mapping.nextVersion("test", "test_v10"));
+        Assert.assertEquals("v1", Mapping.nextVersion("test", "test_vx"));
+        Assert.assertEquals("v1", Mapping.nextVersion("test", "other_v3"));
+    }
+
+    @Test
+    public void reindexLegacyIndexTest() {
+        List<String> calls = new ArrayList<>();
+        Mapping mapping = newMapping(calls, true);
+        Assert.assertEquals("test_v1", mapping.reindexIndex(new Index("test"), "test"));
+        // legacy index is blocked for writes before the last copy, then it is replaced by the alias
+        Assert.assertEquals(Arrays.asList("copy test", "copy test", "settings test true", "copy test",
+                "refresh [test, test_v1]", "delete docs test_v1 [2]",
+                "aliases [remove_index test, add test_v1 test]"), calls);
+    }
+
+    @Test
+    public void reindexLegacyIndexFailureTest() {
+        List<String> calls = new ArrayList<>();
+        Mapping mapping = newMapping(calls, false);
+        try {
+            mapping.reindexIndex(new Index("test"), "test");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("test alias was not moved to test_v1", e.getMessage());
+        }
+        // alias was not moved, legacy index is writable again
+        Assert.assertEquals(Arrays.asList("copy test", "copy test", "settings test true", "copy test",
+                "refresh [test, test_v1]", "delete docs test_v1 [2]",
+                "aliases [remove_index test, add test_v1 test]", "delete test_v1", "settings test false"), calls);
+    }
+
+    @Test
+    public void reindexAliasTest() {
+        List<String> calls = new ArrayList<>();
+        Mapping mapping = newMapping(calls, true);
+        Assert.assertEquals("test_v2", mapping.reindexIndex(new Index("test"), "test_v1"));
+        // previous index is blocked until the alias is moved, nothing is copied after the swap
+        Assert.assertEquals(Arrays.asList("copy test_v1", "copy test_v1", "settings test_v1 true", "copy test_v1",
+                "refresh [test_v1, test_v2]", "delete docs test_v2 [2]",
+                "aliases [remove test_v1 test, add test_v2 test]", "settings test_v1 false"), calls);
+    }
+
+    /**
+     * @param calls gets calls to the cluster
+     * @param acknowledged result of the alias swap
+     * @return mapping with the stub client, there are no indices except the current one, documents 1, 2 and 3 are
+     *         copied to the new index and document 2 is deleted from the current one
+     */
+    private static Mapping newMapping(List<String> calls, boolean acknowledged) {
+        NodeClient client = new NodeClient(Settings.EMPTY, null) {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <Request extends ActionRequest, Response extends ActionResponse,
+                    RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                    Action<Request, Response, RequestBuilder> action, Request request,
+                    ActionListener<Response> listener) {
+                Object response;
+                if (request instanceof GetSettingsRequest) {
+                    String index = ((GetSettingsRequest) request).indices()[0];
+                    response = new GetSettingsResponse(ImmutableOpenMap.<String, Settings> builder()
+                            .fPut(index, Settings.builder().put("index.number_of_shards", 1).build()).build());
+                } else if (request instanceof ReindexRequest) {
+                    calls.add("copy " + ((ReindexRequest) request).getSearchRequest().indices()[0]);
+                    response = bulkByScrollResponse();
+                } else if (request instanceof UpdateSettingsRequest) {
+                    UpdateSettingsRequest settings = (UpdateSettingsRequest) request;
+                    calls.add("settings " + settings.indices()[0] + " "
+                            + MappingTest.settings(settings).get("index.blocks.write"));
+                    response = acknowledged(action.newResponse(), true);
+                } else if (request instanceof IndicesAliasesRequest) {
+                    List<String> actions = new ArrayList<>();
+                    for (AliasActions aliasActions : ((IndicesAliasesRequest) request).getAliasActions()) {
+                        String[] aliases = aliasActions.aliases();
+                        String alias = aliases == null || aliases.length == 0 ? "" : " " + aliases[0];
+                        actions.add(aliasActions.actionType().toString().toLowerCase() + " "
+                                + aliasActions.indices()[0] + alias);
+                    }
+                    calls.add("aliases " + actions);
+                    response = acknowledged(action.newResponse(), acknowledged);
+                } else if (request instanceof GetAliasesRequest) {
+                    response = new GetAliasesResponse(ImmutableOpenMap.of());
+                } else if (request instanceof RefreshRequest) {
+                    calls.add("refresh " + Arrays.toString(((RefreshRequest) request).indices()));
+                    response = action.newResponse();
+                } else if (request instanceof SearchRequest && ((SearchRequest) request).scroll() != null) {
+                    // ids of the new index
+                    response = searchResponse("scroll", "1", "2", "3");
+                } else if (request instanceof SearchRequest) {
+                    // ids found in the current index
+                    response = searchResponse(null, "1", "3");
+                } else if (request instanceof SearchScrollRequest) {
+                    response = searchResponse("scroll");
+                } else if (request instanceof ClearScrollRequest) {
+                    response = new ClearScrollResponse(true, 1);
+                } else if (request instanceof DeleteByQueryRequest) {
+                    SearchRequest search = ((DeleteByQueryRequest) request).getSearchRequest();
+                    List<String> ids = new ArrayList<>();
+                    for (QueryBuilder query : ((BoolQueryBuilder) search.source().query()).should()) {
+                        ids.addAll(((IdsQueryBuilder) query).ids());
+                    }
+                    calls.add("delete docs " + search.indices()[0] + " " + ids);
+                    response = bulkByScrollResponse();
+                } else if (request instanceof DeleteIndexRequest) {
+                    calls.add("delete " + ((DeleteIndexRequest) request).indices()[0]);
+                    response = acknowledged(action.newResponse(), true);
+                } else {
+                    listener.onFailure(new UnsupportedOperationException(action.name()));
+                    return;
+                }
+                listener.onResponse((Response) response);
+            }
+        };
+        return new Mapping("com.escli4j.mapping.none", client) {
+
+            @Override
+            protected boolean isIndexExists(String index) {
+                return false;
+            }
+
+            @Override
+            protected boolean createIndex(Index index, String version) {
+                return true;
+            }
+        };
+    }
+
+    private static BulkByScrollResponse bulkByScrollResponse() {
+        return new BulkByScrollResponse(TimeValue.ZERO, new BulkByScrollTask.Status(null, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                TimeValue.ZERO, 0, null, TimeValue.ZERO), Collections.emptyList(), Collections.emptyList(), false);
+    }
+
+    private static SearchResponse searchResponse(String scrollId, String... ids) {
+        SearchHit[] hits = new SearchHit[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            hits[i] = new SearchHit(i, ids[i], new Text("type"), null);
+        }
+        return new SearchResponse(new InternalSearchResponse(new SearchHits(hits, hits.length, 1), null, null, null,
+                false, null, 1), scrollId, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY);
+    }
+
+    private static Settings settings(UpdateSettingsRequest request) {
+        // settings of the request are not public
+        try {
+            Field field = UpdateSettingsRequest.class.getDeclaredField("settings");
+            field.setAccessible(true);
+            return (Settings) field.get(request);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <R extends ActionResponse> R acknowledged(R response, boolean acknowledged) {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            out.writeBoolean(acknowledged);
+            response.readFrom(out.bytes().streamInput());
+            return response;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.escli4j.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void mightContainTest() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("id" + i);
+        }
+        // added ids are never absent
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(filter.mightContain("id" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (filter.mightContain("id" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("False positives " + falsePositives, falsePositives < 2000);
+        Assert.assertTrue(filter.expectedFpp() < 0.02);
+        Assert.assertEquals(7, filter.getHashes());
+    }
+
+    @Test
+    public void emptyTest() {
+        BloomFilter filter = new BloomFilter(1, 0.5);
+        Assert.assertFalse(filter.mightContain("id"));
+        Assert.assertEquals(0, filter.expectedFpp(), 0);
+        Assert.assertEquals(64, filter.getBits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fppTest() {
+        new BloomFilter(100, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertionsTest() {
+        new BloomFilter(0, 0.01);
+    }
+
+}
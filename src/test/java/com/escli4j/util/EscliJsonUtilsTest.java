@@ -0,0 +1,66 @@
+package com.escli4j.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.escli4j.model.TestModel1;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class EscliJsonUtilsTest {
+
+    public static class Numbers {
+        public long count;
+        public float ratio;
+        public double[] values;
+    }
+
+    @Test
+    public void diffTest() {
+        JsonNode before = EscliJsonUtils.readTree(
+                "{\"a\":1,\"b\":{\"c\":\"x\",\"d\":\"y\"},\"e\":[1,2],\"f\":true,\"g\":\"removed\"}".getBytes());
+        JsonNode after = EscliJsonUtils.readTree(
+                "{\"a\":1,\"b\":{\"c\":\"x\",\"d\":\"z\"},\"e\":[1,2,3],\"f\":true,\"h\":\"new\"}".getBytes());
+        Assert.assertEquals("{\"b\":{\"d\":\"z\"},\"e\":[1,2,3],\"h\":\"new\",\"g\":null}",
+                EscliJsonUtils.diff(before, after).toString());
+        Assert.assertEquals(0, EscliJsonUtils.diff(before, before).size());
+    }
+
+    @Test
+    public void snapshotIgnoredTest() {
+        TestModel1 obj = new TestModel1();
+        obj.field1 = "value";
+        obj.setSnapshot(EscliJsonUtils.valueToTree(obj));
+        Assert.assertEquals("{\"field1\":\"value\"}", EscliJsonUtils.writeValueAsString(obj));
+        obj.field1 = "changed";
+        Assert.assertEquals("{\"field1\":\"changed\"}",
+                EscliJsonUtils.diff(obj.getSnapshot(), EscliJsonUtils.valueToTree(obj)).toString());
+    }
+
+    @Test
+    public void diffTypeTest() {
+        TestModel1 obj = new TestModel1();
+        obj.field1 = "value";
+        JsonNode before = EscliJsonUtils.readTree("{\"field1\":\"old\",\"unknown\":1}".getBytes());
+        // fields the type does not serialize are not removed
+        Assert.assertEquals("{\"field1\":\"value\"}",
+                EscliJsonUtils.diff(before, EscliJsonUtils.valueToTree(obj), TestModel1.class).toString());
+        Assert.assertEquals("{\"field1\":null}", EscliJsonUtils
+                .diff(before, EscliJsonUtils.readTree("{\"unknown\":1}".getBytes()), TestModel1.class).toString());
+    }
+
+    @Test
+    public void diffNumbersTest() {
+        Numbers obj = new Numbers();
+        obj.count = 5;
+        obj.ratio = 0.1f;
+        obj.values = new double[] { 1, 2.5 };
+        // source parses small long as int and float as double
+        JsonNode before = EscliJsonUtils.readTree("{\"count\":5,\"ratio\":0.1,\"values\":[1,2.5]}".getBytes());
+        Assert.assertEquals(0, EscliJsonUtils.diff(before, EscliJsonUtils.valueToTree(obj), Numbers.class).size());
+        obj.count = 6;
+        obj.ratio = 0.2f;
+        Assert.assertEquals("{\"count\":6,\"ratio\":0.2}",
+                EscliJsonUtils.diff(before, EscliJsonUtils.valueToTree(obj), Numbers.class).toString());
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.escli4j.util;
+
+import java.nio.charset.StandardCharsets;
+
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.WrapperQueryBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryNormalizerTest {
+
+    private static String normalize(String json, long now) {
+        return normalize(json, now, now);
+    }
+
+    private static String normalize(String json, long lower, long upper) {
+        return QueryNormalizer
+                .normalize(EscliJsonUtils.readTree(json.getBytes(StandardCharsets.UTF_8)), lower, upper, false)
+                .toString();
+    }
+
+    @Test
+    public void keyOrderTest() {
+        Assert.assertEquals(normalize("{\"b\":1,\"a\":{\"d\":[{\"f\":1,\"e\":2}],\"c\":3}}", -1),
+                normalize("{\"a\":{\"c\":3,\"d\":[{\"e\":2,\"f\":1}]},\"b\":1}", -1));
+        Assert.assertEquals("{\"a\":{\"c\":3,\"d\":[{\"e\":2,\"f\":1}]},\"b\":1}",
+                normalize("{\"b\":1,\"a\":{\"d\":[{\"f\":1,\"e\":2}],\"c\":3}}", -1));
+    }
+
+    @Test
+    public void nowTest() {
+        Assert.assertEquals("{\"range\":{\"date\":{\"from\":\"1000||-1d/d\",\"to\":\"1000\"}}}",
+                normalize("{\"range\":{\"date\":{\"to\":\"now\",\"from\":\"now-1d/d\"}}}", 1000));
+        // now is kept when disabled, with the explicit format and outside of the range bounds
+        Assert.assertEquals("{\"range\":{\"date\":{\"to\":\"now\"}}}",
+                normalize("{\"range\":{\"date\":{\"to\":\"now\"}}}", -1));
+        Assert.assertEquals("{\"range\":{\"date\":{\"format\":\"yyyy\",\"to\":\"now\"}}}",
+                normalize("{\"range\":{\"date\":{\"to\":\"now\",\"format\":\"yyyy\"}}}", 1000));
+        Assert.assertEquals("{\"term\":{\"text\":{\"value\":\"now\"}}}",
+                normalize("{\"term\":{\"text\":{\"value\":\"now\"}}}", 1000));
+        Assert.assertEquals("{\"range\":{\"text\":{\"to\":\"nowhere\"}}}",
+                normalize("{\"range\":{\"text\":{\"to\":\"nowhere\"}}}", 1000));
+    }
+
+    @Test
+    public void upperBoundTest() {
+        // upper bounds are rounded up, documents up to now are not dropped
+        Assert.assertEquals("{\"range\":{\"date\":{\"gte\":\"1000||-1d\",\"lte\":\"2000\"}}}",
+                normalize("{\"range\":{\"date\":{\"lte\":\"now\",\"gte\":\"now-1d\"}}}", 1000, 2000));
+        Assert.assertEquals("{\"range\":{\"date\":{\"from\":\"1000\",\"lt\":\"2000||/d\",\"to\":\"2000\"}}}",
+                normalize("{\"range\":{\"date\":{\"from\":\"now\",\"to\":\"now\",\"lt\":\"now/d\"}}}", 1000,
+                        2000));
+        WrapperQueryBuilder query = (WrapperQueryBuilder) QueryNormalizer
+                .normalize(QueryBuilders.rangeQuery("date").lte("now"), 60000, 120000);
+        Assert.assertTrue(new String(query.source(), StandardCharsets.UTF_8).contains("\"to\":\"120000\""));
+    }
+
+    @Test
+    public void queryTest() {
+        WrapperQueryBuilder first = (WrapperQueryBuilder) QueryNormalizer.normalize(QueryBuilders.boolQuery()
+                .filter(QueryBuilders.rangeQuery("date").gte("now-1h").lt("now")), 60000);
+        WrapperQueryBuilder second = (WrapperQueryBuilder) QueryNormalizer.normalize(QueryBuilders.boolQuery()
+                .filter(QueryBuilders.rangeQuery("date").lt("now").gte("now-1h")), 60000);
+        Assert.assertArrayEquals(first.source(), second.source());
+        Assert.assertTrue(new String(first.source(), StandardCharsets.UTF_8).contains("\"from\":\"60000||-1h\""));
+    }
+
+}